@@ -4,6 +4,8 @@ import me.xuxiaoxiao.xtools.common.hash.XHashTools;
 import me.xuxiaoxiao.xtools.common.http.XHttpTools;
 import me.xuxiaoxiao.xtools.common.http.impl.XRequest;
 import me.xuxiaoxiao.xtools.common.http.impl.XResponse;
+import me.xuxiaoxiao.xtools.common.jfr.XIoEvent;
+import me.xuxiaoxiao.xtools.common.metrics.XMetrics;
 import me.xuxiaoxiao.xtools.common.reflect.XReflectTools;
 import me.xuxiaoxiao.xtools.common.time.XTimeTools;
 
@@ -15,6 +17,7 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.Map;
 import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 常用的基本的函数
@@ -23,6 +26,7 @@ public final class XTools {
     private static XHashTools hashTools = new XHashTools(new XHashTools.Config());
     private static XHttpTools httpTools = new XHttpTools(new XHttpTools.Config());
     private static XReflectTools reflectTools = new XReflectTools();
+    private static XMetrics metrics;
 
     private XTools() {
     }
@@ -39,6 +43,17 @@ public final class XTools {
         XTools.reflectTools = reflectTools;
     }
 
+    /**
+     * 设置流操作函数使用的指标注册表，为null则不记录指标。
+     * 每次调用strToFile、streamToStr、streamToFile、streamToStream时按函数名记录次数和字节数，
+     * fileToStr和fileToFile分别记为streamToStr和streamToStream
+     *
+     * @param metrics 指标注册表
+     */
+    public static void setMetrics(@Nullable XMetrics metrics) {
+        XTools.metrics = metrics;
+    }
+
     /**
      * 字符串MD5散列
      *
@@ -296,10 +311,12 @@ public final class XTools {
     @Nonnull
     public static File strToFile(@Nullable String str, @Nonnull String path, @Nonnull String charset) throws IOException {
         File file = new File(path);
+        byte[] bytes = str == null ? new byte[0] : str.getBytes(charset);
         try (BufferedOutputStream outStream = new BufferedOutputStream(Files.newOutputStream(file.toPath()))) {
-            outStream.write(str == null ? new byte[0] : str.getBytes(charset));
+            outStream.write(bytes);
             outStream.flush();
         }
+        measure("strToFile", bytes.length);
         return file;
     }
 
@@ -329,8 +346,12 @@ public final class XTools {
     @Nonnull
     public static File fileToFile(@Nonnull File file, @Nonnull String path) throws IOException {
         File fileTo = new File(path);
+        XIoEvent event = new XIoEvent();
+        event.begin();
         try (FileInputStream fInStream = new FileInputStream(file); FileOutputStream fOutStream = new FileOutputStream(fileTo)) {
-            streamToStream(fInStream, fOutStream);
+            long total = transfer(fInStream, fOutStream);
+            measure("streamToStream", total);
+            event.finish("fileToFile", file.getPath(), fileTo.getPath(), total);
             return fileTo;
         }
     }
@@ -348,10 +369,29 @@ public final class XTools {
         int count;
         char[] buffer = new char[1024];
         StringBuilder sbStr = new StringBuilder();
+        long[] total = new long[1];
+        if (metrics != null) {
+            inStream = new FilterInputStream(inStream) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    total[0] += b < 0 ? 0 : 1;
+                    return b;
+                }
+
+                @Override
+                public int read(@Nonnull byte[] b, int off, int len) throws IOException {
+                    int count = super.read(b, off, len);
+                    total[0] += Math.max(count, 0);
+                    return count;
+                }
+            };
+        }
         BufferedReader bufReader = new BufferedReader(new InputStreamReader(inStream, charset));
         while ((count = bufReader.read(buffer)) > 0) {
             sbStr.append(buffer, 0, count);
         }
+        measure("streamToStr", total[0]);
         return sbStr.toString();
     }
 
@@ -366,15 +406,21 @@ public final class XTools {
     @Nonnull
     public static File streamToFile(@Nonnull InputStream inStream, @Nonnull String path) throws IOException {
         int count;
+        long total = 0;
         byte[] buffer = new byte[1024];
         File file = new File(path);
+        XIoEvent event = new XIoEvent();
+        event.begin();
         BufferedInputStream bufInStream = new BufferedInputStream(inStream);
         try (BufferedOutputStream outStream = new BufferedOutputStream(Files.newOutputStream(file.toPath()))) {
             while ((count = bufInStream.read(buffer)) > 0) {
                 outStream.write(buffer, 0, count);
+                total += count;
             }
             outStream.flush();
         }
+        measure("streamToFile", total);
+        event.finish("streamToFile", null, file.getPath(), total);
         return file;
     }
 
@@ -386,14 +432,47 @@ public final class XTools {
      * @throws IOException 输入输出时可能会发生IO异常
      */
     public static void streamToStream(@Nonnull InputStream inStream, @Nonnull OutputStream outStream) throws IOException {
+        XIoEvent event = new XIoEvent();
+        event.begin();
+        long total = transfer(inStream, outStream);
+        measure("streamToStream", total);
+        event.finish("streamToStream", null, null, total);
+    }
+
+    /**
+     * 将输入流中的全部数据读取到输出流
+     *
+     * @param inStream  要读取的输入流，不会关闭该输入流
+     * @param outStream 要写入的输出流，不会关闭该输出流
+     * @return 复制的字节数
+     * @throws IOException 输入输出时可能会发生IO异常
+     */
+    private static long transfer(@Nonnull InputStream inStream, @Nonnull OutputStream outStream) throws IOException {
         int count;
+        long total = 0;
         byte[] buffer = new byte[1024];
         BufferedInputStream bufInStream = new BufferedInputStream(inStream);
         BufferedOutputStream bufOutStream = new BufferedOutputStream(outStream);
         while ((count = bufInStream.read(buffer)) > 0) {
             bufOutStream.write(buffer, 0, count);
+            total += count;
         }
         bufOutStream.flush();
+        return total;
+    }
+
+    /**
+     * 设置了指标注册表时记录一次流操作的次数和字节数
+     *
+     * @param operation 流操作函数名
+     * @param bytes     读写的字节数
+     */
+    private static void measure(@Nonnull String operation, long bytes) {
+        XMetrics metrics = XTools.metrics;
+        if (metrics != null) {
+            metrics.increment("io." + operation + ".ops");
+            metrics.add("io." + operation + ".bytes", bytes);
+        }
     }
 
     /**
@@ -767,6 +846,17 @@ public final class XTools {
         return httpTools.http(request);
     }
 
+    /**
+     * 使用默认的请求执行器异步进行HTTP请求
+     *
+     * @param request http请求
+     * @return 请求的响应体的Future
+     */
+    @Nonnull
+    public static CompletableFuture<XResponse> httpAsync(@Nonnull XRequest request) {
+        return httpTools.httpAsync(request);
+    }
+
     @Nullable
     public static <T> T getFieldValue(@Nonnull Object obj, @Nonnull String field) {
         return reflectTools.getFieldValue(obj, field);
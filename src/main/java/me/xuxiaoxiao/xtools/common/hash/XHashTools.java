@@ -1,6 +1,10 @@
 package me.xuxiaoxiao.xtools.common.hash;
 
+import me.xuxiaoxiao.xtools.common.jfr.XHashEvent;
+import me.xuxiaoxiao.xtools.common.metrics.XMetrics;
+
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -41,6 +45,7 @@ public class XHashTools {
         try {
             MessageDigest messageDigest = MessageDigest.getInstance(algorithm);
             messageDigest.update(bytes);
+            measure(algorithm, bytes.length);
             return bytesToHex(messageDigest.digest());
         } catch (NoSuchAlgorithmException e) {
             throw new IllegalArgumentException(e);
@@ -58,13 +63,20 @@ public class XHashTools {
     public String hash(@Nonnull String algorithm, @Nonnull File file) {
         try {
             MessageDigest messageDigest = MessageDigest.getInstance(algorithm);
+            XHashEvent event = new XHashEvent();
+            event.begin();
             try (FileInputStream fileInputStream = new FileInputStream(file); DigestInputStream digestInputStream = new DigestInputStream(fileInputStream, messageDigest)) {
                 byte[] buffer = new byte[this.getConfig().getBufferSize()];
+                long total = 0;
                 while (true) {
-                    if (digestInputStream.read(buffer) <= 0) {
+                    int count = digestInputStream.read(buffer);
+                    if (count <= 0) {
                         break;
                     }
+                    total += count;
                 }
+                measure(algorithm, total);
+                event.finish(algorithm, file.getPath(), total);
                 return bytesToHex(digestInputStream.getMessageDigest().digest());
             }
         } catch (NoSuchAlgorithmException | IOException e) {
@@ -72,6 +84,20 @@ public class XHashTools {
         }
     }
 
+    /**
+     * 配置了指标注册表时记录一次散列的次数和字节数
+     *
+     * @param algorithm 散列算法
+     * @param bytes     被散列的字节数
+     */
+    private void measure(@Nonnull String algorithm, long bytes) {
+        XMetrics metrics = this.getConfig().getMetrics();
+        if (metrics != null) {
+            metrics.increment("hash." + algorithm + ".ops");
+            metrics.add("hash." + algorithm + ".bytes", bytes);
+        }
+    }
+
     /**
      * 将字节数组转换成16进制字符串
      *
@@ -91,9 +117,11 @@ public class XHashTools {
 
     public static class Config {
         private int bufferSize;
+        private XMetrics metrics;
 
         public Config() {
             this.bufferSize = 131072;
+            this.metrics = null;
         }
 
         public int getBufferSize() {
@@ -103,5 +131,19 @@ public class XHashTools {
         public void setBufferSize(int bufferSize) {
             this.bufferSize = bufferSize;
         }
+
+        @Nullable
+        public XMetrics getMetrics() {
+            return metrics;
+        }
+
+        /**
+         * 设置指标注册表，为null则不记录指标。每次散列按算法记录次数和字节数
+         *
+         * @param metrics 指标注册表
+         */
+        public void setMetrics(@Nullable XMetrics metrics) {
+            this.metrics = metrics;
+        }
     }
 }
@@ -1,13 +1,35 @@
 package me.xuxiaoxiao.xtools.common.http;
 
+import me.xuxiaoxiao.xtools.common.http.impl.XBatchDispatcher;
+import me.xuxiaoxiao.xtools.common.http.impl.XCircuitBreaker;
+import me.xuxiaoxiao.xtools.common.http.impl.XConcurrencyLimiter;
+import me.xuxiaoxiao.xtools.common.http.impl.XDownloader;
+import me.xuxiaoxiao.xtools.common.http.impl.XEventListener;
 import me.xuxiaoxiao.xtools.common.http.impl.XExecutor;
+import me.xuxiaoxiao.xtools.common.http.impl.XHedgePolicy;
+import me.xuxiaoxiao.xtools.common.http.impl.XHttpCache;
+import me.xuxiaoxiao.xtools.common.http.impl.XKeepAliveTracker;
+import me.xuxiaoxiao.xtools.common.http.impl.XLoadBalancer;
+import me.xuxiaoxiao.xtools.common.http.impl.XRateLimiter;
 import me.xuxiaoxiao.xtools.common.http.impl.XRequest;
+import me.xuxiaoxiao.xtools.common.http.impl.XResolver;
 import me.xuxiaoxiao.xtools.common.http.impl.XResponse;
+import me.xuxiaoxiao.xtools.common.http.impl.XRetryPolicy;
+import me.xuxiaoxiao.xtools.common.http.impl.XSingleFlight;
+import me.xuxiaoxiao.xtools.common.metrics.XMetrics;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.SSLContext;
+import java.io.IOException;
 import java.net.CookieManager;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * HTTP工具类
@@ -15,6 +37,8 @@ import java.net.CookieManager;
 public class XHttpTools {
 
     private final Config config;
+    private volatile Semaphore asyncPermits;
+    private volatile XBatchDispatcher batchDispatcher;
 
     public XHttpTools(Config config) {
         this.config = config;
@@ -32,32 +56,577 @@ public class XHttpTools {
      */
     @Nonnull
     public XResponse http(@Nonnull XRequest request) {
+        return http(request, false);
+    }
+
+    @Nonnull
+    private XResponse http(@Nonnull XRequest request, boolean reserved) {
+        XMetrics metrics = getConfig().getMetrics();
+        long start = metrics == null ? 0 : System.nanoTime();
         try {
-            return getConfig().executor.execute(request);
+            XResponse response = execute(request, reserved);
+            if (metrics != null) {
+                measure(metrics, request, String.valueOf(response.getStatusCode()), System.nanoTime() - start);
+            }
+            return response;
         } catch (Exception e) {
+            if (metrics != null) {
+                measure(metrics, request, "error", System.nanoTime() - start);
+            }
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 记录一次HTTP请求的指标，包括重试在内的整个请求记为一次，耗时按得到响应为止计算
+     *
+     * @param metrics 指标注册表
+     * @param request HTTP请求
+     * @param status  响应状态码，请求失败时为error
+     * @param nanos   请求耗时
+     */
+    private static void measure(@Nonnull XMetrics metrics, @Nonnull XRequest request, @Nonnull String status, long nanos) {
+        String origin = request.getOrigin();
+        metrics.increment("http.requests");
+        metrics.increment("http.requests.host." + origin);
+        metrics.increment("http.requests.method." + request.getMethod());
+        metrics.increment("http.requests.status." + status);
+        metrics.record("http.latency", nanos);
+        metrics.record("http.latency.host." + origin, nanos);
+        metrics.record("http.latency.method." + request.getMethod(), nanos);
+    }
+
+    /**
+     * 执行HTTP请求，配置了响应缓存时优先使用缓存。缓存在最外层，命中的请求不会经过限流、负载均衡、熔断和并发限制，
+     * 只有未命中和需要重新验证的请求才会继续执行，缓存的键是改写到上游成员之前的地址
+     *
+     * @param request  HTTP请求
+     * @param reserved 是否已经预约过限流器的令牌
+     * @return HTTP响应
+     * @throws Exception 执行请求时可能会发生异常
+     */
+    @Nonnull
+    private XResponse execute(@Nonnull XRequest request, boolean reserved) throws Exception {
+        XHttpCache httpCache = getConfig().getHttpCache();
+        if (httpCache != null) {
+            return httpCache.execute(request, req -> coalesce(req, reserved), getConfig());
+        }
+        return coalesce(request, reserved);
+    }
+
+    /**
+     * 执行HTTP请求，配置了请求合并时，同时进行的相同GET请求只执行一次，包括重试在内
+     *
+     * @param request  HTTP请求
+     * @param reserved 是否已经预约过限流器的令牌
+     * @return HTTP响应
+     * @throws Exception 执行请求时可能会发生异常
+     */
+    @Nonnull
+    private XResponse coalesce(@Nonnull XRequest request, boolean reserved) throws Exception {
+        XSingleFlight singleFlight = getConfig().getSingleFlight();
+        if (singleFlight != null) {
+            return singleFlight.execute(request, req -> retry(req, reserved), getConfig());
+        }
+        return retry(request, reserved);
+    }
+
+    /**
+     * 执行HTTP请求，配置了重试策略时按重试策略执行
+     *
+     * @param request  HTTP请求
+     * @param reserved 是否已经预约过限流器的令牌
+     * @return HTTP响应
+     * @throws Exception 执行请求时可能会发生异常
+     */
+    @Nonnull
+    private XResponse retry(@Nonnull XRequest request, boolean reserved) throws Exception {
+        Chain chain = this::throttle;
+        if (reserved) {
+            //异步请求在调度时已经预约过令牌，第一次执行时不再获取令牌，重试时仍然需要获取
+            AtomicBoolean first = new AtomicBoolean(true);
+            chain = req -> first.compareAndSet(true, false) ? balance(req) : throttle(req);
+        }
+        XRetryPolicy retryPolicy = getConfig().getRetryPolicy();
+        if (retryPolicy != null) {
+            return retryPolicy.execute(request, chain);
+        }
+        return chain.proceed(request);
+    }
+
+    /**
+     * 执行HTTP请求，配置了限流器时先获取令牌
+     *
+     * @param request HTTP请求
+     * @return HTTP响应
+     * @throws Exception 执行请求时可能会发生异常
+     */
+    @Nonnull
+    private XResponse throttle(@Nonnull XRequest request) throws Exception {
+        XRateLimiter rateLimiter = getConfig().getRateLimiter();
+        if (rateLimiter != null) {
+            return rateLimiter.execute(request, this::balance);
+        }
+        return balance(request);
+    }
+
+    /**
+     * 执行HTTP请求，配置了负载均衡器且请求的主机是上游分组时，改写到分组中的某个成员上执行。
+     * 负载均衡在限流之后、熔断之前，限流按分组进行，熔断和并发限制按成员进行，重试时会重新选择成员
+     *
+     * @param request HTTP请求
+     * @return HTTP响应
+     * @throws Exception 执行请求时可能会发生异常
+     */
+    @Nonnull
+    private XResponse balance(@Nonnull XRequest request) throws Exception {
+        XLoadBalancer loadBalancer = getConfig().getLoadBalancer();
+        if (loadBalancer != null) {
+            return loadBalancer.execute(request, this::hedge);
+        }
+        return hedge(request);
+    }
+
+    /**
+     * 执行HTTP请求，配置了对冲策略时按对冲策略在对冲策略的执行器中执行。
+     * 对冲在熔断之前，原请求和每个对冲请求都各自经过熔断器、舱壁和并发限制器
+     *
+     * @param request HTTP请求
+     * @return HTTP响应
+     * @throws Exception 执行请求时可能会发生异常
+     */
+    @Nonnull
+    private XResponse hedge(@Nonnull XRequest request) throws Exception {
+        XHedgePolicy hedgePolicy = getConfig().getHedgePolicy();
+        if (hedgePolicy != null) {
+            return hedgePolicy.execute(request, this::protect);
+        }
+        return protect(request);
+    }
+
+    /**
+     * 执行HTTP请求，配置了熔断器时经过熔断器和舱壁执行，被拒绝的请求不会到达执行器
+     *
+     * @param request HTTP请求
+     * @return HTTP响应
+     * @throws Exception 执行请求时可能会发生异常
+     */
+    @Nonnull
+    private XResponse protect(@Nonnull XRequest request) throws Exception {
+        XCircuitBreaker circuitBreaker = getConfig().getCircuitBreaker();
+        if (circuitBreaker != null) {
+            return circuitBreaker.execute(request, this::limit);
+        }
+        return limit(request);
+    }
+
+    /**
+     * 执行HTTP请求，配置了自适应并发限制器时在主机的并发上限内执行
+     *
+     * @param request HTTP请求
+     * @return HTTP响应
+     * @throws Exception 执行请求时可能会发生异常
+     */
+    @Nonnull
+    private XResponse limit(@Nonnull XRequest request) throws Exception {
+        XConcurrencyLimiter concurrencyLimiter = getConfig().getConcurrencyLimiter();
+        if (concurrencyLimiter != null) {
+            return concurrencyLimiter.execute(request, this::send);
+        }
+        return send(request);
+    }
+
+    /**
+     * 执行一次HTTP请求
+     *
+     * @param request HTTP请求
+     * @return HTTP响应
+     * @throws Exception 执行请求时可能会发生异常
+     */
+    @Nonnull
+    private XResponse send(@Nonnull XRequest request) throws Exception {
+        return getConfig().getExecutor().execute(request);
+    }
+
+    /**
+     * 使用给定的请求选项异步进行HTTP请求，请求在配置的异步执行器中执行，同时执行的请求数不超过asyncConcurrency。
+     * 取消返回的Future会中断执行请求的线程，取消后才得到的响应会被自动关闭。
+     * 配置了限流器时先预约令牌，令牌不足时延迟执行，等待期间不占用线程
+     *
+     * @param request HTTP请求
+     * @return HTTP响应的Future
+     */
+    @Nonnull
+    public CompletableFuture<XResponse> httpAsync(@Nonnull XRequest request) {
+        AsyncCall call = new AsyncCall(request);
+        try {
+            Executor executor = getConfig().getAsyncExecutor();
+            XRateLimiter rateLimiter = getConfig().getRateLimiter();
+            if (rateLimiter != null) {
+                long wait = rateLimiter.reserve(request);
+                call.reserved = true;
+                if (wait > 0) {
+                    executor = CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS, executor);
+                }
+            }
+            executor.execute(call);
+        } catch (RejectedExecutionException e) {
+            call.completeExceptionally(e);
+        }
+        return call;
+    }
+
+    /**
+     * 并发执行一批HTTP请求，同时执行的请求总数不超过batchConcurrency，
+     * 同一主机同时执行的请求数不超过batchConcurrencyPerHost
+     *
+     * @param requests HTTP请求集合
+     * @return 与请求顺序一致的HTTP响应的Future列表，单个请求失败不影响其他请求
+     */
+    @Nonnull
+    public List<CompletableFuture<XResponse>> httpAll(@Nonnull Collection<XRequest> requests) {
+        XBatchDispatcher dispatcher = batchDispatcher();
+        List<CompletableFuture<XResponse>> futures = new ArrayList<>(requests.size());
+        for (XRequest request : requests) {
+            futures.add(dispatcher.submit(request));
+        }
+        return futures;
+    }
+
+    /**
+     * 并发执行一批HTTP请求，并按完成的顺序在调用线程中逐个回调，所有请求完成后返回。
+     * 回调中需要关闭响应。回调抛出异常或等待时被中断时，未回调的请求会被取消，
+     * 已经得到的响应在抛出前关闭，取消后才得到的响应会被自动关闭
+     *
+     * @param requests HTTP请求集合
+     * @param callback 请求完成的回调
+     * @throws InterruptedException 等待请求完成时被中断
+     */
+    public void httpAll(@Nonnull Collection<XRequest> requests, @Nonnull Callback callback) throws InterruptedException {
+        XBatchDispatcher dispatcher = batchDispatcher();
+        BlockingQueue<BatchResult> completed = new LinkedBlockingQueue<>();
+        List<CompletableFuture<XResponse>> futures = new ArrayList<>(requests.size());
+        for (XRequest request : requests) {
+            int index = futures.size();
+            CompletableFuture<XResponse> future = dispatcher.submit(request);
+            futures.add(future);
+            future.whenComplete((response, error) -> completed.add(new BatchResult(index, request, response, error)));
+        }
+        boolean[] called = new boolean[futures.size()];
+        int remain = futures.size();
+        try {
+            while (remain > 0) {
+                BatchResult result = completed.take();
+                remain--;
+                called[result.index] = true;
+                callback.onComplete(result.request, result.response, result.error);
+            }
+        } finally {
+            if (remain > 0) {
+                for (int i = 0; i < called.length; i++) {
+                    CompletableFuture<XResponse> future = futures.get(i);
+                    if (!called[i] && !future.cancel(true) && !future.isCompletedExceptionally()) {
+                        future.join().close();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 下载文件，服务器支持Range请求时分段并行下载，失败后再次调用会从上次的进度继续下载
+     *
+     * @param request 下载文件的请求
+     * @param path    文件保存的位置
+     * @param options 下载选项
+     * @return 文件保存的位置
+     */
+    @Nonnull
+    public Path download(@Nonnull XRequest request, @Nonnull Path path, @Nonnull DownloadOptions options) {
+        try {
+            return new XDownloader(this::http, getConfig().getAsyncExecutor(), options).download(request, path);
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    @Nonnull
+    private XBatchDispatcher batchDispatcher() {
+        if (batchDispatcher == null) {
+            synchronized (this) {
+                if (batchDispatcher == null) {
+                    batchDispatcher = new XBatchDispatcher(getConfig().getBatchConcurrency(), getConfig().getBatchConcurrencyPerHost(), this::httpAsync);
+                }
+            }
+        }
+        return batchDispatcher;
+    }
+
+    @Nonnull
+    private Semaphore asyncPermits() {
+        if (asyncPermits == null) {
+            synchronized (this) {
+                if (asyncPermits == null) {
+                    asyncPermits = new Semaphore(getConfig().getAsyncConcurrency());
+                }
+            }
+        }
+        return asyncPermits;
+    }
+
+    /**
+     * 创建默认的异步执行器，运行在Java 21及以上时使用虚拟线程，否则使用固定大小的守护线程池
+     *
+     * @param concurrency 最大并发数
+     * @return 异步执行器
+     */
+    @Nonnull
+    private static ExecutorService newAsyncExecutor(int concurrency) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException ignored) {
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(concurrency, concurrency, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "xtools-http-async");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 异步HTTP请求，取消时中断正在执行请求的线程
+     */
+    private final class AsyncCall extends CompletableFuture<XResponse> implements Runnable {
+        private final XRequest request;
+        private final long createdNanos = System.nanoTime();
+        private boolean reserved;
+        private Thread thread;
+
+        private AsyncCall(@Nonnull XRequest request) {
+            this.request = request;
+        }
+
+        @Override
+        public void run() {
+            if (isDone()) {
+                return;
+            }
+            synchronized (this) {
+                thread = Thread.currentThread();
+            }
+            Semaphore permits = asyncPermits();
+            boolean acquired = false;
+            try {
+                permits.acquire();
+                acquired = true;
+                XEventListener listener = getConfig().getExecutor().getListener();
+                if (listener != null) {
+                    listener.queued(request, System.nanoTime() - createdNanos);
+                }
+                if (!isDone()) {
+                    XResponse response = http(request, reserved);
+                    if (!complete(response)) {
+                        response.close();
+                    }
+                }
+            } catch (Throwable e) {
+                completeExceptionally(e);
+            } finally {
+                if (acquired) {
+                    permits.release();
+                }
+                synchronized (this) {
+                    thread = null;
+                    Thread.interrupted();
+                }
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled && mayInterruptIfRunning) {
+                synchronized (this) {
+                    if (thread != null) {
+                        thread.interrupt();
+                    }
+                }
+            }
+            return cancelled;
+        }
+    }
+
+    /**
+     * 批量请求的回调
+     */
+    public interface Callback {
+        /**
+         * 一个请求完成
+         *
+         * @param request  HTTP请求
+         * @param response HTTP响应，请求失败时为null
+         * @param error    请求失败的原因，请求成功时为null
+         */
+        void onComplete(@Nonnull XRequest request, @Nullable XResponse response, @Nullable Throwable error);
+    }
+
+    /**
+     * 请求执行链中的下一步，重试等策略通过它执行实际的请求
+     */
+    public interface Chain {
+        /**
+         * 执行请求
+         *
+         * @param request HTTP请求
+         * @return HTTP响应
+         * @throws Exception 执行请求时可能会发生异常
+         */
+        @Nonnull
+        XResponse proceed(@Nonnull XRequest request) throws Exception;
+    }
+
+    private static final class BatchResult {
+        private final int index;
+        private final XRequest request;
+        private final XResponse response;
+        private final Throwable error;
+
+        private BatchResult(int index, XRequest request, XResponse response, Throwable error) {
+            this.index = index;
+            this.request = request;
+            this.response = response;
+            this.error = error;
+        }
+    }
+
+    /**
+     * 分段并行下载的选项
+     */
+    public static class DownloadOptions {
+        private int parallelism;
+        private long minRangeSize;
+        private int attempts;
+
+        public DownloadOptions() {
+            this.parallelism = 4;
+            this.minRangeSize = 1048576;
+            this.attempts = 3;
+        }
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        /**
+         * 设置最多同时下载的分段数，小于等于1则单线程下载
+         *
+         * @param parallelism 最多同时下载的分段数
+         */
+        public void setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+        }
+
+        public long getMinRangeSize() {
+            return minRangeSize;
+        }
+
+        /**
+         * 设置每个分段的最小字节数，文件小于两个分段时单线程下载
+         *
+         * @param minRangeSize 每个分段的最小字节数
+         */
+        public void setMinRangeSize(long minRangeSize) {
+            this.minRangeSize = Math.max(minRangeSize, 1);
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+
+        /**
+         * 设置每个分段最多尝试下载的次数，重试时从该分段已下载的位置继续
+         *
+         * @param attempts 每个分段最多尝试的次数
+         */
+        public void setAttempts(int attempts) {
+            this.attempts = attempts;
+        }
+    }
+
     public static class Config {
+        /**
+         * 默认的响应体缓冲阈值，1MB
+         */
+        public static final long DEFAULT_BUFFER_THRESHOLD = 1024 * 1024;
+
         private int connectTimeout;
         private int readTimeout;
         private int chunkLength;
         private boolean followRedirect;
+        private boolean keepAlive;
+        private boolean compressResponse;
+        private int compressRequestThreshold;
+        private int keepAliveDrainLimit;
+        private long bufferThreshold;
+        private boolean bufferDirect;
         private CookieManager cookieManager;
         private HostnameVerifier hostnameVerifier;
         private SSLContext sslContext;
+        private int sslSessionCacheSize;
+        private int sslSessionTimeout;
+        private XResolver resolver;
+        private int connectFailoverTimeout;
         private XExecutor executor;
+        private XHttpCache httpCache;
+        private XSingleFlight singleFlight;
+        private XRetryPolicy retryPolicy;
+        private XHedgePolicy hedgePolicy;
+        private XLoadBalancer loadBalancer;
+        private XCircuitBreaker circuitBreaker;
+        private XConcurrencyLimiter concurrencyLimiter;
+        private XRateLimiter rateLimiter;
+        private XMetrics metrics;
+        private volatile Executor asyncExecutor;
+        private int asyncConcurrency;
+        private int batchConcurrency;
+        private int batchConcurrencyPerHost;
+        private final XKeepAliveTracker keepAliveTracker;
 
         public Config() {
             this.connectTimeout = 10000;
             this.readTimeout = 30000;
             this.chunkLength = 262144;
             this.followRedirect = false;
+            this.keepAlive = false;
+            this.keepAliveDrainLimit = 65536;
+            this.bufferThreshold = DEFAULT_BUFFER_THRESHOLD;
+            this.bufferDirect = false;
+            this.compressResponse = true;
+            this.compressRequestThreshold = -1;
             this.cookieManager = null;
             this.hostnameVerifier = null;
             this.sslContext = null;
+            this.sslSessionCacheSize = -1;
+            this.sslSessionTimeout = -1;
+            this.resolver = null;
+            this.connectFailoverTimeout = 250;
             this.executor = new XExecutor(this);
+            this.httpCache = null;
+            this.singleFlight = null;
+            this.retryPolicy = null;
+            this.hedgePolicy = null;
+            this.loadBalancer = null;
+            this.circuitBreaker = null;
+            this.concurrencyLimiter = null;
+            this.rateLimiter = null;
+            this.metrics = null;
+            this.asyncExecutor = null;
+            this.asyncConcurrency = 256;
+            this.batchConcurrency = 64;
+            this.batchConcurrencyPerHost = 8;
+            this.keepAliveTracker = new XKeepAliveTracker();
         }
 
         public int getConnectTimeout() {
@@ -92,10 +661,138 @@ public class XHttpTools {
             this.followRedirect = followRedirect;
         }
 
+        public boolean isKeepAlive() {
+            return keepAlive;
+        }
+
+        /**
+         * 设置是否复用连接。开启后关闭响应时会读完剩余的响应体（不超过keepAliveDrainLimit），
+         * 并将连接归还到JDK的keep-alive缓存中，而不是直接断开连接
+         *
+         * @param keepAlive 是否复用连接
+         */
+        public void setKeepAlive(boolean keepAlive) {
+            this.keepAlive = keepAlive;
+        }
+
+        public int getKeepAliveDrainLimit() {
+            return keepAliveDrainLimit;
+        }
+
+        /**
+         * 设置关闭响应时最多读取并丢弃的剩余响应体字节数，超过该值则直接断开连接
+         *
+         * @param keepAliveDrainLimit 最多丢弃的字节数
+         */
+        public void setKeepAliveDrainLimit(int keepAliveDrainLimit) {
+            this.keepAliveDrainLimit = keepAliveDrainLimit;
+        }
+
+        public long getBufferThreshold() {
+            return bufferThreshold;
+        }
+
+        /**
+         * 设置XResponse.buffer()保存在内存中的最大响应体字节数，超过后转存到临时文件，默认1MB。
+         * 所有缓冲的响应还共享XBodyBuffer的全局内存预算
+         *
+         * @param bufferThreshold 保存在内存中的最大字节数
+         */
+        public void setBufferThreshold(long bufferThreshold) {
+            this.bufferThreshold = bufferThreshold;
+        }
+
+        public boolean isBufferDirect() {
+            return bufferDirect;
+        }
+
+        /**
+         * 设置XResponse.buffer()是否使用直接内存保存响应体，默认使用堆内存
+         *
+         * @param bufferDirect 是否使用直接内存
+         */
+        public void setBufferDirect(boolean bufferDirect) {
+            this.bufferDirect = bufferDirect;
+        }
+
+        @Nonnull
+        public XKeepAliveTracker getKeepAliveTracker() {
+            return keepAliveTracker;
+        }
+
+        /**
+         * 获取复用了keep-alive空闲连接的请求数（估算值）
+         *
+         * @return 复用连接的请求数
+         */
+        public long getReusedConnections() {
+            return keepAliveTracker.getReusedConnections();
+        }
+
+        /**
+         * 获取新建了连接的请求数（估算值）
+         *
+         * @return 新建连接的请求数
+         */
+        public long getNewConnections() {
+            return keepAliveTracker.getNewConnections();
+        }
+
+        /**
+         * 获取新建HTTPS连接时进行了完整TLS握手的次数
+         *
+         * @return 完整握手的次数
+         */
+        public long getFullHandshakes() {
+            return keepAliveTracker.getFullHandshakes();
+        }
+
+        /**
+         * 获取新建HTTPS连接时恢复了之前的TLS会话的次数，会话恢复省去了证书交换和验证
+         *
+         * @return 会话恢复的次数
+         */
+        public long getResumedHandshakes() {
+            return keepAliveTracker.getResumedHandshakes();
+        }
+
+        public boolean isCompressResponse() {
+            return compressResponse;
+        }
+
+        /**
+         * 设置是否请求压缩的响应体，开启后请求时会带上Accept-Encoding: gzip, deflate，
+         * XResponse会自动解压gzip和deflate压缩的响应体
+         *
+         * @param compressResponse 是否请求压缩的响应体
+         */
+        public void setCompressResponse(boolean compressResponse) {
+            this.compressResponse = compressResponse;
+        }
+
+        public int getCompressRequestThreshold() {
+            return compressRequestThreshold;
+        }
+
+        /**
+         * 设置请求体压缩的阈值，字符串、urlencoded和文件类型的请求体长度不小于该值时使用gzip压缩后以chunked模式发送，
+         * 小于0则不压缩请求体
+         *
+         * @param compressRequestThreshold 请求体压缩的阈值
+         */
+        public void setCompressRequestThreshold(int compressRequestThreshold) {
+            this.compressRequestThreshold = compressRequestThreshold;
+        }
+
         public CookieManager getCookieManager() {
             return cookieManager;
         }
 
+        /**
+         * 设置cookie管理器，为null则不处理cookie。多个会话共用一个配置时建议使用按域名分片的XCookieJar
+         *
+         * @param cookieManager cookie管理器
+         */
         public void setCookieManager(CookieManager cookieManager) {
             this.cookieManager = cookieManager;
         }
@@ -116,6 +813,65 @@ public class XHttpTools {
             this.sslContext = sslContext;
         }
 
+        public int getSslSessionCacheSize() {
+            return sslSessionCacheSize;
+        }
+
+        /**
+         * 设置TLS客户端会话缓存最多保存的会话数，0为不限制，小于0则不修改。
+         * 会应用到配置的SSLContext，没有配置SSLContext时应用到JVM默认的SSLContext
+         *
+         * @param sslSessionCacheSize 会话缓存的大小
+         */
+        public void setSslSessionCacheSize(int sslSessionCacheSize) {
+            this.sslSessionCacheSize = sslSessionCacheSize;
+        }
+
+        public int getSslSessionTimeout() {
+            return sslSessionTimeout;
+        }
+
+        /**
+         * 设置TLS客户端会话缓存中会话的有效时间，0为不限制，小于0则不修改。
+         * 会应用到配置的SSLContext，没有配置SSLContext时应用到JVM默认的SSLContext
+         *
+         * @param sslSessionTimeout 会话的有效时间，秒
+         */
+        public void setSslSessionTimeout(int sslSessionTimeout) {
+            this.sslSessionTimeout = sslSessionTimeout;
+        }
+
+        @Nullable
+        public XResolver getResolver() {
+            return resolver;
+        }
+
+        /**
+         * 设置域名解析器，为null则只使用JVM的域名解析。
+         * 只有HTTPS请求新建连接时使用，实际连接的地址和故障转移的顺序由解析器决定。
+         * 但是HttpsURLConnection在把连接交给SocketFactory之前总会先用JVM解析一次主机，Java 17没有替换JVM域名解析的扩展点，
+         * 所以这次解析的耗时和DNS查询无法避免，只是它的结果不会被使用，JVM解析失败也不影响通过解析器连接。
+         * HttpURLConnection的HTTP请求和XHttpClientExecutor没有替换域名解析的扩展点，不使用解析器
+         *
+         * @param resolver 域名解析器
+         */
+        public void setResolver(@Nullable XResolver resolver) {
+            this.resolver = resolver;
+        }
+
+        public int getConnectFailoverTimeout() {
+            return connectFailoverTimeout;
+        }
+
+        /**
+         * 设置域名解析出多个地址时，连接每个地址的超时时间，超时后尝试下一个地址，最后一个地址使用剩余的连接超时时间，默认250毫秒
+         *
+         * @param connectFailoverTimeout 连接每个地址的超时时间，单位毫秒，为0则只受连接超时时间限制
+         */
+        public void setConnectFailoverTimeout(int connectFailoverTimeout) {
+            this.connectFailoverTimeout = connectFailoverTimeout;
+        }
+
         public XExecutor getExecutor() {
             return executor;
         }
@@ -123,5 +879,192 @@ public class XHttpTools {
         public void setExecutor(XExecutor executor) {
             this.executor = executor;
         }
+
+        @Nullable
+        public XHttpCache getHttpCache() {
+            return httpCache;
+        }
+
+        /**
+         * 设置HTTP响应缓存，为null则不使用缓存
+         *
+         * @param httpCache HTTP响应缓存
+         */
+        public void setHttpCache(@Nullable XHttpCache httpCache) {
+            this.httpCache = httpCache;
+        }
+
+        @Nullable
+        public XSingleFlight getSingleFlight() {
+            return singleFlight;
+        }
+
+        /**
+         * 设置相同GET请求的合并，为null则不合并
+         *
+         * @param singleFlight 请求合并
+         */
+        public void setSingleFlight(@Nullable XSingleFlight singleFlight) {
+            this.singleFlight = singleFlight;
+        }
+
+        @Nullable
+        public XRetryPolicy getRetryPolicy() {
+            return retryPolicy;
+        }
+
+        /**
+         * 设置请求重试策略，为null则不重试
+         *
+         * @param retryPolicy 请求重试策略
+         */
+        public void setRetryPolicy(@Nullable XRetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+        }
+
+        @Nullable
+        public XHedgePolicy getHedgePolicy() {
+            return hedgePolicy;
+        }
+
+        /**
+         * 设置对冲请求策略，为null则不对冲
+         *
+         * @param hedgePolicy 对冲请求策略
+         */
+        public void setHedgePolicy(@Nullable XHedgePolicy hedgePolicy) {
+            this.hedgePolicy = hedgePolicy;
+        }
+
+        @Nullable
+        public XLoadBalancer getLoadBalancer() {
+            return loadBalancer;
+        }
+
+        /**
+         * 设置客户端负载均衡器，为null则不进行负载均衡
+         *
+         * @param loadBalancer 负载均衡器
+         */
+        public void setLoadBalancer(@Nullable XLoadBalancer loadBalancer) {
+            this.loadBalancer = loadBalancer;
+        }
+
+        @Nullable
+        public XCircuitBreaker getCircuitBreaker() {
+            return circuitBreaker;
+        }
+
+        /**
+         * 设置按主机区分的熔断器和舱壁，为null则不熔断
+         *
+         * @param circuitBreaker 熔断器
+         */
+        public void setCircuitBreaker(@Nullable XCircuitBreaker circuitBreaker) {
+            this.circuitBreaker = circuitBreaker;
+        }
+
+        @Nullable
+        public XConcurrencyLimiter getConcurrencyLimiter() {
+            return concurrencyLimiter;
+        }
+
+        /**
+         * 设置按主机区分的自适应并发限制器，为null则不限制
+         *
+         * @param concurrencyLimiter 自适应并发限制器
+         */
+        public void setConcurrencyLimiter(@Nullable XConcurrencyLimiter concurrencyLimiter) {
+            this.concurrencyLimiter = concurrencyLimiter;
+        }
+
+        @Nullable
+        public XRateLimiter getRateLimiter() {
+            return rateLimiter;
+        }
+
+        /**
+         * 设置令牌桶限流器，为null则不限流
+         *
+         * @param rateLimiter 令牌桶限流器
+         */
+        public void setRateLimiter(@Nullable XRateLimiter rateLimiter) {
+            this.rateLimiter = rateLimiter;
+        }
+
+        @Nullable
+        public XMetrics getMetrics() {
+            return metrics;
+        }
+
+        /**
+         * 设置指标注册表，为null则不记录指标。
+         * 每个请求记录总数和按主机、方法、状态码区分的请求数，以及总的和按主机、方法区分的耗时直方图
+         *
+         * @param metrics 指标注册表
+         */
+        public void setMetrics(@Nullable XMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        /**
+         * 获取异步请求的执行器，未设置时创建默认的执行器
+         *
+         * @return 异步请求的执行器
+         */
+        @Nonnull
+        public Executor getAsyncExecutor() {
+            if (asyncExecutor == null) {
+                synchronized (this) {
+                    if (asyncExecutor == null) {
+                        asyncExecutor = newAsyncExecutor(asyncConcurrency);
+                    }
+                }
+            }
+            return asyncExecutor;
+        }
+
+        public void setAsyncExecutor(@Nullable Executor asyncExecutor) {
+            this.asyncExecutor = asyncExecutor;
+        }
+
+        public int getAsyncConcurrency() {
+            return asyncConcurrency;
+        }
+
+        /**
+         * 设置同时执行的异步请求的最大数量，需要在第一次异步请求之前设置
+         *
+         * @param asyncConcurrency 最大并发数
+         */
+        public void setAsyncConcurrency(int asyncConcurrency) {
+            this.asyncConcurrency = asyncConcurrency;
+        }
+
+        public int getBatchConcurrency() {
+            return batchConcurrency;
+        }
+
+        /**
+         * 设置批量请求同时执行的请求总数上限，需要在第一次批量请求之前设置
+         *
+         * @param batchConcurrency 请求总数上限
+         */
+        public void setBatchConcurrency(int batchConcurrency) {
+            this.batchConcurrency = batchConcurrency;
+        }
+
+        public int getBatchConcurrencyPerHost() {
+            return batchConcurrencyPerHost;
+        }
+
+        /**
+         * 设置批量请求中同一主机同时执行的请求数上限，需要在第一次批量请求之前设置
+         *
+         * @param batchConcurrencyPerHost 同一主机的请求数上限
+         */
+        public void setBatchConcurrencyPerHost(int batchConcurrencyPerHost) {
+            this.batchConcurrencyPerHost = batchConcurrencyPerHost;
+        }
     }
 }
@@ -0,0 +1,183 @@
+package me.xuxiaoxiao.xtools.common.http.impl;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * 批量请求调度器，限制同时执行的请求总数和每个主机同时执行的请求数，
+ * 超出限制的请求按主机排队，各主机之间轮流发出请求。
+ * 取消返回的Future时，还在排队的请求直接移出队列，已经发出的请求会被一起取消
+ */
+public class XBatchDispatcher {
+    private final int maxInFlight;
+    private final int maxInFlightPerHost;
+    @Nonnull
+    private final Function<XRequest, CompletableFuture<XResponse>> sender;
+
+    private final Map<String, Deque<Task>> pending = new HashMap<>();
+    private final Map<String, Integer> hostInFlight = new HashMap<>();
+    private final Deque<String> readyHosts = new ArrayDeque<>();
+    private int inFlight;
+    private boolean dispatching;
+
+    /**
+     * @param maxInFlight        同时执行的请求总数上限
+     * @param maxInFlightPerHost 每个主机同时执行的请求数上限
+     * @param sender             实际发出请求的方法
+     */
+    public XBatchDispatcher(int maxInFlight, int maxInFlightPerHost, @Nonnull Function<XRequest, CompletableFuture<XResponse>> sender) {
+        this.maxInFlight = Math.max(maxInFlight, 1);
+        this.maxInFlightPerHost = Math.max(maxInFlightPerHost, 1);
+        this.sender = sender;
+    }
+
+    /**
+     * 提交一个请求，在有空闲的并发额度时发出
+     *
+     * @param request HTTP请求
+     * @return HTTP响应的Future，各个请求的失败互不影响
+     */
+    @Nonnull
+    public CompletableFuture<XResponse> submit(@Nonnull XRequest request) {
+        Task task = new Task(request);
+        try {
+            task.host = request.getOrigin();
+        } catch (IllegalArgumentException e) {
+            task.future.completeExceptionally(e);
+            return task.future;
+        }
+        synchronized (this) {
+            Deque<Task> queue = pending.computeIfAbsent(task.host, key -> new ArrayDeque<>());
+            queue.addLast(task);
+            if (queue.size() == 1 && hostInFlight.getOrDefault(task.host, 0) < maxInFlightPerHost) {
+                readyHosts.addLast(task.host);
+            }
+        }
+        task.future.whenComplete((response, error) -> {
+            if (task.future.isCancelled()) {
+                cancel(task);
+            }
+        });
+        dispatch();
+        return task.future;
+    }
+
+    /**
+     * 取消一个请求，还在排队的移出队列，已经发出的取消实际的请求
+     *
+     * @param task 被取消的请求
+     */
+    private void cancel(@Nonnull Task task) {
+        synchronized (this) {
+            Deque<Task> queue = pending.get(task.host);
+            if (queue != null && queue.remove(task)) {
+                if (queue.isEmpty()) {
+                    pending.remove(task.host);
+                    readyHosts.remove(task.host);
+                }
+                return;
+            }
+        }
+        CompletableFuture<XResponse> sent = task.sent;
+        if (sent != null) {
+            sent.cancel(true);
+        }
+    }
+
+    /**
+     * 发出所有能够发出的请求，同一时间只有一个线程在循环中发出请求，
+     * 其他线程只更新计数，由正在发出请求的线程继续发出，同步完成的请求不会使调用栈增长
+     */
+    private void dispatch() {
+        synchronized (this) {
+            if (dispatching) {
+                return;
+            }
+            dispatching = true;
+        }
+        List<Task> tasks;
+        while (!(tasks = poll()).isEmpty()) {
+            for (Task task : tasks) {
+                send(task);
+            }
+        }
+    }
+
+    /**
+     * 取出能够发出的请求，没有时结束发出请求的循环
+     *
+     * @return 能够发出的请求
+     */
+    @Nonnull
+    private synchronized List<Task> poll() {
+        List<Task> tasks = new LinkedList<>();
+        while (inFlight < maxInFlight && !readyHosts.isEmpty()) {
+            String host = readyHosts.pollFirst();
+            Deque<Task> queue = pending.get(host);
+            tasks.add(queue.pollFirst());
+            inFlight++;
+            int hostCount = hostInFlight.merge(host, 1, Integer::sum);
+            if (queue.isEmpty()) {
+                pending.remove(host);
+            } else if (hostCount < maxInFlightPerHost) {
+                readyHosts.addLast(host);
+            }
+        }
+        if (tasks.isEmpty()) {
+            dispatching = false;
+        }
+        return tasks;
+    }
+
+    /**
+     * 发出一个请求，请求完成后释放并发额度
+     *
+     * @param task 要发出的请求
+     */
+    private void send(@Nonnull Task task) {
+        CompletableFuture<XResponse> future;
+        try {
+            future = sender.apply(task.request);
+        } catch (Throwable e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        task.sent = future;
+        if (task.future.isCancelled()) {
+            future.cancel(true);
+        }
+        future.whenComplete((response, error) -> {
+            finish(task.host);
+            if (error != null) {
+                task.future.completeExceptionally(error);
+            } else if (!task.future.complete(response)) {
+                response.close();
+            }
+            dispatch();
+        });
+    }
+
+    private synchronized void finish(@Nonnull String host) {
+        inFlight--;
+        int hostCount = hostInFlight.merge(host, -1, Integer::sum);
+        if (hostCount <= 0) {
+            hostInFlight.remove(host);
+        }
+        if (hostCount == maxInFlightPerHost - 1 && pending.containsKey(host)) {
+            readyHosts.addLast(host);
+        }
+    }
+
+    private static class Task {
+        private final XRequest request;
+        private final CompletableFuture<XResponse> future = new CompletableFuture<>();
+        private String host;
+        private volatile CompletableFuture<XResponse> sent;
+
+        private Task(XRequest request) {
+            this.request = request;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package me.xuxiaoxiao.xtools.common.http.impl;
+
+import javax.annotation.Nonnull;
+import java.io.*;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 可以重复读取的响应体缓冲区，不超过阈值的响应体保存在堆内存或直接内存中，超过阈值的响应体转存到临时文件。
+ * 所有缓冲区共享一个全局的内存预算，预算用完时新的数据也会转存到临时文件，避免同时缓冲很多响应体时内存溢出。
+ * 缓冲区需要关闭以归还内存预算和删除临时文件，没有关闭的缓冲区被回收时也会自动清理
+ */
+public class XBodyBuffer implements Closeable {
+    private static final Cleaner CLEANER = Cleaner.create();
+    private static final int CHUNK_SIZE = 65536;
+    private static final AtomicLong MEMORY_USED = new AtomicLong();
+    private static volatile long memoryBudget = Math.max(Runtime.getRuntime().maxMemory() / 8, 16 * 1024 * 1024);
+
+    private final State state;
+    private final Cleaner.Cleanable cleanable;
+
+    /**
+     * 读取输入流中的全部数据到新的缓冲区，读取完成后不会关闭输入流
+     *
+     * @param inStream  输入流
+     * @param threshold 保存在内存中的最大字节数，超过后转存到临时文件
+     * @param direct    是否使用直接内存
+     * @throws IOException 读取输入流或写入临时文件时可能会发生异常
+     */
+    public XBodyBuffer(@Nonnull InputStream inStream, long threshold, boolean direct) throws IOException {
+        this.state = new State();
+        this.cleanable = CLEANER.register(this, state);
+        try {
+            read(inStream, threshold, direct);
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * 获取全部缓冲区共享的内存预算
+     *
+     * @return 内存预算的字节数
+     */
+    public static long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * 设置全部缓冲区共享的内存预算，默认为最大堆内存的1/8，不小于16MB
+     *
+     * @param memoryBudget 内存预算的字节数
+     */
+    public static void setMemoryBudget(long memoryBudget) {
+        XBodyBuffer.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * 获取全部缓冲区当前占用的内存
+     *
+     * @return 占用内存的字节数
+     */
+    public static long getMemoryUsed() {
+        return MEMORY_USED.get();
+    }
+
+    private void read(@Nonnull InputStream inStream, long threshold, boolean direct) throws IOException {
+        byte[] bytes = new byte[8192];
+        ByteBuffer chunk = null;
+        OutputStream fileStream = null;
+        try {
+            int count;
+            while ((count = inStream.read(bytes)) >= 0) {
+                state.length += count;
+                if (fileStream != null) {
+                    fileStream.write(bytes, 0, count);
+                    continue;
+                }
+                int offset = 0;
+                while (offset < count) {
+                    if (chunk == null || !chunk.hasRemaining()) {
+                        chunk = allocate(threshold, direct);
+                        if (chunk == null) {
+                            //超过阈值或内存预算，把内存中的数据转存到临时文件
+                            fileStream = spill();
+                            fileStream.write(bytes, offset, count - offset);
+                            break;
+                        }
+                        state.chunks.add(chunk);
+                    }
+                    int length = Math.min(chunk.remaining(), count - offset);
+                    chunk.put(bytes, offset, length);
+                    offset += length;
+                }
+            }
+        } finally {
+            if (fileStream != null) {
+                fileStream.close();
+            }
+        }
+        for (ByteBuffer buffer : state.chunks) {
+            buffer.flip();
+        }
+    }
+
+    /**
+     * 在阈值和内存预算内分配一个新的数据块，数据块从8KB开始随已缓冲的数据量倍增，最大64KB
+     */
+    private ByteBuffer allocate(long threshold, boolean direct) {
+        int size = (int) Math.min(Math.min(Math.max(state.reserved, 8192), CHUNK_SIZE), threshold - state.reserved);
+        if (size <= 0) {
+            return null;
+        }
+        long used;
+        do {
+            used = MEMORY_USED.get();
+            if (used + size > memoryBudget) {
+                return null;
+            }
+        } while (!MEMORY_USED.compareAndSet(used, used + size));
+        state.reserved += size;
+        return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+
+    /**
+     * 创建临时文件并写入内存中的数据，然后归还内存预算
+     */
+    @Nonnull
+    private OutputStream spill() throws IOException {
+        state.file = Files.createTempFile("xtools-body-", ".tmp").toFile();
+        OutputStream fileStream = new BufferedOutputStream(new FileOutputStream(state.file), 65536);
+        for (ByteBuffer chunk : state.chunks) {
+            chunk.flip();
+            if (chunk.hasArray()) {
+                fileStream.write(chunk.array(), chunk.arrayOffset(), chunk.remaining());
+            } else {
+                byte[] bytes = new byte[chunk.remaining()];
+                chunk.get(bytes);
+                fileStream.write(bytes);
+            }
+        }
+        state.releaseMemory();
+        return fileStream;
+    }
+
+    /**
+     * 获取缓冲的字节数
+     *
+     * @return 缓冲的字节数
+     */
+    public long length() {
+        return state.length;
+    }
+
+    /**
+     * 判断数据是否转存到了临时文件
+     *
+     * @return 是否转存到了临时文件
+     */
+    public boolean isSpilled() {
+        return state.file != null;
+    }
+
+    /**
+     * 打开一个从头读取缓冲数据的输入流，可以多次打开，每个输入流互不影响
+     *
+     * @return 读取缓冲数据的输入流
+     * @throws IOException 缓冲区已关闭或打开临时文件失败时抛出
+     */
+    @Nonnull
+    public InputStream openStream() throws IOException {
+        if (state.closed) {
+            throw new IOException("缓冲区已关闭");
+        }
+        if (state.file != null) {
+            return new BufferedInputStream(new FileInputStream(state.file), 65536);
+        }
+        List<ByteBuffer> chunks = new ArrayList<>(state.chunks.size());
+        for (ByteBuffer chunk : state.chunks) {
+            chunks.add(chunk.asReadOnlyBuffer());
+        }
+        return new ChunksInputStream(chunks);
+    }
+
+    /**
+     * 释放内存和删除临时文件，之后不能再打开输入流
+     */
+    @Override
+    public void close() {
+        cleanable.clean();
+    }
+
+    /**
+     * 缓冲区占用的资源，和缓冲区分开以便在缓冲区被回收时清理
+     */
+    private static final class State implements Runnable {
+        private final List<ByteBuffer> chunks = new ArrayList<>();
+        private long reserved;
+        private long length;
+        private volatile File file;
+        private volatile boolean closed;
+
+        private void releaseMemory() {
+            MEMORY_USED.addAndGet(-reserved);
+            reserved = 0;
+            chunks.clear();
+        }
+
+        @Override
+        public void run() {
+            closed = true;
+            releaseMemory();
+            if (file != null && !file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * 依次读取多个数据块的输入流
+     */
+    private static final class ChunksInputStream extends InputStream {
+        private final List<ByteBuffer> chunks;
+        private int index;
+
+        private ChunksInputStream(List<ByteBuffer> chunks) {
+            this.chunks = chunks;
+        }
+
+        @Override
+        public int read() {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(@Nonnull byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            while (index < chunks.size()) {
+                ByteBuffer chunk = chunks.get(index);
+                if (chunk.hasRemaining()) {
+                    int count = Math.min(len, chunk.remaining());
+                    chunk.get(b, off, count);
+                    return count;
+                }
+                index++;
+            }
+            return -1;
+        }
+
+        @Override
+        public int available() {
+            long available = 0;
+            for (int i = index; i < chunks.size(); i++) {
+                available += chunks.get(i).remaining();
+            }
+            return (int) Math.min(available, Integer.MAX_VALUE);
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package me.xuxiaoxiao.xtools.common.http.impl;
+
+import me.xuxiaoxiao.xtools.common.http.XHttpTools;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按主机（协议+主机+端口）区分的熔断器和舱壁。
+ * 最近若干次请求中失败或慢请求的比例超过阈值时熔断器打开，打开期间该主机的请求直接失败，
+ * 一段时间后进入半开状态，放行少量探测请求，探测请求正常则关闭熔断器，否则重新打开。
+ * 每个主机同时执行的请求数不超过舱壁的容量，超出时等待一段时间后失败，避免一个故障的主机占满所有线程。
+ * 请求被拒绝时抛出RejectedExecutionException
+ */
+public class XCircuitBreaker {
+    private int windowSize;
+    private int minCalls;
+    private double failureRateThreshold;
+    private double slowCallRateThreshold;
+    private long slowCallDuration;
+    private long openDuration;
+    private int halfOpenCalls;
+    private int maxConcurrentCalls;
+    private long maxWait;
+
+    private final ConcurrentHashMap<String, Breaker> breakers = new ConcurrentHashMap<>();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public XCircuitBreaker() {
+        this.windowSize = 100;
+        this.minCalls = 20;
+        this.failureRateThreshold = 0.5;
+        this.slowCallRateThreshold = 0.8;
+        this.slowCallDuration = 10000;
+        this.openDuration = 30000;
+        this.halfOpenCalls = 5;
+        this.maxConcurrentCalls = 64;
+        this.maxWait = 0;
+    }
+
+    /**
+     * 经过熔断器和舱壁执行请求，请求抛出异常或响应状态码大于等于500时记为失败。
+     * 内层的并发限制器等在本地拒绝请求抛出的RejectedExecutionException不是主机的失败，不记录结果。
+     * 舱壁只限制到得到响应为止的这段时间，不包括读取响应体
+     *
+     * @param request HTTP请求
+     * @param chain   实际执行请求的方法
+     * @return HTTP响应
+     * @throws Exception 熔断器打开或舱壁已满时抛出RejectedExecutionException，或者是执行请求时发生的异常
+     */
+    @Nonnull
+    public XResponse execute(@Nonnull XRequest request, @Nonnull XHttpTools.Chain chain) throws Exception {
+        String origin = request.getOrigin();
+        Breaker breaker = breakers.computeIfAbsent(origin, key -> new Breaker(maxConcurrentCalls));
+        if (!breaker.bulkhead.tryAcquire(maxWait, TimeUnit.MILLISECONDS)) {
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException(String.format("主机：%s的并发请求数已达到上限：%d", origin, maxConcurrentCalls));
+        }
+        try {
+            long generation = breaker.acquire();
+            if (generation < 0) {
+                rejected.incrementAndGet();
+                throw new RejectedExecutionException(String.format("主机：%s的熔断器已打开", origin));
+            }
+            long start = System.nanoTime();
+            XResponse response;
+            try {
+                response = chain.proceed(request);
+            } catch (RejectedExecutionException e) {
+                breaker.release(generation);
+                throw e;
+            } catch (Exception e) {
+                breaker.record(generation, true, elapsed(start));
+                throw e;
+            }
+            breaker.record(generation, response.getStatusCode() >= 500, elapsed(start));
+            return response;
+        } finally {
+            breaker.bulkhead.release();
+        }
+    }
+
+    /**
+     * 获取主机的熔断器状态
+     *
+     * @param origin 主机，格式为协议://主机:端口
+     * @return 熔断器状态，没有请求过的主机为CLOSED
+     */
+    @Nonnull
+    public State getState(@Nonnull String origin) {
+        Breaker breaker = breakers.get(origin);
+        return breaker == null ? State.CLOSED : breaker.state();
+    }
+
+    /**
+     * 获取被拒绝的请求总数
+     *
+     * @return 被拒绝的请求总数
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    private static long elapsed(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * 设置统计失败率的滑动窗口大小，即最近多少次请求
+     *
+     * @param windowSize 滑动窗口大小
+     */
+    public void setWindowSize(int windowSize) {
+        this.windowSize = Math.max(windowSize, 1);
+    }
+
+    public int getMinCalls() {
+        return minCalls;
+    }
+
+    /**
+     * 设置计算失败率所需的最少请求次数，请求次数不足时熔断器不会打开
+     *
+     * @param minCalls 最少请求次数
+     */
+    public void setMinCalls(int minCalls) {
+        this.minCalls = Math.max(minCalls, 1);
+    }
+
+    public double getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    /**
+     * 设置打开熔断器的失败率阈值
+     *
+     * @param failureRateThreshold 失败率阈值，0到1之间
+     */
+    public void setFailureRateThreshold(double failureRateThreshold) {
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    public double getSlowCallRateThreshold() {
+        return slowCallRateThreshold;
+    }
+
+    /**
+     * 设置打开熔断器的慢请求比例阈值
+     *
+     * @param slowCallRateThreshold 慢请求比例阈值，0到1之间
+     */
+    public void setSlowCallRateThreshold(double slowCallRateThreshold) {
+        this.slowCallRateThreshold = slowCallRateThreshold;
+    }
+
+    public long getSlowCallDuration() {
+        return slowCallDuration;
+    }
+
+    /**
+     * 设置慢请求的耗时，得到响应的耗时不小于该值的请求记为慢请求
+     *
+     * @param slowCallDuration 慢请求的耗时，毫秒
+     */
+    public void setSlowCallDuration(long slowCallDuration) {
+        this.slowCallDuration = slowCallDuration;
+    }
+
+    public long getOpenDuration() {
+        return openDuration;
+    }
+
+    /**
+     * 设置熔断器打开后进入半开状态前等待的时间
+     *
+     * @param openDuration 等待的时间，毫秒
+     */
+    public void setOpenDuration(long openDuration) {
+        this.openDuration = openDuration;
+    }
+
+    public int getHalfOpenCalls() {
+        return halfOpenCalls;
+    }
+
+    /**
+     * 设置半开状态放行的探测请求数量
+     *
+     * @param halfOpenCalls 探测请求数量
+     */
+    public void setHalfOpenCalls(int halfOpenCalls) {
+        this.halfOpenCalls = Math.max(halfOpenCalls, 1);
+    }
+
+    public int getMaxConcurrentCalls() {
+        return maxConcurrentCalls;
+    }
+
+    /**
+     * 设置每个主机的舱壁容量，即同时执行的请求数上限，只对之后第一次请求的主机生效
+     *
+     * @param maxConcurrentCalls 舱壁容量
+     */
+    public void setMaxConcurrentCalls(int maxConcurrentCalls) {
+        this.maxConcurrentCalls = Math.max(maxConcurrentCalls, 1);
+    }
+
+    public long getMaxWait() {
+        return maxWait;
+    }
+
+    /**
+     * 设置舱壁已满时最多等待的时间，默认为0，即立即失败
+     *
+     * @param maxWait 最多等待的时间，毫秒
+     */
+    public void setMaxWait(long maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * 熔断器状态
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * 一个主机的熔断器，每次状态变化时代数加一，旧状态下发出的请求的结果不再统计
+     */
+    private class Breaker {
+        private final Semaphore bulkhead;
+        private State state = State.CLOSED;
+        private long generation;
+        private long openedAt;
+        private int permitted;
+        private boolean[] failures = new boolean[windowSize];
+        private boolean[] slows = new boolean[windowSize];
+        private int index;
+        private int calls;
+        private int failureCalls;
+        private int slowCalls;
+
+        private Breaker(int maxConcurrentCalls) {
+            this.bulkhead = new Semaphore(maxConcurrentCalls);
+        }
+
+        private synchronized State state() {
+            return state;
+        }
+
+        /**
+         * 申请执行一次请求
+         *
+         * @return 当前的代数，不允许执行时为-1
+         */
+        private synchronized long acquire() {
+            if (state == State.OPEN) {
+                if (System.currentTimeMillis() - openedAt < openDuration) {
+                    return -1;
+                }
+                transition(State.HALF_OPEN);
+            }
+            if (state == State.HALF_OPEN) {
+                if (permitted >= halfOpenCalls) {
+                    return -1;
+                }
+                permitted++;
+            }
+            return generation;
+        }
+
+        /**
+         * 归还没有结果的请求，半开状态下可以再放行一个探测请求
+         *
+         * @param generation 申请执行时的代数
+         */
+        private synchronized void release(long generation) {
+            if (generation == this.generation && state == State.HALF_OPEN && permitted > 0) {
+                permitted--;
+            }
+        }
+
+        private synchronized void record(long generation, boolean failure, long duration) {
+            if (generation != this.generation) {
+                return;
+            }
+            boolean slow = duration >= slowCallDuration;
+            if (calls == failures.length) {
+                failureCalls -= failures[index] ? 1 : 0;
+                slowCalls -= slows[index] ? 1 : 0;
+            } else {
+                calls++;
+            }
+            failures[index] = failure;
+            slows[index] = slow;
+            failureCalls += failure ? 1 : 0;
+            slowCalls += slow ? 1 : 0;
+            index = (index + 1) % failures.length;
+
+            boolean exceeded = failureCalls >= failureRateThreshold * calls || slowCalls >= slowCallRateThreshold * calls;
+            if (state == State.HALF_OPEN && calls >= halfOpenCalls) {
+                transition(exceeded ? State.OPEN : State.CLOSED);
+            } else if (state == State.CLOSED && calls >= minCalls && exceeded) {
+                transition(State.OPEN);
+            }
+        }
+
+        private void transition(State state) {
+            this.state = state;
+            this.generation++;
+            this.openedAt = System.currentTimeMillis();
+            this.permitted = 0;
+            this.failures = new boolean[state == State.HALF_OPEN ? halfOpenCalls : windowSize];
+            this.slows = new boolean[this.failures.length];
+            this.index = 0;
+            this.calls = 0;
+            this.failureCalls = 0;
+            this.slowCalls = 0;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package me.xuxiaoxiao.xtools.common.http.impl;
+
+import me.xuxiaoxiao.xtools.common.http.XHttpTools;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按主机（协议+主机+端口）区分的自适应并发限制器，使用类似TCP Vegas的算法根据请求耗时调整每个主机的并发上限。
+ * 以观察到的最小耗时作为无排队时的耗时，估算服务端排队的请求数：limit * (1 - minRtt / rtt)，
+ * 排队少时增加并发上限，排队多时减少并发上限，请求失败时按比例减少并发上限。
+ * 超过并发上限的请求等待一段时间，仍然没有额度时抛出RejectedExecutionException
+ */
+public class XConcurrencyLimiter {
+    private int initialLimit;
+    private int minLimit;
+    private int maxLimit;
+    private int alpha;
+    private int beta;
+    private double backoffRatio;
+    private int probeInterval;
+    private long maxWait;
+
+    private final ConcurrentHashMap<String, Limit> limits = new ConcurrentHashMap<>();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public XConcurrencyLimiter() {
+        this.initialLimit = 20;
+        this.minLimit = 1;
+        this.maxLimit = 1000;
+        this.alpha = 3;
+        this.beta = 6;
+        this.backoffRatio = 0.9;
+        this.probeInterval = 1000;
+        this.maxWait = 0;
+    }
+
+    /**
+     * 在主机的并发上限内执行请求，耗时按得到响应为止计算，请求抛出异常或响应状态码大于等于500时记为失败
+     *
+     * @param request HTTP请求
+     * @param chain   实际执行请求的方法
+     * @return HTTP响应
+     * @throws Exception 等待并发额度超时时抛出RejectedExecutionException，或者是执行请求时发生的异常
+     */
+    @Nonnull
+    public XResponse execute(@Nonnull XRequest request, @Nonnull XHttpTools.Chain chain) throws Exception {
+        String origin = request.getOrigin();
+        Limit limit = limits.computeIfAbsent(origin, key -> new Limit());
+        if (!limit.acquire()) {
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException(String.format("主机：%s的并发请求数已达到自适应上限：%d", origin, limit.current()));
+        }
+        long start = System.nanoTime();
+        XResponse response;
+        try {
+            response = chain.proceed(request);
+        } catch (Exception e) {
+            limit.release(System.nanoTime() - start, true);
+            throw e;
+        }
+        limit.release(System.nanoTime() - start, response.getStatusCode() >= 500);
+        return response;
+    }
+
+    /**
+     * 获取主机当前的并发上限
+     *
+     * @param origin 主机，格式为协议://主机:端口
+     * @return 当前的并发上限，没有请求过的主机为初始并发上限
+     */
+    public int getLimit(@Nonnull String origin) {
+        Limit limit = limits.get(origin);
+        return limit == null ? initialLimit : limit.current();
+    }
+
+    /**
+     * 获取被拒绝的请求总数
+     *
+     * @return 被拒绝的请求总数
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public int getInitialLimit() {
+        return initialLimit;
+    }
+
+    /**
+     * 设置每个主机初始的并发上限
+     *
+     * @param initialLimit 初始的并发上限
+     */
+    public void setInitialLimit(int initialLimit) {
+        this.initialLimit = Math.max(initialLimit, 1);
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    /**
+     * 设置并发上限的最小值
+     *
+     * @param minLimit 并发上限的最小值
+     */
+    public void setMinLimit(int minLimit) {
+        this.minLimit = Math.max(minLimit, 1);
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    /**
+     * 设置并发上限的最大值
+     *
+     * @param maxLimit 并发上限的最大值
+     */
+    public void setMaxLimit(int maxLimit) {
+        this.maxLimit = Math.max(maxLimit, 1);
+    }
+
+    public int getAlpha() {
+        return alpha;
+    }
+
+    /**
+     * 设置估算的排队请求数低于多少时增加并发上限，实际的阈值会乘以log10(并发上限)
+     *
+     * @param alpha 增加并发上限的排队阈值
+     */
+    public void setAlpha(int alpha) {
+        this.alpha = alpha;
+    }
+
+    public int getBeta() {
+        return beta;
+    }
+
+    /**
+     * 设置估算的排队请求数高于多少时减少并发上限，实际的阈值会乘以log10(并发上限)
+     *
+     * @param beta 减少并发上限的排队阈值
+     */
+    public void setBeta(int beta) {
+        this.beta = beta;
+    }
+
+    public double getBackoffRatio() {
+        return backoffRatio;
+    }
+
+    /**
+     * 设置请求失败时并发上限缩小的比例
+     *
+     * @param backoffRatio 缩小的比例，0到1之间
+     */
+    public void setBackoffRatio(double backoffRatio) {
+        this.backoffRatio = backoffRatio;
+    }
+
+    public int getProbeInterval() {
+        return probeInterval;
+    }
+
+    /**
+     * 设置每隔多少次请求重新探测最小耗时，避免网络路径变化后一直使用过时的最小耗时
+     *
+     * @param probeInterval 重新探测最小耗时的请求间隔
+     */
+    public void setProbeInterval(int probeInterval) {
+        this.probeInterval = Math.max(probeInterval, 1);
+    }
+
+    public long getMaxWait() {
+        return maxWait;
+    }
+
+    /**
+     * 设置超过并发上限时最多等待的时间，默认为0，即立即失败
+     *
+     * @param maxWait 最多等待的时间，毫秒
+     */
+    public void setMaxWait(long maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * 一个主机的并发上限和正在执行的请求数
+     */
+    private class Limit {
+        private double limit = Math.min(Math.max(initialLimit, minLimit), maxLimit);
+        private int inFlight;
+        private long minRtt = Long.MAX_VALUE;
+        private long samples;
+
+        private synchronized int current() {
+            return (int) limit;
+        }
+
+        private synchronized boolean acquire() throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWait);
+            while (inFlight >= (int) limit) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            inFlight++;
+            return true;
+        }
+
+        private synchronized void release(long rtt, boolean dropped) {
+            int used = inFlight--;
+            if (++samples % probeInterval == 0) {
+                minRtt = rtt;
+            } else {
+                minRtt = Math.min(minRtt, Math.max(rtt, 1));
+            }
+            if (dropped) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+            } else if (used * 2 >= limit) {
+                //只有并发额度用到一半以上时才根据耗时调整，避免请求少时并发上限无限增长
+                double step = Math.max(1, Math.log10(limit));
+                double queue = limit * (1 - (double) minRtt / Math.max(rtt, 1));
+                if (queue < alpha * step) {
+                    limit = Math.min(maxLimit, limit + step);
+                } else if (queue > beta * step) {
+                    limit = Math.max(minLimit, limit - step);
+                }
+            }
+            notifyAll();
+        }
+    }
+}
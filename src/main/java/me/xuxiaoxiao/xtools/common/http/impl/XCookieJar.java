@@ -0,0 +1,377 @@
+package me.xuxiaoxiao.xtools.common.http.impl;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 高并发的cookie管理器，可以直接设置为XHttpTools.Config的cookieManager。
+ * cookie按可注册域名（主机名的最后两段，IP地址为整个地址）分片保存，不同域名的请求互不影响，同一个域名内的修改才需要加锁。
+ * 每个分片缓存按主机、路径和是否安全连接拼好的Cookie请求头，分片内的cookie变化时清空缓存，
+ * 过期的cookie在生成请求头时顺便清理，缓存的请求头在其中最早过期的cookie过期后重新生成。
+ * 匹配规则按RFC 6265：没有domain属性的cookie只发给设置它的主机，domain属性不包含点号且不等于主机的cookie会被拒绝，
+ * 请求头中的cookie都是name=value的形式
+ */
+public class XCookieJar extends CookieManager {
+    /**
+     * 每个分片最多缓存的请求头数量，超过时清空，避免路径很多时缓存无限增长
+     */
+    private static final int HEADER_CACHE_LIMIT = 256;
+
+    @Nonnull
+    private volatile CookiePolicy policy = CookiePolicy.ACCEPT_ORIGINAL_SERVER;
+
+    public XCookieJar() {
+        super(new Store(), CookiePolicy.ACCEPT_ORIGINAL_SERVER);
+    }
+
+    public XCookieJar(@Nonnull CookiePolicy policy) {
+        super(new Store(), policy);
+        this.policy = policy;
+    }
+
+    @Override
+    public void setCookiePolicy(CookiePolicy cookiePolicy) {
+        super.setCookiePolicy(cookiePolicy);
+        if (cookiePolicy != null) {
+            this.policy = cookiePolicy;
+        }
+    }
+
+    @Override
+    public Map<String, List<String>> get(URI uri, Map<String, List<String>> requestHeaders) {
+        if (uri == null || requestHeaders == null) {
+            throw new IllegalArgumentException("uri和requestHeaders不能为null");
+        }
+        String header = ((Store) getCookieStore()).header(uri);
+        return header.isEmpty() ? Collections.emptyMap() : Collections.singletonMap("Cookie", Collections.singletonList(header));
+    }
+
+    @Override
+    public void put(URI uri, Map<String, List<String>> responseHeaders) {
+        if (uri == null || responseHeaders == null) {
+            throw new IllegalArgumentException("uri和responseHeaders不能为null");
+        }
+        if (policy == CookiePolicy.ACCEPT_NONE || uri.getHost() == null) {
+            return;
+        }
+        for (Map.Entry<String, List<String>> entry : responseHeaders.entrySet()) {
+            String name = entry.getKey();
+            if (name == null || entry.getValue() == null || !(name.equalsIgnoreCase("Set-Cookie") || name.equalsIgnoreCase("Set-Cookie2"))) {
+                continue;
+            }
+            for (String value : entry.getValue()) {
+                List<HttpCookie> cookies;
+                try {
+                    cookies = HttpCookie.parse(value);
+                } catch (IllegalArgumentException e) {
+                    //忽略格式错误的cookie
+                    continue;
+                }
+                for (HttpCookie cookie : cookies) {
+                    if (cookie.getPath() == null) {
+                        cookie.setPath(defaultPath(uri.getPath()));
+                    }
+                    if (accept(uri, cookie)) {
+                        getCookieStore().add(uri, cookie);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 判断是否接受cookie，除ACCEPT_ORIGINAL_SERVER按RFC 6265的域名匹配判断外，其他策略对每个cookie都调用shouldAccept()。
+     * JDK的ACCEPT_ORIGINAL_SERVER会拒绝没有domain属性的cookie，而这种cookie只发给设置它的主机，总是来自原始服务器
+     */
+    private boolean accept(@Nonnull URI uri, @Nonnull HttpCookie cookie) {
+        if (cookie.getDomain() == null) {
+            return policy == CookiePolicy.ACCEPT_ORIGINAL_SERVER || policy.shouldAccept(uri, cookie);
+        }
+        String host = uri.getHost().toLowerCase();
+        String domain = trimDot(cookie.getDomain().toLowerCase());
+        if (domain.indexOf('.') < 0 && !domain.equals(host)) {
+            //domain为顶级域名的cookie无法放进按可注册域名的分片，也不应该被接受
+            return false;
+        }
+        if (policy == CookiePolicy.ACCEPT_ORIGINAL_SERVER) {
+            return domainMatches(domain, host);
+        }
+        return policy.shouldAccept(uri, cookie);
+    }
+
+    /**
+     * RFC 6265的默认路径：请求路径最后一个斜杠之前的部分
+     */
+    @Nonnull
+    private static String defaultPath(@Nullable String path) {
+        if (path == null || !path.startsWith("/")) {
+            return "/";
+        }
+        int index = path.lastIndexOf('/');
+        return index == 0 ? "/" : path.substring(0, index);
+    }
+
+    @Nonnull
+    private static String trimDot(@Nonnull String domain) {
+        return domain.startsWith(".") ? domain.substring(1) : domain;
+    }
+
+    private static boolean domainMatches(@Nonnull String domain, @Nonnull String host) {
+        return host.equals(domain) || host.endsWith(domain) && host.charAt(host.length() - domain.length() - 1) == '.';
+    }
+
+    private static boolean pathMatches(@Nonnull String cookiePath, @Nonnull String path) {
+        return path.startsWith(cookiePath) && (path.length() == cookiePath.length() || cookiePath.endsWith("/") || path.charAt(cookiePath.length()) == '/');
+    }
+
+    /**
+     * 计算主机的可注册域名，作为分片的键。没有公共后缀列表，简单地取最后两段，
+     * 有domain属性的cookie的domain至少有两段，所以和能匹配它的主机一定在同一个分片
+     */
+    @Nonnull
+    private static String shardKey(@Nonnull String host) {
+        if (host.indexOf(':') >= 0 || Character.isDigit(host.charAt(host.length() - 1))) {
+            return host;
+        }
+        int last = host.lastIndexOf('.');
+        if (last <= 0) {
+            return host;
+        }
+        int second = host.lastIndexOf('.', last - 1);
+        return second < 0 ? host : host.substring(second + 1);
+    }
+
+    /**
+     * 按可注册域名分片的CookieStore
+     */
+    private static class Store implements CookieStore {
+        private final ConcurrentHashMap<String, Shard> shards = new ConcurrentHashMap<>();
+
+        @Nonnull
+        private String header(@Nonnull URI uri) {
+            String host = uri.getHost();
+            if (host == null) {
+                return "";
+            }
+            host = host.toLowerCase();
+            Shard shard = shards.get(shardKey(host));
+            if (shard == null) {
+                return "";
+            }
+            String path = uri.getPath() == null || uri.getPath().isEmpty() ? "/" : uri.getPath();
+            return shard.header(host, path, "https".equalsIgnoreCase(uri.getScheme()));
+        }
+
+        @Override
+        public void add(URI uri, HttpCookie cookie) {
+            if (cookie == null) {
+                throw new NullPointerException("cookie不能为null");
+            }
+            boolean hostOnly = cookie.getDomain() == null;
+            String domain;
+            if (hostOnly) {
+                if (uri == null || uri.getHost() == null) {
+                    throw new IllegalArgumentException("没有domain属性的cookie需要提供设置它的URI");
+                }
+                domain = uri.getHost().toLowerCase();
+            } else {
+                domain = trimDot(cookie.getDomain().toLowerCase());
+            }
+            if (domain.isEmpty()) {
+                return;
+            }
+            if (cookie.getPath() == null) {
+                cookie.setPath(uri == null ? "/" : defaultPath(uri.getPath()));
+            }
+            shards.computeIfAbsent(shardKey(domain), key -> new Shard()).add(uri, cookie, domain, hostOnly);
+        }
+
+        @Override
+        public List<HttpCookie> get(URI uri) {
+            if (uri == null) {
+                throw new NullPointerException("uri不能为null");
+            }
+            if (uri.getHost() == null) {
+                return Collections.emptyList();
+            }
+            String host = uri.getHost().toLowerCase();
+            Shard shard = shards.get(shardKey(host));
+            if (shard == null) {
+                return Collections.emptyList();
+            }
+            String path = uri.getPath() == null || uri.getPath().isEmpty() ? "/" : uri.getPath();
+            List<HttpCookie> cookies = new ArrayList<>();
+            for (Entry entry : shard.match(host, path, "https".equalsIgnoreCase(uri.getScheme()), System.currentTimeMillis())) {
+                cookies.add(entry.cookie);
+            }
+            return cookies;
+        }
+
+        @Override
+        public List<HttpCookie> getCookies() {
+            List<HttpCookie> cookies = new ArrayList<>();
+            long now = System.currentTimeMillis();
+            for (Shard shard : shards.values()) {
+                shard.collect(cookies, null, now);
+            }
+            return Collections.unmodifiableList(cookies);
+        }
+
+        @Override
+        public List<URI> getURIs() {
+            List<URI> uris = new ArrayList<>();
+            long now = System.currentTimeMillis();
+            for (Shard shard : shards.values()) {
+                shard.collect(null, uris, now);
+            }
+            return Collections.unmodifiableList(uris);
+        }
+
+        @Override
+        public boolean remove(URI uri, HttpCookie cookie) {
+            if (cookie == null) {
+                throw new NullPointerException("cookie不能为null");
+            }
+            String domain = cookie.getDomain() != null ? trimDot(cookie.getDomain().toLowerCase()) : uri != null && uri.getHost() != null ? uri.getHost().toLowerCase() : null;
+            if (domain == null || domain.isEmpty()) {
+                return false;
+            }
+            Shard shard = shards.get(shardKey(domain));
+            return shard != null && shard.remove(cookie.getName(), domain, cookie.getPath());
+        }
+
+        @Override
+        public boolean removeAll() {
+            boolean removed = false;
+            for (Shard shard : shards.values()) {
+                removed |= shard.clear();
+            }
+            return removed;
+        }
+    }
+
+    /**
+     * 一个可注册域名下的全部cookie和拼好的请求头缓存，读缓存不加锁，修改和生成请求头时加锁
+     */
+    private static class Shard {
+        private final List<Entry> entries = new ArrayList<>();
+        private final ConcurrentHashMap<String, Header> headers = new ConcurrentHashMap<>();
+
+        @Nonnull
+        private String header(@Nonnull String host, @Nonnull String path, boolean secure) {
+            String key = (secure ? "s:" : ":") + host + path;
+            long now = System.currentTimeMillis();
+            Header header = headers.get(key);
+            if (header != null && now < header.validUntil) {
+                return header.value;
+            }
+            synchronized (this) {
+                long validUntil = Long.MAX_VALUE;
+                StringBuilder sbHeader = new StringBuilder();
+                for (Entry entry : match(host, path, secure, now)) {
+                    if (sbHeader.length() > 0) {
+                        sbHeader.append("; ");
+                    }
+                    sbHeader.append(entry.cookie.getName()).append('=').append(entry.cookie.getValue());
+                    validUntil = Math.min(validUntil, entry.expiresAt);
+                }
+                if (headers.size() >= HEADER_CACHE_LIMIT) {
+                    headers.clear();
+                }
+                header = new Header(sbHeader.toString(), validUntil);
+                headers.put(key, header);
+                return header.value;
+            }
+        }
+
+        /**
+         * 获取匹配的cookie，路径长的在前，路径一样长时先设置的在前，顺便清理过期的cookie
+         */
+        @Nonnull
+        private synchronized List<Entry> match(@Nonnull String host, @Nonnull String path, boolean secure, long now) {
+            List<Entry> matched = new ArrayList<>();
+            Iterator<Entry> iterator = entries.iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (now >= entry.expiresAt) {
+                    iterator.remove();
+                    headers.clear();
+                } else if ((entry.hostOnly ? host.equals(entry.domain) : domainMatches(entry.domain, host))
+                        && pathMatches(entry.cookie.getPath(), path) && (secure || !entry.cookie.getSecure())) {
+                    matched.add(entry);
+                }
+            }
+            matched.sort((a, b) -> b.cookie.getPath().length() - a.cookie.getPath().length());
+            return matched;
+        }
+
+        private synchronized void add(@Nullable URI uri, @Nonnull HttpCookie cookie, @Nonnull String domain, boolean hostOnly) {
+            removeEntry(cookie.getName(), domain, cookie.getPath());
+            if (cookie.getMaxAge() != 0) {
+                long now = System.currentTimeMillis();
+                //很大的max-age换算成毫秒会溢出，超过能表示的时间时视为永不过期
+                long expiresAt = cookie.getMaxAge() < 0 || cookie.getMaxAge() >= (Long.MAX_VALUE - now) / 1000 ? Long.MAX_VALUE : now + cookie.getMaxAge() * 1000;
+                entries.add(new Entry(uri, cookie, domain, hostOnly, expiresAt));
+            }
+            headers.clear();
+        }
+
+        private synchronized boolean remove(@Nonnull String name, @Nonnull String domain, @Nullable String path) {
+            boolean removed = removeEntry(name, domain, path);
+            headers.clear();
+            return removed;
+        }
+
+        private boolean removeEntry(@Nonnull String name, @Nonnull String domain, @Nullable String path) {
+            return entries.removeIf(entry -> entry.cookie.getName().equalsIgnoreCase(name) && entry.domain.equals(domain) && Objects.equals(entry.cookie.getPath(), path));
+        }
+
+        private synchronized void collect(@Nullable List<HttpCookie> cookies, @Nullable List<URI> uris, long now) {
+            entries.removeIf(entry -> now >= entry.expiresAt);
+            for (Entry entry : entries) {
+                if (cookies != null) {
+                    cookies.add(entry.cookie);
+                }
+                if (uris != null && entry.uri != null && !uris.contains(entry.uri)) {
+                    uris.add(entry.uri);
+                }
+            }
+        }
+
+        private synchronized boolean clear() {
+            boolean removed = !entries.isEmpty();
+            entries.clear();
+            headers.clear();
+            return removed;
+        }
+    }
+
+    private static class Entry {
+        private final URI uri;
+        private final HttpCookie cookie;
+        private final String domain;
+        private final boolean hostOnly;
+        private final long expiresAt;
+
+        private Entry(@Nullable URI uri, @Nonnull HttpCookie cookie, @Nonnull String domain, boolean hostOnly, long expiresAt) {
+            this.uri = uri;
+            this.cookie = cookie;
+            this.domain = domain;
+            this.hostOnly = hostOnly;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static class Header {
+        private final String value;
+        private final long validUntil;
+
+        private Header(@Nonnull String value, long validUntil) {
+            this.value = value;
+            this.validUntil = validUntil;
+        }
+    }
+}
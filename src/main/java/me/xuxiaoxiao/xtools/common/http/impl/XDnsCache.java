@@ -0,0 +1,206 @@
+package me.xuxiaoxiao.xtools.common.http.impl;
+
+import javax.annotation.Nonnull;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 带TTL缓存的域名解析器，缓存被包装的解析器返回的A/AAAA记录，和JVM全局的InetAddress缓存互不影响。
+ * 缓存的记录过了TTL的一定比例后，在后台线程中刷新，刷新期间和刷新失败时仍然返回旧的记录，直到过期为止。
+ * 连接某个地址失败后，该地址会被移到缓存记录的末尾，之后的连接优先尝试其他地址
+ */
+public class XDnsCache implements XResolver {
+    private static final ExecutorService REFRESHER = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "xtools-dns-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    @Nonnull
+    private final XResolver delegate;
+    private volatile long ttl = 60000;
+    private volatile long negativeTtl = 5000;
+    private volatile double refreshAhead = 0.75;
+
+    public XDnsCache() {
+        this(XResolver.SYSTEM);
+    }
+
+    /**
+     * @param delegate 实际解析域名的解析器
+     */
+    public XDnsCache(@Nonnull XResolver delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * 获取解析结果的缓存时间
+     *
+     * @return 解析结果的缓存时间，单位毫秒
+     */
+    public long getTtl() {
+        return ttl;
+    }
+
+    /**
+     * 设置解析结果的缓存时间，默认60秒
+     *
+     * @param ttl 解析结果的缓存时间，单位毫秒
+     */
+    public void setTtl(long ttl) {
+        this.ttl = ttl;
+    }
+
+    /**
+     * 获取解析失败的缓存时间
+     *
+     * @return 解析失败的缓存时间，单位毫秒
+     */
+    public long getNegativeTtl() {
+        return negativeTtl;
+    }
+
+    /**
+     * 设置解析失败的缓存时间，默认5秒，为0则不缓存解析失败
+     *
+     * @param negativeTtl 解析失败的缓存时间，单位毫秒
+     */
+    public void setNegativeTtl(long negativeTtl) {
+        this.negativeTtl = negativeTtl;
+    }
+
+    /**
+     * 获取提前刷新的比例
+     *
+     * @return 提前刷新的比例
+     */
+    public double getRefreshAhead() {
+        return refreshAhead;
+    }
+
+    /**
+     * 设置提前刷新的比例，记录的缓存时间超过TTL的这个比例后被访问时在后台刷新，默认0.75，为1则不提前刷新
+     *
+     * @param refreshAhead 提前刷新的比例，0到1之间
+     */
+    public void setRefreshAhead(double refreshAhead) {
+        this.refreshAhead = refreshAhead;
+    }
+
+    /**
+     * 移除主机的缓存记录
+     *
+     * @param host 主机
+     */
+    public void invalidate(@Nonnull String host) {
+        entries.remove(host.toLowerCase());
+    }
+
+    /**
+     * 清空全部缓存记录
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    @Nonnull
+    @Override
+    public List<InetAddress> resolve(@Nonnull String host) throws UnknownHostException {
+        String key = host.toLowerCase();
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            long age = System.currentTimeMillis() - entry.resolvedAt;
+            if (entry.error != null) {
+                if (age < negativeTtl) {
+                    throw new UnknownHostException(entry.error);
+                }
+            } else if (age < ttl) {
+                if (age >= ttl * refreshAhead) {
+                    refresh(key, entry);
+                }
+                return entry.addresses;
+            }
+        }
+        return load(key);
+    }
+
+    @Override
+    public void failed(@Nonnull String host, @Nonnull InetAddress address) {
+        entries.computeIfPresent(host.toLowerCase(), (key, entry) -> {
+            if (entry.addresses.size() < 2 || !entry.addresses.contains(address) || entry.addresses.get(entry.addresses.size() - 1).equals(address)) {
+                return entry;
+            }
+            List<InetAddress> addresses = new ArrayList<>(entry.addresses);
+            addresses.remove(address);
+            addresses.add(address);
+            return new Entry(Collections.unmodifiableList(addresses), null, entry.resolvedAt);
+        });
+        delegate.failed(host, address);
+    }
+
+    /**
+     * 同步解析主机并缓存结果
+     */
+    @Nonnull
+    private List<InetAddress> load(@Nonnull String key) throws UnknownHostException {
+        List<InetAddress> addresses;
+        try {
+            addresses = delegate.resolve(key);
+        } catch (UnknownHostException e) {
+            if (negativeTtl > 0) {
+                entries.put(key, new Entry(Collections.emptyList(), String.valueOf(e.getMessage()), System.currentTimeMillis()));
+            }
+            throw e;
+        }
+        if (addresses.isEmpty()) {
+            throw new UnknownHostException(key);
+        }
+        addresses = Collections.unmodifiableList(new ArrayList<>(addresses));
+        entries.put(key, new Entry(addresses, null, System.currentTimeMillis()));
+        return addresses;
+    }
+
+    /**
+     * 在后台刷新主机的缓存记录，每条记录同时只有一个刷新任务，刷新失败时保留旧的记录
+     */
+    private void refresh(@Nonnull String key, @Nonnull Entry entry) {
+        if (entry.refreshing.compareAndSet(false, true)) {
+            REFRESHER.execute(() -> {
+                try {
+                    List<InetAddress> addresses = delegate.resolve(key);
+                    if (!addresses.isEmpty()) {
+                        entries.replace(key, entry, new Entry(Collections.unmodifiableList(new ArrayList<>(addresses)), null, System.currentTimeMillis()));
+                        return;
+                    }
+                } catch (Exception ignore) {
+                    //刷新失败时继续使用旧的记录
+                }
+                entry.refreshing.set(false);
+            });
+        }
+    }
+
+    /**
+     * 一个主机的缓存记录
+     */
+    private static final class Entry {
+        private final List<InetAddress> addresses;
+        private final String error;
+        private final long resolvedAt;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private Entry(List<InetAddress> addresses, String error, long resolvedAt) {
+            this.addresses = addresses;
+            this.error = error;
+            this.resolvedAt = resolvedAt;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package me.xuxiaoxiao.xtools.common.http.impl;
+
+import me.xuxiaoxiao.xtools.common.http.XHttpTools;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 分段并行下载器，先使用HEAD请求探测是否支持Range请求和文件大小，
+ * 支持时将文件分成多段并行下载，每段通过FileChannel写入预先分配好大小的文件的对应位置。
+ * 下载进度记录在目标文件同目录的.xdl检查点文件中，下载失败后再次下载会从检查点继续。
+ * 分段请求使用强ETag或Last-Modified作为If-Range，两者都没有时每次都重新下载，不从检查点继续
+ */
+public class XDownloader {
+    private static final String CHECKPOINT_SUFFIX = ".xdl";
+    private static final int BUFFER_SIZE = 65536;
+    private static final long CHECKPOINT_INTERVAL = 4L * 1024 * 1024;
+
+    @Nonnull
+    private final Function<XRequest, XResponse> sender;
+    @Nonnull
+    private final Executor executor;
+    @Nonnull
+    private final XHttpTools.DownloadOptions options;
+
+    /**
+     * @param sender   发出HTTP请求的方法
+     * @param executor 并行下载各段使用的执行器
+     * @param options  下载选项
+     */
+    public XDownloader(@Nonnull Function<XRequest, XResponse> sender, @Nonnull Executor executor, @Nonnull XHttpTools.DownloadOptions options) {
+        this.sender = sender;
+        this.executor = executor;
+        this.options = options;
+    }
+
+    /**
+     * 下载文件
+     *
+     * @param request 下载文件的请求，请求体不为空时不探测是否支持Range请求，直接单线程下载
+     * @param path    文件保存的位置
+     * @return 文件保存的位置
+     * @throws IOException 下载失败时抛出异常，支持Range请求时已下载的部分会记录在检查点文件中
+     */
+    @Nonnull
+    public Path download(@Nonnull XRequest request, @Nonnull Path path) throws IOException {
+        if (request.getContent() != null || options.getParallelism() <= 1) {
+            return downloadStream(request, path);
+        }
+
+        XRequest probeRequest = request.copy();
+        probeRequest.setMethod(XRequest.METHOD_HEAD);
+        probeRequest.header("Accept-Encoding", "identity", true);
+        long length;
+        String validator;
+        boolean rangeable;
+        try (XResponse probe = sender.apply(probeRequest)) {
+            length = probe.getConnection().getContentLengthLong();
+            validator = probe.getConnection().getHeaderField("ETag");
+            if (validator == null || validator.startsWith("W/")) {
+                //弱ETag不能用于If-Range，服务器会忽略Range返回整个文件，改用Last-Modified
+                validator = probe.getConnection().getHeaderField("Last-Modified");
+            }
+            rangeable = probe.isSuccess() && "bytes".equalsIgnoreCase(probe.getConnection().getHeaderField("Accept-Ranges"));
+        }
+        if (!rangeable || length < options.getMinRangeSize() * 2) {
+            return downloadStream(request, path);
+        }
+
+        Path checkpointPath = path.resolveSibling(path.getFileName() + CHECKPOINT_SUFFIX);
+        List<Range> ranges = loadCheckpoint(checkpointPath, length, validator);
+        if (ranges == null) {
+            ranges = split(length);
+            Files.deleteIfExists(path);
+        }
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength(length);
+        }
+
+        Checkpoint checkpoint = new Checkpoint(checkpointPath, length, validator, ranges);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (Range range : ranges) {
+                if (!range.isDone()) {
+                    String ifRange = validator;
+                    futures.add(CompletableFuture.runAsync(() -> downloadRange(request, ifRange, range, channel, checkpoint), executor));
+                }
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+            channel.force(false);
+        } catch (CompletionException e) {
+            checkpoint.save();
+            Throwable cause = e.getCause() instanceof UncheckedIOException ? e.getCause().getCause() : e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+        Files.deleteIfExists(checkpointPath);
+        return path;
+    }
+
+    /**
+     * 单线程下载整个文件
+     */
+    @Nonnull
+    private Path downloadStream(@Nonnull XRequest request, @Nonnull Path path) throws IOException {
+        try (XResponse response = sender.apply(request)) {
+            if (!response.isSuccess()) {
+                throw new IOException(String.format("下载失败，响应状态码：%d", response.getStatusCode()));
+            }
+            InputStream inStream = Objects.requireNonNull(response.getStream());
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING); ReadableByteChannel inChannel = Channels.newChannel(inStream)) {
+                long position = 0, count;
+                while ((count = channel.transferFrom(inChannel, position, BUFFER_SIZE)) > 0) {
+                    position += count;
+                }
+            }
+        }
+        return path;
+    }
+
+    /**
+     * 下载一段数据，失败后从已下载的位置重试
+     */
+    private void downloadRange(@Nonnull XRequest request, @Nullable String validator, @Nonnull Range range, @Nonnull FileChannel channel, @Nonnull Checkpoint checkpoint) {
+        IOException lastError = null;
+        for (int attempt = 0; attempt < Math.max(options.getAttempts(), 1) && !range.isDone(); attempt++) {
+            XRequest rangeRequest = request.copy();
+            rangeRequest.header("Accept-Encoding", "identity", true);
+            rangeRequest.header("Range", String.format("bytes=%d-%d", range.start + range.done.get(), range.end), true);
+            if (validator != null) {
+                rangeRequest.header("If-Range", validator, true);
+            }
+            try (XResponse response = sender.apply(rangeRequest)) {
+                if (response.getStatusCode() != 206) {
+                    throw new IOException(String.format("服务器未按Range返回数据，响应状态码：%d", response.getStatusCode()));
+                }
+                InputStream inStream = Objects.requireNonNull(response.getStream());
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                long unsaved = 0;
+                int count;
+                while (!range.isDone() && (count = inStream.read(buffer.array(), 0, (int) Math.min(BUFFER_SIZE, range.remaining()))) > 0) {
+                    buffer.limit(count);
+                    long position = range.start + range.done.get();
+                    while (buffer.hasRemaining()) {
+                        position += channel.write(buffer, position);
+                    }
+                    buffer.clear();
+                    range.done.addAndGet(count);
+                    unsaved += count;
+                    if (unsaved >= CHECKPOINT_INTERVAL) {
+                        checkpoint.save();
+                        unsaved = 0;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                lastError = e instanceof IOException ? (IOException) e : new IOException(e);
+            }
+        }
+        if (!range.isDone()) {
+            throw new UncheckedIOException(lastError != null ? lastError : new IOException("下载的数据不完整"));
+        }
+    }
+
+    /**
+     * 将文件分成若干段，每段不小于最小分段大小
+     */
+    @Nonnull
+    private List<Range> split(long length) {
+        int count = (int) Math.max(1, Math.min(options.getParallelism(), length / options.getMinRangeSize()));
+        long size = (length + count - 1) / count;
+        List<Range> ranges = new ArrayList<>(count);
+        for (long start = 0; start < length; start += size) {
+            ranges.add(new Range(start, Math.min(start + size, length) - 1, 0));
+        }
+        return ranges;
+    }
+
+    /**
+     * 读取检查点，文件大小或版本不一致，或者没有版本可以校验时返回null
+     */
+    @Nullable
+    private static List<Range> loadCheckpoint(@Nonnull Path checkpointPath, long length, @Nullable String validator) {
+        if (validator == null || !Files.isRegularFile(checkpointPath)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream inStream = Files.newInputStream(checkpointPath)) {
+            properties.load(inStream);
+            if (Long.parseLong(properties.getProperty("length")) != length || !Objects.equals(properties.getProperty("validator"), validator)) {
+                return null;
+            }
+            List<Range> ranges = new ArrayList<>();
+            for (int i = 0, count = Integer.parseInt(properties.getProperty("ranges")); i < count; i++) {
+                String[] range = properties.getProperty("range." + i).split(",");
+                ranges.add(new Range(Long.parseLong(range[0]), Long.parseLong(range[1]), Long.parseLong(range[2])));
+            }
+            return ranges;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 检查点，记录每段已下载的字节数
+     */
+    private static class Checkpoint {
+        private final Path path;
+        private final long length;
+        private final String validator;
+        private final List<Range> ranges;
+
+        private Checkpoint(Path path, long length, String validator, List<Range> ranges) {
+            this.path = path;
+            this.length = length;
+            this.validator = validator;
+            this.ranges = ranges;
+        }
+
+        private synchronized void save() {
+            Properties properties = new Properties();
+            properties.setProperty("length", String.valueOf(length));
+            if (validator != null) {
+                properties.setProperty("validator", validator);
+            }
+            properties.setProperty("ranges", String.valueOf(ranges.size()));
+            for (int i = 0; i < ranges.size(); i++) {
+                Range range = ranges.get(i);
+                properties.setProperty("range." + i, String.format("%d,%d,%d", range.start, range.end, range.done.get()));
+            }
+            try (OutputStream outStream = Files.newOutputStream(path)) {
+                properties.store(outStream, null);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * 一段数据，包含起止位置（闭区间）和已下载的字节数
+     */
+    private static class Range {
+        private final long start;
+        private final long end;
+        private final AtomicLong done;
+
+        private Range(long start, long end, long done) {
+            this.start = start;
+            this.end = end;
+            this.done = new AtomicLong(done);
+        }
+
+        private long remaining() {
+            return end - start + 1 - done.get();
+        }
+
+        private boolean isDone() {
+            return remaining() <= 0;
+        }
+    }
+}
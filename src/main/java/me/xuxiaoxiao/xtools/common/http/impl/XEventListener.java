@@ -0,0 +1,98 @@
+package me.xuxiaoxiao.xtools.common.http.impl;
+
+import javax.annotation.Nonnull;
+
+/**
+ * HTTP请求各阶段耗时的监听器，所有时间都以纳秒为单位，方法在执行请求的线程中同步调用，不应该有耗时的操作。
+ * 基于HttpURLConnection的执行器会报告全部阶段，DNS、连接和TLS握手阶段只在新建连接时报告，使用已有的keep-alive连接时没有这些阶段，
+ * HTTP连接是否新建是按keep-alive统计估计的，并且无法观察到连接自己的域名解析，不报告DNS阶段，域名解析的耗时包含在连接阶段中；
+ * 基于HttpClient的执行器无法观察到DNS、连接和TLS握手阶段
+ */
+public interface XEventListener {
+
+    /**
+     * 异步请求从提交到开始执行的等待时间
+     *
+     * @param request   HTTP请求
+     * @param waitNanos 等待时间
+     */
+    default void queued(@Nonnull XRequest request, long waitNanos) {
+    }
+
+    /**
+     * 解析完请求主机的域名，只有新建立的HTTPS连接才会有该事件
+     *
+     * @param request HTTP请求
+     * @param host    主机
+     * @param nanos   解析耗时
+     */
+    default void dnsResolved(@Nonnull XRequest request, @Nonnull String host, long nanos) {
+    }
+
+    /**
+     * 建立完TCP连接
+     *
+     * @param request HTTP请求
+     * @param nanos   建立连接的耗时
+     */
+    default void connected(@Nonnull XRequest request, long nanos) {
+    }
+
+    /**
+     * 完成TLS握手，只有新建立的HTTPS连接才会有该事件
+     *
+     * @param request HTTP请求
+     * @param nanos   握手耗时
+     */
+    default void handshaked(@Nonnull XRequest request, long nanos) {
+    }
+
+    /**
+     * 写完请求体
+     *
+     * @param request HTTP请求
+     * @param bytes   写出的字节数，压缩时为压缩后的字节数
+     * @param nanos   写出请求体的耗时
+     */
+    default void requestBodyWritten(@Nonnull XRequest request, long bytes, long nanos) {
+    }
+
+    /**
+     * 收到响应头
+     *
+     * @param request    HTTP请求
+     * @param statusCode 响应状态码
+     * @param nanos      请求发送完到收到响应头的耗时
+     */
+    default void firstByteReceived(@Nonnull XRequest request, int statusCode, long nanos) {
+    }
+
+    /**
+     * 读完响应体，在响应关闭时报告
+     *
+     * @param request HTTP请求
+     * @param bytes   读取的字节数，包括关闭时为复用连接丢弃的字节数，压缩时为压缩后的字节数
+     * @param nanos   从开始读取到关闭的耗时
+     */
+    default void responseBodyRead(@Nonnull XRequest request, long bytes, long nanos) {
+    }
+
+    /**
+     * 响应被关闭
+     *
+     * @param request    HTTP请求
+     * @param totalNanos 从开始执行到关闭的总耗时
+     */
+    default void closed(@Nonnull XRequest request, long totalNanos) {
+    }
+
+    /**
+     * 执行请求失败
+     *
+     * @param request    HTTP请求
+     * @param error      发生的异常
+     * @param totalNanos 从开始执行到失败的总耗时
+     */
+    default void failed(@Nonnull XRequest request, @Nonnull Exception error, long totalNanos) {
+    }
+}
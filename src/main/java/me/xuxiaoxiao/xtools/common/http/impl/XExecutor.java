@@ -2,21 +2,33 @@ package me.xuxiaoxiao.xtools.common.http.impl;
 
 import me.xuxiaoxiao.xtools.common.XTools;
 import me.xuxiaoxiao.xtools.common.http.XHttpTools;
+import me.xuxiaoxiao.xtools.common.jfr.XHttpEvent;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
 import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.StringJoiner;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.GZIPOutputStream;
 
 public class XExecutor {
 
     @Nonnull
     private final XHttpTools.Config config;
+    private volatile List<XEventListener> listeners = Collections.emptyList();
+    private volatile XEventListener listener;
+    private volatile TlsFactory tlsFactory;
 
     public XExecutor(@Nonnull XHttpTools.Config config) {
         this.config = config;
@@ -27,21 +39,75 @@ public class XExecutor {
         return config;
     }
 
+    /**
+     * 添加请求各阶段耗时的监听器，没有监听器时不会有额外的开销
+     *
+     * @param listener 监听器
+     */
+    public synchronized void addListener(@Nonnull XEventListener listener) {
+        List<XEventListener> listeners = new ArrayList<>(this.listeners);
+        listeners.add(listener);
+        this.listeners = Collections.unmodifiableList(listeners);
+        this.listener = listeners.size() == 1 ? listener : new Listeners(this.listeners);
+    }
+
+    /**
+     * 移除请求各阶段耗时的监听器
+     *
+     * @param listener 监听器
+     */
+    public synchronized void removeListener(@Nonnull XEventListener listener) {
+        List<XEventListener> listeners = new ArrayList<>(this.listeners);
+        listeners.remove(listener);
+        this.listeners = Collections.unmodifiableList(listeners);
+        this.listener = listeners.isEmpty() ? null : listeners.size() == 1 ? listeners.get(0) : new Listeners(this.listeners);
+    }
+
+    /**
+     * 获取当前的监听器，有多个监听器时返回依次通知所有监听器的组合监听器
+     *
+     * @return 当前的监听器，没有监听器时为null
+     */
+    @Nullable
+    public XEventListener getListener() {
+        return this.listener;
+    }
+
     @Nonnull
     public XResponse execute(@Nonnull XRequest request) throws Exception {
+        XEventListener listener = this.listener;
+        long start = listener == null ? 0 : System.nanoTime();
+        XHttpEvent event = new XHttpEvent();
+        event.begin();
+        try {
+            XResponse response = execute(request, listener, start);
+            event.finish(request, response, null);
+            return response;
+        } catch (Exception e) {
+            event.finish(request, null, e);
+            if (listener != null) {
+                listener.failed(request, e, System.nanoTime() - start);
+            }
+            throw e;
+        }
+    }
+
+    @Nonnull
+    private XResponse execute(@Nonnull XRequest request, @Nullable XEventListener listener, long start) throws Exception {
         XHttpTools.Config config = getConfig();
 
         String url = request.getUrl();
         HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        Abort abort = Abort.attach(connection);
+        boolean reused = config.getKeepAliveTracker().onOpen(connection.getURL());
 
         //根据请求选项进行连接配置
         connection.setConnectTimeout(config.getConnectTimeout());
         connection.setReadTimeout(config.getReadTimeout());
         connection.setInstanceFollowRedirects(config.isFollowRedirect());
-        if (url.toLowerCase().startsWith("https://")) {
-            if (config.getSslContext() != null) {
-                ((HttpsURLConnection) connection).setSSLSocketFactory(config.getSslContext().getSocketFactory());
-            }
+        boolean https = connection instanceof HttpsURLConnection;
+        if (https) {
+            ((HttpsURLConnection) connection).setSSLSocketFactory(socketFactory());
             if (config.getHostnameVerifier() != null) {
                 ((HttpsURLConnection) connection).setHostnameVerifier(config.getHostnameVerifier());
             }
@@ -57,45 +123,374 @@ public class XExecutor {
                 connection.addRequestProperty(keyValue.getKey(), String.valueOf(keyValue.getValue()));
             }
         }
+        if (config.isCompressResponse() && !hasHeader(headers, "Accept-Encoding")) {
+            connection.setRequestProperty("Accept-Encoding", "gzip, deflate");
+        }
 
         if (config.getCookieManager() != null) {
             // 添加 cookie
-            Map<String, List<String>> allTypeCookies = config.getCookieManager().get(connection.getURL().toURI(), new HashMap<>());
+            Map<String, List<String>> allTypeCookies = config.getCookieManager().get(connection.getURL().toURI(), Collections.emptyMap());
             if (!XTools.isBlank(allTypeCookies)) {
-                for (String cookieType : allTypeCookies.keySet()) {
-                    List<String> cookieValues = allTypeCookies.get(cookieType);
+                for (Map.Entry<String, List<String>> cookieEntry : allTypeCookies.entrySet()) {
+                    List<String> cookieValues = cookieEntry.getValue();
                     if (!XTools.isBlank(cookieValues)) {
-                        StringJoiner joiner = new StringJoiner(";");
-                        for (String cookieStr : cookieValues) {
-                            joiner.add(cookieStr);
-                        }
-                        connection.setRequestProperty(cookieType, joiner.toString());
+                        //XCookieJar返回的是拼好的单个请求头，不需要再拼接
+                        connection.setRequestProperty(cookieEntry.getKey(), cookieValues.size() == 1 ? cookieValues.get(0) : String.join(";", cookieValues));
                     }
                 }
             }
         }
 
         XRequest.Content content = request.getContent();
+        boolean compress = false;
         if (content != null) {
-            //输出请求体
+            //请求体相关的设置需要在建立连接之前完成
             connection.setDoOutput(true);
             connection.setUseCaches(false);
 
-            if (content.contentLength() < 0) {
+            compress = compressible(request, content);
+            if (compress) {
+                connection.setRequestProperty("Content-Encoding", "gzip");
+            }
+            if (compress || content.contentLength() < 0) {
                 connection.setChunkedStreamingMode(config.getChunkLength());
             }
-            try (DataOutputStream dOutStream = new DataOutputStream(connection.getOutputStream())) {
+        }
+
+        if (listener != null || https || abort != null) {
+            //单独建立连接以便分别记录各阶段的耗时，以及在连接建立后检查可中止的请求是否已被中止。只有新建连接时才报告域名解析、TCP连接和TLS握手的耗时。
+            //HTTPS连接由XSocketFactory记录新建Socket时各阶段的时间，复用keep-alive连接时没有记录；
+            //HTTP连接无法观察连接自己的域名解析，不单独报告域名解析，按keep-alive统计估计会新建连接时报告的连接耗时包含了域名解析
+            String host = connection.getURL().getHost();
+            long connectStart = System.nanoTime();
+            long connectMillis = System.currentTimeMillis();
+            XSocketFactory.takeConnectTimes();
+            connection.connect();
+            if (abort != null) {
+                //建立连接期间中止时断开连接不起作用，连接建立后再检查一次
+                abort.check();
+            }
+            long connectEnd = System.nanoTime();
+            long[] times = XSocketFactory.takeConnectTimes();
+            if (times[2] != 0) {
+                //恢复的会话保留着最初完整握手时的创建时间
+                Optional<SSLSession> session = ((HttpsURLConnection) connection).getSSLSession();
+                session.ifPresent(value -> config.getKeepAliveTracker().onHandshake(value.getCreationTime() < connectMillis));
+            }
+            if (listener != null) {
+                if (https) {
+                    if (times[0] != 0 && times[1] != 0 && times[2] != 0) {
+                        listener.dnsResolved(request, host, times[1] - times[0]);
+                        listener.connected(request, times[2] - times[1]);
+                        listener.handshaked(request, connectEnd - times[2]);
+                    }
+                } else if (!reused) {
+                    listener.connected(request, connectEnd - connectStart);
+                }
+            }
+        }
+
+        if (content != null) {
+            //输出请求体
+            long writeStart = listener == null ? 0 : System.nanoTime();
+            OutputStream outStream = connection.getOutputStream();
+            CountingOutputStream countingStream = listener == null ? null : new CountingOutputStream(outStream);
+            if (countingStream != null) {
+                outStream = countingStream;
+            }
+            try (DataOutputStream dOutStream = new DataOutputStream(compress ? new GZIPOutputStream(outStream, 8192) : outStream)) {
                 content.writeToStream(dOutStream);
             }
+            if (countingStream != null) {
+                listener.requestBodyWritten(request, countingStream.count, System.nanoTime() - writeStart);
+            }
         }
 
         // 执行请求
-        connection.getResponseCode();
+        long waitStart = listener == null ? 0 : System.nanoTime();
+        int statusCode = connection.getResponseCode();
+        if (listener != null) {
+            listener.firstByteReceived(request, statusCode, System.nanoTime() - waitStart);
+        }
 
         if (config.getCookieManager() != null) {
             //处理返回的cookie信息
             config.getCookieManager().put(connection.getURL().toURI(), connection.getHeaderFields());
         }
-        return new XResponse(connection);
+        XResponse response = new XResponse(connection, config);
+        if (listener != null) {
+            response.listen(listener, request, start);
+        }
+        return response;
+    }
+
+    /**
+     * 获取缓存的SSLSocketFactory包装，只在SSL配置变化时重新创建。
+     * keep-alive连接只在SSLSocketFactory实例相同时才会复用，SSLContext每次getSocketFactory()都会返回新的实例
+     *
+     * @return SSLSocketFactory包装
+     * @throws NoSuchAlgorithmException 获取默认的SSLContext时可能会发生异常
+     */
+    @Nonnull
+    private SSLSocketFactory socketFactory() throws NoSuchAlgorithmException {
+        XHttpTools.Config config = getConfig();
+        TlsFactory tlsFactory = this.tlsFactory;
+        if (tlsFactory == null || !tlsFactory.matches(config)) {
+            synchronized (this) {
+                tlsFactory = this.tlsFactory;
+                if (tlsFactory == null || !tlsFactory.matches(config)) {
+                    tlsFactory = new TlsFactory(config);
+                    this.tlsFactory = tlsFactory;
+                }
+            }
+        }
+        return tlsFactory.socketFactory;
+    }
+
+    /**
+     * 将配置的TLS会话缓存大小和超时时间应用到SSLContext的客户端会话缓存，没有配置SSLContext时应用到默认的SSLContext
+     *
+     * @param config 请求配置
+     * @throws NoSuchAlgorithmException 获取默认的SSLContext时可能会发生异常
+     */
+    protected static void configureSessions(@Nonnull XHttpTools.Config config) throws NoSuchAlgorithmException {
+        if (config.getSslSessionCacheSize() < 0 && config.getSslSessionTimeout() < 0) {
+            return;
+        }
+        SSLSessionContext sessionContext = (config.getSslContext() != null ? config.getSslContext() : SSLContext.getDefault()).getClientSessionContext();
+        if (config.getSslSessionCacheSize() >= 0) {
+            sessionContext.setSessionCacheSize(config.getSslSessionCacheSize());
+        }
+        if (config.getSslSessionTimeout() >= 0) {
+            sessionContext.setSessionTimeout(config.getSslSessionTimeout());
+        }
+    }
+
+    /**
+     * 判断是否需要对请求体进行gzip压缩，只压缩字符串、urlencoded和文件类型的请求体，
+     * 且请求体长度不小于配置的阈值，请求中已有Content-Encoding时不压缩
+     *
+     * @param request HTTP请求
+     * @param content 请求体
+     * @return 是否需要压缩
+     * @throws IOException 获取请求体长度时可能会发生异常
+     */
+    protected boolean compressible(@Nonnull XRequest request, @Nonnull XRequest.Content content) throws IOException {
+        int threshold = getConfig().getCompressRequestThreshold();
+        if (threshold < 0 || hasHeader(request.getHeaders(), "Content-Encoding")) {
+            return false;
+        }
+        if (content instanceof XRequest.StringContent || content instanceof XRequest.UrlencodedContent || content instanceof XRequest.FileContent) {
+            return content.contentLength() >= threshold;
+        }
+        return false;
+    }
+
+    /**
+     * 判断请求头中是否有指定的请求头
+     *
+     * @param headers 请求头列表
+     * @param name    请求头名称
+     * @return 是否有该请求头
+     */
+    protected static boolean hasHeader(@Nonnull List<XRequest.KeyValue> headers, @Nonnull String name) {
+        for (XRequest.KeyValue keyValue : headers) {
+            if (keyValue.getKey().equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 统计写出字节数的输出流
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        private CountingOutputStream(OutputStream outStream) {
+            super(outStream);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(@Nonnull byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * 依次通知多个监听器
+     */
+    private static class Listeners implements XEventListener {
+        private final List<XEventListener> listeners;
+
+        private Listeners(List<XEventListener> listeners) {
+            this.listeners = listeners;
+        }
+
+        @Override
+        public void queued(@Nonnull XRequest request, long waitNanos) {
+            for (XEventListener listener : listeners) {
+                listener.queued(request, waitNanos);
+            }
+        }
+
+        @Override
+        public void dnsResolved(@Nonnull XRequest request, @Nonnull String host, long nanos) {
+            for (XEventListener listener : listeners) {
+                listener.dnsResolved(request, host, nanos);
+            }
+        }
+
+        @Override
+        public void connected(@Nonnull XRequest request, long nanos) {
+            for (XEventListener listener : listeners) {
+                listener.connected(request, nanos);
+            }
+        }
+
+        @Override
+        public void handshaked(@Nonnull XRequest request, long nanos) {
+            for (XEventListener listener : listeners) {
+                listener.handshaked(request, nanos);
+            }
+        }
+
+        @Override
+        public void requestBodyWritten(@Nonnull XRequest request, long bytes, long nanos) {
+            for (XEventListener listener : listeners) {
+                listener.requestBodyWritten(request, bytes, nanos);
+            }
+        }
+
+        @Override
+        public void firstByteReceived(@Nonnull XRequest request, int statusCode, long nanos) {
+            for (XEventListener listener : listeners) {
+                listener.firstByteReceived(request, statusCode, nanos);
+            }
+        }
+
+        @Override
+        public void responseBodyRead(@Nonnull XRequest request, long bytes, long nanos) {
+            for (XEventListener listener : listeners) {
+                listener.responseBodyRead(request, bytes, nanos);
+            }
+        }
+
+        @Override
+        public void closed(@Nonnull XRequest request, long totalNanos) {
+            for (XEventListener listener : listeners) {
+                listener.closed(request, totalNanos);
+            }
+        }
+
+        @Override
+        public void failed(@Nonnull XRequest request, @Nonnull Exception error, long totalNanos) {
+            for (XEventListener listener : listeners) {
+                listener.failed(request, error, totalNanos);
+            }
+        }
+    }
+
+    /**
+     * 可以从其他线程中止的请求。绑定到执行请求的线程后，执行器在该线程中打开的连接会登记到其中，
+     * 中止时断开连接，阻塞在读取响应上的请求立即失败，不需要等到读取超时。
+     * 正在建立TCP连接时中止，要等连接建立或者连接超时后才会失败
+     */
+    public static final class Abort implements AutoCloseable {
+        private static final ThreadLocal<Abort> CURRENT = new ThreadLocal<>();
+        private HttpURLConnection connection;
+        private boolean aborted;
+
+        /**
+         * 绑定到当前线程，在同一线程中关闭时解除绑定
+         *
+         * @return 当前对象
+         */
+        @Nonnull
+        public Abort bind() {
+            CURRENT.set(this);
+            return this;
+        }
+
+        /**
+         * 中止请求，断开已经登记的连接，之后登记的连接会直接失败
+         */
+        public synchronized void abort() {
+            aborted = true;
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+
+        @Override
+        public void close() {
+            CURRENT.remove();
+        }
+
+        /**
+         * 将连接登记到当前线程绑定的中止对象
+         *
+         * @param connection 新打开的连接
+         * @return 当前线程绑定的中止对象，没有绑定时为null
+         * @throws InterruptedIOException 请求已经被中止
+         */
+        @Nullable
+        private static Abort attach(@Nonnull HttpURLConnection connection) throws InterruptedIOException {
+            Abort abort = CURRENT.get();
+            if (abort != null) {
+                synchronized (abort) {
+                    abort.connection = connection;
+                    abort.check();
+                }
+            }
+            return abort;
+        }
+
+        /**
+         * 检查请求是否已经被中止，中止时断开连接
+         *
+         * @throws InterruptedIOException 请求已经被中止
+         */
+        private synchronized void check() throws InterruptedIOException {
+            if (aborted) {
+                connection.disconnect();
+                throw new InterruptedIOException("请求已被中止");
+            }
+        }
+    }
+
+    /**
+     * 根据某一份SSL和域名解析配置创建的SSLSocketFactory包装
+     */
+    private static final class TlsFactory {
+        private final SSLContext sslContext;
+        private final int sessionCacheSize;
+        private final int sessionTimeout;
+        private final XResolver resolver;
+        private final int failoverTimeout;
+        private final XSocketFactory socketFactory;
+
+        private TlsFactory(@Nonnull XHttpTools.Config config) throws NoSuchAlgorithmException {
+            this.sslContext = config.getSslContext();
+            this.sessionCacheSize = config.getSslSessionCacheSize();
+            this.sessionTimeout = config.getSslSessionTimeout();
+            this.resolver = config.getResolver();
+            this.failoverTimeout = config.getConnectFailoverTimeout();
+            configureSessions(config);
+            this.socketFactory = new XSocketFactory(sslContext != null ? sslContext.getSocketFactory() : HttpsURLConnection.getDefaultSSLSocketFactory(), resolver, failoverTimeout);
+        }
+
+        private boolean matches(@Nonnull XHttpTools.Config config) {
+            return sslContext == config.getSslContext() && sessionCacheSize == config.getSslSessionCacheSize() && sessionTimeout == config.getSslSessionTimeout()
+                    && resolver == config.getResolver() && failoverTimeout == config.getConnectFailoverTimeout();
+        }
     }
 }
@@ -0,0 +1,416 @@
+package me.xuxiaoxiao.xtools.common.http.impl;
+
+import me.xuxiaoxiao.xtools.common.http.XHttpTools;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 对冲请求策略，请求在一定时间内没有响应时再发出相同的请求，使用最先成功的响应，其余的请求被取消，响应被关闭。
+ * 等待时间取最近请求耗时的百分位数，对冲请求的数量受预算限制，不超过请求数的一定比例。
+ * 只有幂等的请求方法和可以同时重放的请求体才会对冲，流、Reader和迭代器类型的请求体即使可以重放也不会对冲。
+ * 原请求和对冲请求都在对冲策略自己的执行器中执行，调用线程只等待结果，
+ * 不占用执行异步请求的有界线程池，异步请求和批量请求使用对冲策略时不会因为线程池耗尽而互相等待
+ */
+public class XHedgePolicy {
+    private static final int SAMPLE_SIZE = 1024;
+    private static final int SAMPLE_INTERVAL = 64;
+    private static final int DEFAULT_THREADS = 64;
+    /**
+     * 默认执行各个请求的线程池，线程数有上限，超出时排队，线程都是守护线程，空闲后自动回收
+     */
+    private static final ExecutorService DEFAULT_EXECUTOR = newDefaultExecutor();
+
+    private double delayPercentile;
+    private long initialDelay;
+    private long minDelay;
+    private int minSamples;
+    private int maxHedges;
+    private double budget;
+    private int maxBudget;
+    private Executor executor;
+    private final Set<String> hedgeMethods = new HashSet<>(Arrays.asList(XRequest.METHOD_GET, XRequest.METHOD_HEAD, XRequest.METHOD_OPTIONS, XRequest.METHOD_PUT, XRequest.METHOD_DELETE));
+
+    private final long[] samples = new long[SAMPLE_SIZE];
+    private long sampleCount;
+    private volatile long delay = -1;
+    /**
+     * 对冲预算，以千分之一个请求为单位
+     */
+    private final AtomicLong tokens = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+
+    public XHedgePolicy() {
+        this.delayPercentile = 0.95;
+        this.initialDelay = 100;
+        this.minDelay = 5;
+        this.minSamples = 20;
+        this.maxHedges = 1;
+        this.budget = 0.1;
+        this.maxBudget = 10;
+    }
+
+    /**
+     * 按对冲策略执行请求
+     *
+     * @param request HTTP请求
+     * @param chain   实际执行请求的方法
+     * @return 最先成功的HTTP响应，都失败时为最后一个完成的响应
+     * @throws Exception 所有请求都发生异常时抛出最后一个异常，或者等待时被中断
+     */
+    @Nonnull
+    public XResponse execute(@Nonnull XRequest request, @Nonnull XHttpTools.Chain chain) throws Exception {
+        if (!hedgeable(request)) {
+            return chain.proceed(request);
+        }
+        Executor executor = getExecutor();
+        deposit();
+        BlockingQueue<Attempt> completed = new LinkedBlockingQueue<>();
+        List<Attempt> attempts = new ArrayList<>(maxHedges + 1);
+        attempts.add(start(request, chain, executor, completed));
+        long hedgeDelay = getDelay();
+        long hedgeAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(hedgeDelay);
+        boolean exhausted = false;
+        int finished = 0;
+        Attempt fallback = null;
+        try {
+            while (true) {
+                if (fallback != null && finished == attempts.size()) {
+                    //所有已发出的请求都失败了，失败交给重试策略处理，不再对冲
+                    attempts.remove(fallback);
+                    if (fallback.error != null) {
+                        throw fallback.error;
+                    }
+                    return fallback.response;
+                }
+                Attempt attempt;
+                if (!exhausted && attempts.size() <= maxHedges) {
+                    attempt = completed.poll(hedgeAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+                } else {
+                    attempt = completed.take();
+                }
+                if (attempt == null) {
+                    if (withdraw()) {
+                        hedges.incrementAndGet();
+                        attempts.add(start(request, chain, executor, completed));
+                        hedgeAt += TimeUnit.MILLISECONDS.toNanos(hedgeDelay);
+                    } else {
+                        //预算不足时不再对冲，只等待已经发出的请求
+                        exhausted = true;
+                    }
+                    continue;
+                }
+                finished++;
+                if (fallback != null) {
+                    fallback.discard();
+                }
+                if (attempt.response != null && attempt.response.getStatusCode() < 500) {
+                    attempts.remove(attempt);
+                    return attempt.response;
+                }
+                fallback = attempt;
+            }
+        } finally {
+            for (Attempt attempt : attempts) {
+                attempt.cancel();
+            }
+        }
+    }
+
+    /**
+     * 判断请求是否可以对冲
+     *
+     * @param request HTTP请求
+     * @return 是否可以对冲
+     */
+    public boolean hedgeable(@Nonnull XRequest request) {
+        return maxHedges > 0 && hedgeMethods.contains(request.getMethod()) && (request.getContent() == null || request.getContent().concurrentReplayable());
+    }
+
+    /**
+     * 获取当前对冲请求前等待的时间，样本数量不足时为初始等待时间，否则为请求耗时的百分位数
+     *
+     * @return 等待的毫秒数
+     */
+    public long getDelay() {
+        long current = this.delay;
+        return Math.max(current < 0 ? initialDelay : current, minDelay);
+    }
+
+    /**
+     * 获取发出的对冲请求总数
+     *
+     * @return 对冲请求总数
+     */
+    public long getHedges() {
+        return hedges.get();
+    }
+
+    @Nonnull
+    private static ExecutorService newDefaultExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(DEFAULT_THREADS, DEFAULT_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "xtools-http-hedge");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    @Nonnull
+    private Attempt start(@Nonnull XRequest request, @Nonnull XHttpTools.Chain chain, @Nonnull Executor executor, @Nonnull BlockingQueue<Attempt> completed) {
+        Attempt attempt = new Attempt(request, chain, completed);
+        executor.execute(attempt);
+        return attempt;
+    }
+
+    /**
+     * 记录请求耗时，每隔一定数量的样本重新计算百分位数
+     */
+    private synchronized void record(long millis) {
+        samples[(int) (sampleCount++ % SAMPLE_SIZE)] = millis;
+        if (sampleCount >= minSamples && (sampleCount < SAMPLE_INTERVAL || sampleCount % SAMPLE_INTERVAL == 0)) {
+            long[] sorted = Arrays.copyOf(samples, (int) Math.min(sampleCount, SAMPLE_SIZE));
+            Arrays.sort(sorted);
+            this.delay = sorted[(int) Math.max(Math.min(sorted.length - 1, Math.ceil(sorted.length * delayPercentile) - 1), 0)];
+        }
+    }
+
+    /**
+     * 每个请求增加一定比例的对冲预算
+     */
+    private void deposit() {
+        long max = maxBudget * 1000L;
+        long amount = (long) (budget * 1000);
+        tokens.getAndUpdate(current -> Math.min(current + amount, max));
+    }
+
+    /**
+     * 消耗一个请求的对冲预算
+     */
+    private boolean withdraw() {
+        while (true) {
+            long current = tokens.get();
+            if (current < 1000) {
+                return false;
+            } else if (tokens.compareAndSet(current, current - 1000)) {
+                return true;
+            }
+        }
+    }
+
+    public double getDelayPercentile() {
+        return delayPercentile;
+    }
+
+    /**
+     * 设置对冲等待时间取请求耗时的百分位数
+     *
+     * @param delayPercentile 百分位数，0到1之间，默认为0.95
+     */
+    public void setDelayPercentile(double delayPercentile) {
+        this.delayPercentile = Math.min(Math.max(delayPercentile, 0), 1);
+    }
+
+    public long getInitialDelay() {
+        return initialDelay;
+    }
+
+    /**
+     * 设置样本数量不足时对冲请求前等待的时间
+     *
+     * @param initialDelay 等待的毫秒数
+     */
+    public void setInitialDelay(long initialDelay) {
+        this.initialDelay = initialDelay;
+    }
+
+    public long getMinDelay() {
+        return minDelay;
+    }
+
+    /**
+     * 设置对冲请求前最少等待的时间
+     *
+     * @param minDelay 等待的毫秒数
+     */
+    public void setMinDelay(long minDelay) {
+        this.minDelay = minDelay;
+    }
+
+    public int getMinSamples() {
+        return minSamples;
+    }
+
+    /**
+     * 设置按百分位数计算等待时间所需的最少样本数量
+     *
+     * @param minSamples 最少样本数量
+     */
+    public void setMinSamples(int minSamples) {
+        this.minSamples = Math.max(minSamples, 1);
+    }
+
+    public int getMaxHedges() {
+        return maxHedges;
+    }
+
+    /**
+     * 设置每个请求最多发出的对冲请求数量，不包括原请求
+     *
+     * @param maxHedges 对冲请求数量
+     */
+    public void setMaxHedges(int maxHedges) {
+        this.maxHedges = maxHedges;
+    }
+
+    public double getBudget() {
+        return budget;
+    }
+
+    /**
+     * 设置对冲请求的预算，即对冲请求数占请求数的最大比例，默认为0.1
+     *
+     * @param budget 对冲请求的预算
+     */
+    public void setBudget(double budget) {
+        this.budget = Math.max(budget, 0);
+    }
+
+    /**
+     * 获取执行各个请求的执行器，未设置时为共享的有界守护线程池
+     *
+     * @return 执行各个请求的执行器
+     */
+    @Nonnull
+    public Executor getExecutor() {
+        Executor current = this.executor;
+        return current == null ? DEFAULT_EXECUTOR : current;
+    }
+
+    /**
+     * 设置执行各个请求的执行器，为null则使用共享的有界守护线程池。
+     * 执行器不能与执行异步请求的有界线程池共用，否则线程池被等待对冲结果的请求占满后，对冲的请求永远得不到执行
+     *
+     * @param executor 执行各个请求的执行器
+     */
+    public void setExecutor(@Nullable Executor executor) {
+        this.executor = executor;
+    }
+
+    public int getMaxBudget() {
+        return maxBudget;
+    }
+
+    /**
+     * 设置最多积累的对冲预算，限制空闲一段时间后突发的对冲请求数量
+     *
+     * @param maxBudget 最多积累的对冲请求数量
+     */
+    public void setMaxBudget(int maxBudget) {
+        this.maxBudget = maxBudget;
+    }
+
+    /**
+     * 获取允许对冲的请求方法集合，可以直接修改，默认为GET、HEAD、OPTIONS、PUT、DELETE
+     *
+     * @return 允许对冲的请求方法集合
+     */
+    @Nonnull
+    public Set<String> getHedgeMethods() {
+        return hedgeMethods;
+    }
+
+    /**
+     * 一次请求，在执行器中执行，完成后放入完成队列。
+     * 取消时断开正在使用的连接，不会一直占用线程和连接直到读取超时，被取消后才得到的响应会被关闭
+     */
+    private class Attempt implements Runnable {
+        private final XRequest request;
+        private final XHttpTools.Chain chain;
+        private final BlockingQueue<Attempt> completed;
+        private final XExecutor.Abort abort = new XExecutor.Abort();
+        private XResponse response;
+        private Exception error;
+        private Thread thread;
+        private boolean done;
+        private boolean cancelled;
+
+        private Attempt(XRequest request, XHttpTools.Chain chain, BlockingQueue<Attempt> completed) {
+            this.request = request;
+            this.chain = chain;
+            this.completed = completed;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                thread = Thread.currentThread();
+            }
+            long start = System.nanoTime();
+            XResponse result = null;
+            Exception failure = null;
+            try (XExecutor.Abort ignored = abort.bind()) {
+                result = chain.proceed(request);
+                record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            } catch (Exception e) {
+                failure = e;
+            }
+            synchronized (this) {
+                thread = null;
+                done = true;
+                Thread.interrupted();
+                if (cancelled) {
+                    if (result != null) {
+                        result.close();
+                    }
+                    return;
+                }
+                response = result;
+                error = failure;
+            }
+            completed.add(this);
+        }
+
+        /**
+         * 取消未完成的请求，断开正在使用的连接并中断执行请求的线程，已经得到的响应会被关闭
+         */
+        private synchronized void cancel() {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            if (thread != null) {
+                abort.abort();
+                thread.interrupt();
+            } else if (done && response != null) {
+                response.close();
+            }
+        }
+
+        /**
+         * 丢弃已完成的请求的响应
+         */
+        private synchronized void discard() {
+            cancelled = true;
+            if (response != null) {
+                response.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package me.xuxiaoxiao.xtools.common.http.impl;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 使用静态的主机表解析域名，类似hosts文件，主机表中没有的主机交给后备解析器，没有后备解析器时解析失败。
+ * 适合在测试中把域名指向本地地址，或者固定某些主机的地址
+ */
+public class XHostsResolver implements XResolver {
+    private final Map<String, List<InetAddress>> hosts = new ConcurrentHashMap<>();
+    @Nullable
+    private final XResolver fallback;
+
+    public XHostsResolver() {
+        this(null);
+    }
+
+    /**
+     * @param fallback 主机表中没有的主机使用的后备解析器，为null则解析失败
+     */
+    public XHostsResolver(@Nullable XResolver fallback) {
+        this.fallback = fallback;
+    }
+
+    /**
+     * 设置主机的地址，覆盖之前设置的地址
+     *
+     * @param host      主机
+     * @param addresses 主机的IP地址，按尝试连接的顺序排列
+     * @return 解析器本身
+     * @throws IllegalArgumentException 地址不是IP地址时抛出
+     */
+    @Nonnull
+    public XHostsResolver put(@Nonnull String host, @Nonnull String... addresses) {
+        List<InetAddress> list = new ArrayList<>(addresses.length);
+        for (String address : addresses) {
+            if (!address.matches("[0-9.]+") && address.indexOf(':') < 0) {
+                throw new IllegalArgumentException(String.format("%s不是IP地址", address));
+            }
+            try {
+                //IP地址字面量不会触发域名解析
+                list.add(InetAddress.getByAddress(host, InetAddress.getByName(address).getAddress()));
+            } catch (UnknownHostException e) {
+                throw new IllegalArgumentException(String.format("%s不是IP地址", address), e);
+            }
+        }
+        hosts.put(host.toLowerCase(), Collections.unmodifiableList(list));
+        return this;
+    }
+
+    /**
+     * 移除主机的地址
+     *
+     * @param host 主机
+     */
+    public void remove(@Nonnull String host) {
+        hosts.remove(host.toLowerCase());
+    }
+
+    @Nonnull
+    @Override
+    public List<InetAddress> resolve(@Nonnull String host) throws UnknownHostException {
+        List<InetAddress> addresses = hosts.get(host.toLowerCase());
+        if (addresses != null && !addresses.isEmpty()) {
+            return addresses;
+        }
+        if (fallback != null) {
+            return fallback.resolve(host);
+        }
+        throw new UnknownHostException(String.format("主机表中没有主机：%s", host));
+    }
+
+    @Override
+    public void failed(@Nonnull String host, @Nonnull InetAddress address) {
+        if (fallback != null && !hosts.containsKey(host.toLowerCase())) {
+            fallback.failed(host, address);
+        }
+    }
+}
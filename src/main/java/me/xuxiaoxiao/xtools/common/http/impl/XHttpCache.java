@@ -0,0 +1,682 @@
+package me.xuxiaoxiao.xtools.common.http.impl;
+
+import me.xuxiaoxiao.xtools.common.XTools;
+import me.xuxiaoxiao.xtools.common.http.XHttpTools;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 遵循RFC 7234的HTTP响应缓存，缓存GET请求的响应并用于GET和HEAD请求。
+ * 支持Cache-Control、Expires、ETag和Last-Modified，过期后使用If-None-Match和If-Modified-Since重新验证。
+ * 内存中使用有容量上限的LRU缓存，可选地将响应同时保存到磁盘目录中，读写磁盘文件时不持有缓存的锁。
+ * 带Range请求头的请求只请求部分响应体，不使用缓存也不会被缓存
+ */
+public class XHttpCache {
+    private static final int DISK_MAGIC = 0x58484331;
+    /**
+     * 默认可以缓存的响应状态码
+     */
+    private static final Set<Integer> CACHEABLE_STATUS = new HashSet<>(Arrays.asList(200, 203, 204, 300, 301, 404, 405, 410, 414, 501));
+    /**
+     * 304响应中不能用于更新缓存的响应头
+     */
+    private static final Set<String> UNUPDATABLE_HEADERS = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+    static {
+        UNUPDATABLE_HEADERS.addAll(Arrays.asList("Content-Length", "Content-Encoding", "Transfer-Encoding", "Content-Range"));
+    }
+
+    private final long maxMemorySize;
+    @Nullable
+    private final File directory;
+    private final long maxDiskSize;
+    private long maxEntrySize;
+
+    private final LinkedHashMap<String, Entry> memoryEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Long> diskEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long memorySize;
+    private long diskSize;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong revalidateCount = new AtomicLong();
+
+    /**
+     * 只使用内存的缓存
+     *
+     * @param maxMemorySize 内存中缓存的最大字节数
+     */
+    public XHttpCache(long maxMemorySize) {
+        this(maxMemorySize, null, 0);
+    }
+
+    /**
+     * 使用内存和磁盘的缓存
+     *
+     * @param maxMemorySize 内存中缓存的最大字节数
+     * @param directory     磁盘缓存的目录，为null则不使用磁盘缓存
+     * @param maxDiskSize   磁盘中缓存的最大字节数
+     */
+    public XHttpCache(long maxMemorySize, @Nullable File directory, long maxDiskSize) {
+        this.maxMemorySize = maxMemorySize;
+        this.directory = directory;
+        this.maxDiskSize = maxDiskSize;
+        this.maxEntrySize = Math.max(maxMemorySize / 8, 1);
+        if (directory != null) {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IllegalArgumentException(String.format("无法创建缓存目录：%s", directory.getAbsolutePath()));
+            }
+            File[] files = directory.listFiles((dir, name) -> name.endsWith(".xhc"));
+            if (files != null) {
+                Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+                for (File file : files) {
+                    diskEntries.put(file.getName(), file.length());
+                    diskSize += file.length();
+                }
+            }
+        }
+    }
+
+    public long getMaxEntrySize() {
+        return maxEntrySize;
+    }
+
+    /**
+     * 设置单个响应体的最大字节数，超过该值的响应不会被缓存，默认为内存缓存上限的1/8
+     *
+     * @param maxEntrySize 单个响应体的最大字节数
+     */
+    public void setMaxEntrySize(long maxEntrySize) {
+        this.maxEntrySize = maxEntrySize;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getRevalidateCount() {
+        return revalidateCount.get();
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void clear() {
+        List<String> fileNames;
+        synchronized (this) {
+            memoryEntries.clear();
+            memorySize = 0;
+            fileNames = new ArrayList<>(diskEntries.keySet());
+            diskEntries.clear();
+            diskSize = 0;
+        }
+        deleteFiles(fileNames);
+    }
+
+    /**
+     * 使用缓存执行HTTP请求
+     *
+     * @param request HTTP请求
+     * @param chain   缓存未命中或需要重新验证时实际执行请求的方法
+     * @param config  请求配置，用于创建缓存的响应
+     * @return HTTP响应
+     * @throws Exception 执行请求时可能会发生异常
+     */
+    @Nonnull
+    public XResponse execute(@Nonnull XRequest request, @Nonnull XHttpTools.Chain chain, @Nonnull XHttpTools.Config config) throws Exception {
+        String method = request.getMethod();
+        String key = request.getUrl();
+        if (!XRequest.METHOD_GET.equals(method) && !XRequest.METHOD_HEAD.equals(method)) {
+            XResponse response = chain.proceed(request);
+            if (!XRequest.METHOD_OPTIONS.equals(method) && !"TRACE".equals(method) && response.getStatusCode() < 400) {
+                //不安全的请求方法会使该地址的缓存失效
+                remove(key);
+            }
+            return response;
+        }
+
+        Directives requestDirectives = Directives.ofRequest(request);
+        if (requestDirectives.noStore || hasHeader(request, "Range")) {
+            return chain.proceed(request);
+        }
+
+        Entry entry = get(key);
+        if (entry != null && !entry.matchVary(request)) {
+            entry = null;
+        }
+        long now = System.currentTimeMillis();
+        if (entry != null && !requestDirectives.noCache && entry.isFresh(now, requestDirectives.maxAge)) {
+            hitCount.incrementAndGet();
+            return entry.toResponse(method, now, config);
+        }
+
+        XRequest networkRequest = request;
+        if (entry != null && (entry.etag != null || entry.lastModified != null) && !hasHeader(request, "If-None-Match") && !hasHeader(request, "If-Modified-Since")) {
+            networkRequest = request.copy();
+            if (entry.etag != null) {
+                networkRequest.header("If-None-Match", entry.etag, true);
+            }
+            if (entry.lastModified != null) {
+                networkRequest.header("If-Modified-Since", entry.lastModified, true);
+            }
+        }
+
+        XResponse response = chain.proceed(networkRequest);
+        long responseTime = System.currentTimeMillis();
+        if (networkRequest != request && response.getStatusCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            Map<String, List<String>> headers = headers(response.getConnection());
+            response.close();
+            Entry revalidated = entry.revalidate(headers, now, responseTime);
+            put(key, revalidated);
+            revalidateCount.incrementAndGet();
+            return revalidated.toResponse(method, responseTime, config);
+        }
+        missCount.incrementAndGet();
+        if (XRequest.METHOD_GET.equals(method) && storable(request, requestDirectives, response)) {
+            return store(key, request, response, now, responseTime, config);
+        }
+        return response;
+    }
+
+    /**
+     * 读取响应体并缓存，响应体过大则不缓存
+     */
+    @Nonnull
+    private XResponse store(@Nonnull String key, @Nonnull XRequest request, @Nonnull XResponse response, long requestTime, long responseTime, @Nonnull XHttpTools.Config config) throws IOException {
+        HttpURLConnection connection = response.getConnection();
+        long contentLength = connection.getContentLengthLong();
+        if (contentLength > maxEntrySize) {
+            return response;
+        }
+        int status = connection.getResponseCode();
+        InputStream inStream = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        byte[] body = inStream == null ? new byte[0] : inStream.readNBytes((int) Math.min(maxEntrySize + 1, Integer.MAX_VALUE - 8));
+        Map<String, List<String>> headers = headers(connection);
+        if (body.length > maxEntrySize) {
+            //响应体超过上限，将已读取的部分和剩余的部分拼接后返回，不缓存。关闭拼接的输入流时关闭原来的响应，归还或断开连接
+            InputStream bodyStream = new SequenceInputStream(new ByteArrayInputStream(body), inStream) {
+                @Override
+                public void close() {
+                    response.close();
+                }
+            };
+            return new XResponse(new XResponseConnection(connection.getURL(), status, connection.getResponseMessage(), headers, bodyStream), config);
+        }
+        response.close();
+
+        Map<String, String> vary = new HashMap<>();
+        for (String name : headerValues(headers, "Vary")) {
+            vary.put(name.toLowerCase(), headerValue(request, name));
+        }
+        Entry entry = new Entry(key, status, connection.getResponseMessage(), headers, vary, body, requestTime, responseTime);
+        put(key, entry);
+        return entry.toResponse(XRequest.METHOD_GET, responseTime, config);
+    }
+
+    /**
+     * 判断响应是否可以缓存
+     */
+    private boolean storable(@Nonnull XRequest request, @Nonnull Directives requestDirectives, @Nonnull XResponse response) {
+        HttpURLConnection connection = response.getConnection();
+        int status = response.getStatusCode();
+        Directives directives = Directives.ofResponse(headers(connection).get("Cache-Control"));
+        if (directives.noStore || requestDirectives.noStore) {
+            return false;
+        }
+        if (headerValues(connection.getHeaderFields(), "Vary").contains("*")) {
+            return false;
+        }
+        if (hasHeader(request, "Authorization") && !directives.isPublic && !directives.mustRevalidate) {
+            return false;
+        }
+        if (CACHEABLE_STATUS.contains(status)) {
+            return true;
+        }
+        return status >= 200 && status < 600 && status != 206 && (directives.maxAge >= 0 || connection.getHeaderField("Expires") != null);
+    }
+
+    @Nullable
+    private Entry get(@Nonnull String key) {
+        String fileName = fileName(key);
+        synchronized (this) {
+            Entry entry = memoryEntries.get(key);
+            if (entry != null || directory == null || !diskEntries.containsKey(fileName)) {
+                return entry;
+            }
+        }
+        //在锁外读取磁盘文件，文件由put()先写入临时文件再替换，不会读到写了一半的文件
+        Entry entry;
+        try (DataInputStream inStream = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(directory, fileName))))) {
+            entry = Entry.read(inStream);
+        } catch (IOException e) {
+            synchronized (this) {
+                removeDisk(fileName);
+            }
+            deleteFiles(Collections.singletonList(fileName));
+            return null;
+        }
+        if (entry == null || !entry.key.equals(key)) {
+            return null;
+        }
+        synchronized (this) {
+            if (!memoryEntries.containsKey(key) && diskEntries.containsKey(fileName)) {
+                putMemory(key, entry);
+            }
+        }
+        return entry;
+    }
+
+    private void put(@Nonnull String key, @Nonnull Entry entry) {
+        synchronized (this) {
+            putMemory(key, entry);
+        }
+        if (directory == null || entry.size() > maxDiskSize) {
+            return;
+        }
+        //在锁外写入临时文件，写完后替换缓存文件，锁内只更新磁盘缓存的记录
+        String fileName = fileName(key);
+        File file = new File(directory, fileName);
+        long fileSize;
+        try {
+            File tempFile = File.createTempFile(fileName, ".tmp", directory);
+            try {
+                try (DataOutputStream outStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                    entry.write(outStream);
+                }
+                fileSize = tempFile.length();
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                tempFile.delete();
+            }
+        } catch (IOException e) {
+            return;
+        }
+        List<String> evicted = new LinkedList<>();
+        synchronized (this) {
+            Long oldSize = diskEntries.put(fileName, fileSize);
+            diskSize += fileSize - (oldSize == null ? 0 : oldSize);
+            Iterator<Map.Entry<String, Long>> iterator = diskEntries.entrySet().iterator();
+            while (diskSize > maxDiskSize && iterator.hasNext()) {
+                Map.Entry<String, Long> eldest = iterator.next();
+                if (!eldest.getKey().equals(fileName)) {
+                    iterator.remove();
+                    diskSize -= eldest.getValue();
+                    evicted.add(eldest.getKey());
+                }
+            }
+        }
+        deleteFiles(evicted);
+    }
+
+    private void putMemory(@Nonnull String key, @Nonnull Entry entry) {
+        Entry old = memoryEntries.put(key, entry);
+        memorySize += entry.size() - (old == null ? 0 : old.size());
+        Iterator<Entry> iterator = memoryEntries.values().iterator();
+        while (memorySize > maxMemorySize && iterator.hasNext()) {
+            Entry eldest = iterator.next();
+            iterator.remove();
+            memorySize -= eldest.size();
+        }
+    }
+
+    private void remove(@Nonnull String key) {
+        String fileName = fileName(key);
+        synchronized (this) {
+            Entry old = memoryEntries.remove(key);
+            if (old != null) {
+                memorySize -= old.size();
+            }
+            if (directory == null || !removeDisk(fileName)) {
+                return;
+            }
+        }
+        deleteFiles(Collections.singletonList(fileName));
+    }
+
+    /**
+     * 移除磁盘缓存的记录，需要在锁内调用，文件由调用者在锁外删除
+     *
+     * @param fileName 缓存文件名
+     * @return 是否存在该记录
+     */
+    private boolean removeDisk(@Nonnull String fileName) {
+        Long oldSize = diskEntries.remove(fileName);
+        if (oldSize != null) {
+            diskSize -= oldSize;
+        }
+        return oldSize != null;
+    }
+
+    private void deleteFiles(@Nonnull List<String> fileNames) {
+        for (String fileName : fileNames) {
+            new File(Objects.requireNonNull(directory), fileName).delete();
+        }
+    }
+
+    @Nonnull
+    private static String fileName(@Nonnull String key) {
+        return XTools.sha1(key) + ".xhc";
+    }
+
+    @Nonnull
+    private static Map<String, List<String>> headers(@Nonnull HttpURLConnection connection) {
+        Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+            if (header.getKey() != null) {
+                headers.put(header.getKey(), new ArrayList<>(header.getValue()));
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * 获取逗号分隔的多值响应头的全部值
+     */
+    @Nonnull
+    private static List<String> headerValues(@Nonnull Map<String, List<String>> headers, @Nonnull String name) {
+        List<String> values = new LinkedList<>();
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey())) {
+                for (String value : header.getValue()) {
+                    for (String item : value.split(",")) {
+                        if (!XTools.isBlank(item)) {
+                            values.add(item.trim());
+                        }
+                    }
+                }
+            }
+        }
+        return values;
+    }
+
+    @Nullable
+    private static String headerValue(@Nonnull XRequest request, @Nonnull String name) {
+        StringJoiner joiner = null;
+        for (XRequest.KeyValue keyValue : request.getHeaders()) {
+            if (keyValue.getKey().equalsIgnoreCase(name)) {
+                if (joiner == null) {
+                    joiner = new StringJoiner(",");
+                }
+                joiner.add(String.valueOf(keyValue.getValue()));
+            }
+        }
+        return joiner == null ? null : joiner.toString();
+    }
+
+    private static boolean hasHeader(@Nonnull XRequest request, @Nonnull String name) {
+        return headerValue(request, name) != null;
+    }
+
+    /**
+     * 解析HTTP日期，无法解析时返回-1
+     */
+    private static long parseDate(@Nullable String date) {
+        if (date != null) {
+            try {
+                return ZonedDateTime.parse(date.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            } catch (RuntimeException ignored) {
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Cache-Control中与缓存相关的指令
+     */
+    private static class Directives {
+        private boolean noStore;
+        private boolean noCache;
+        private boolean isPublic;
+        private boolean mustRevalidate;
+        private long maxAge = -1;
+
+        @Nonnull
+        private static Directives ofResponse(@Nullable List<String> cacheControls) {
+            Directives directives = new Directives();
+            if (cacheControls != null) {
+                for (String cacheControl : cacheControls) {
+                    directives.parse(cacheControl);
+                }
+            }
+            return directives;
+        }
+
+        @Nonnull
+        private static Directives ofRequest(@Nonnull XRequest request) {
+            Directives directives = new Directives();
+            for (XRequest.KeyValue keyValue : request.getHeaders()) {
+                if (keyValue.getKey().equalsIgnoreCase("Cache-Control")) {
+                    directives.parse(String.valueOf(keyValue.getValue()));
+                } else if (keyValue.getKey().equalsIgnoreCase("Pragma") && String.valueOf(keyValue.getValue()).toLowerCase().contains("no-cache")) {
+                    directives.noCache = true;
+                }
+            }
+            return directives;
+        }
+
+        private void parse(@Nonnull String cacheControl) {
+            for (String directive : cacheControl.split(",")) {
+                String[] pair = directive.trim().split("=", 2);
+                String name = pair[0].trim().toLowerCase();
+                switch (name) {
+                    case "no-store":
+                        noStore = true;
+                        break;
+                    case "no-cache":
+                        noCache = true;
+                        break;
+                    case "public":
+                        isPublic = true;
+                        break;
+                    case "must-revalidate":
+                        mustRevalidate = true;
+                        break;
+                    case "max-age":
+                        if (pair.length > 1) {
+                            try {
+                                maxAge = Long.parseLong(pair[1].trim().replace("\"", ""));
+                            } catch (NumberFormatException e) {
+                                maxAge = 0;
+                            }
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+    }
+
+    /**
+     * 缓存的响应
+     */
+    private static class Entry {
+        private final String key;
+        private final int status;
+        private final String message;
+        private final Map<String, List<String>> headers;
+        private final Map<String, String> vary;
+        private final byte[] body;
+        private final long requestTime;
+        private final long responseTime;
+        private final String etag;
+        private final String lastModified;
+
+        private Entry(String key, int status, String message, Map<String, List<String>> headers, Map<String, String> vary, byte[] body, long requestTime, long responseTime) {
+            this.key = key;
+            this.status = status;
+            this.message = message;
+            this.headers = headers;
+            this.vary = vary;
+            this.body = body;
+            this.requestTime = requestTime;
+            this.responseTime = responseTime;
+            this.etag = header("ETag");
+            this.lastModified = header("Last-Modified");
+        }
+
+        @Nullable
+        private String header(@Nonnull String name) {
+            List<String> values = headers.get(name);
+            return values == null || values.isEmpty() ? null : values.get(values.size() - 1);
+        }
+
+        private long size() {
+            return body.length + 512L;
+        }
+
+        private boolean matchVary(@Nonnull XRequest request) {
+            for (Map.Entry<String, String> entry : vary.entrySet()) {
+                if (!Objects.equals(entry.getValue(), headerValue(request, entry.getKey()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 计算响应的新鲜度（RFC 7234 4.2.1），单位毫秒
+         */
+        private long freshnessLifetime() {
+            Directives directives = Directives.ofResponse(headers.get("Cache-Control"));
+            if (directives.noCache) {
+                return 0;
+            }
+            if (directives.maxAge >= 0) {
+                return directives.maxAge * 1000;
+            }
+            long date = parseDate(header("Date"));
+            if (date < 0) {
+                date = responseTime;
+            }
+            if (header("Expires") != null) {
+                long expires = parseDate(header("Expires"));
+                return expires < 0 ? 0 : Math.max(0, expires - date);
+            }
+            long lastModified = parseDate(this.lastModified);
+            if (lastModified >= 0 && CACHEABLE_STATUS.contains(status)) {
+                //启发式新鲜度：距上次修改时间的10%，最长一天
+                return Math.min((date - lastModified) / 10, 86400000L);
+            }
+            return 0;
+        }
+
+        /**
+         * 计算响应当前的年龄（RFC 7234 4.2.3），单位毫秒
+         */
+        private long currentAge(long now) {
+            long date = parseDate(header("Date"));
+            long apparentAge = date < 0 ? 0 : Math.max(0, responseTime - date);
+            long ageValue = 0;
+            try {
+                String age = header("Age");
+                ageValue = age == null ? 0 : Long.parseLong(age.trim()) * 1000;
+            } catch (NumberFormatException ignored) {
+            }
+            long correctedAge = ageValue + (responseTime - requestTime);
+            return Math.max(apparentAge, correctedAge) + (now - responseTime);
+        }
+
+        private boolean isFresh(long now, long requestMaxAge) {
+            long age = currentAge(now);
+            if (requestMaxAge >= 0 && age > requestMaxAge * 1000) {
+                return false;
+            }
+            return freshnessLifetime() > age;
+        }
+
+        /**
+         * 使用304响应的响应头更新缓存
+         */
+        @Nonnull
+        private Entry revalidate(@Nonnull Map<String, List<String>> newHeaders, long requestTime, long responseTime) {
+            Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            headers.putAll(this.headers);
+            for (Map.Entry<String, List<String>> header : newHeaders.entrySet()) {
+                if (!UNUPDATABLE_HEADERS.contains(header.getKey())) {
+                    headers.put(header.getKey(), header.getValue());
+                }
+            }
+            return new Entry(key, status, message, headers, vary, body, requestTime, responseTime);
+        }
+
+        @Nonnull
+        private XResponse toResponse(@Nonnull String method, long now, @Nonnull XHttpTools.Config config) throws IOException {
+            Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            headers.putAll(this.headers);
+            headers.put("Age", Collections.singletonList(String.valueOf(currentAge(now) / 1000)));
+            InputStream bodyStream = new ByteArrayInputStream(XRequest.METHOD_HEAD.equals(method) ? new byte[0] : body);
+            return new XResponse(new XResponseConnection(new URL(key), status, message, headers, bodyStream), config);
+        }
+
+        private void write(@Nonnull DataOutputStream outStream) throws IOException {
+            outStream.writeInt(DISK_MAGIC);
+            outStream.writeUTF(key);
+            outStream.writeInt(status);
+            outStream.writeUTF(message == null ? "" : message);
+            outStream.writeLong(requestTime);
+            outStream.writeLong(responseTime);
+            outStream.writeInt(headers.size());
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                outStream.writeUTF(header.getKey());
+                outStream.writeInt(header.getValue().size());
+                for (String value : header.getValue()) {
+                    outStream.writeUTF(value);
+                }
+            }
+            outStream.writeInt(vary.size());
+            for (Map.Entry<String, String> entry : vary.entrySet()) {
+                outStream.writeUTF(entry.getKey());
+                outStream.writeBoolean(entry.getValue() != null);
+                outStream.writeUTF(entry.getValue() == null ? "" : entry.getValue());
+            }
+            outStream.writeInt(body.length);
+            outStream.write(body);
+        }
+
+        @Nullable
+        private static Entry read(@Nonnull DataInputStream inStream) throws IOException {
+            if (inStream.readInt() != DISK_MAGIC) {
+                return null;
+            }
+            String key = inStream.readUTF();
+            int status = inStream.readInt();
+            String message = inStream.readUTF();
+            long requestTime = inStream.readLong();
+            long responseTime = inStream.readLong();
+            Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (int i = inStream.readInt(); i > 0; i--) {
+                String name = inStream.readUTF();
+                List<String> values = new ArrayList<>();
+                for (int j = inStream.readInt(); j > 0; j--) {
+                    values.add(inStream.readUTF());
+                }
+                headers.put(name, values);
+            }
+            Map<String, String> vary = new HashMap<>();
+            for (int i = inStream.readInt(); i > 0; i--) {
+                String name = inStream.readUTF();
+                boolean present = inStream.readBoolean();
+                String value = inStream.readUTF();
+                vary.put(name, present ? value : null);
+            }
+            byte[] body = new byte[inStream.readInt()];
+            inStream.readFully(body);
+            return new Entry(key, status, message.isEmpty() ? null : message, headers, vary, body, requestTime, responseTime);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package me.xuxiaoxiao.xtools.common.http.impl;
+
+import me.xuxiaoxiao.xtools.common.XTools;
+import me.xuxiaoxiao.xtools.common.http.XHttpTools;
+import me.xuxiaoxiao.xtools.common.jfr.XHttpEvent;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 基于JDK HttpClient的请求执行器，支持HTTP/2多路复用、共享连接池和ALPN协商。
+ * HttpClient在第一次请求时根据配置创建，之后修改连接超时、重定向、cookie和SSL配置不会再生效，
+ * HttpClient不支持自定义HostnameVerifier和域名解析器，这两项配置会被忽略
+ */
+public class XHttpClientExecutor extends XExecutor {
+    /**
+     * HttpClient不允许设置的请求头
+     */
+    private static final Set<String> RESTRICTED_HEADERS = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+    static {
+        RESTRICTED_HEADERS.addAll(Arrays.asList("Connection", "Content-Length", "Expect", "Host", "Upgrade", "Transfer-Encoding"));
+    }
+
+    /**
+     * 所有执行器共享的线程池，用于HttpClient的异步任务和写出请求体，线程都是守护线程，空闲后自动回收
+     */
+    private static final ExecutorService EXECUTOR_SERVICE = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "xtools-http-client");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final HttpClient.Version version;
+    private volatile HttpClient httpClient;
+
+    public XHttpClientExecutor(@Nonnull XHttpTools.Config config) {
+        this(config, HttpClient.Version.HTTP_2);
+    }
+
+    public XHttpClientExecutor(@Nonnull XHttpTools.Config config, @Nonnull HttpClient.Version version) {
+        super(config);
+        this.version = version;
+    }
+
+    /**
+     * 获取共享的HttpClient，第一次调用时根据配置创建
+     *
+     * @return 共享的HttpClient
+     */
+    @Nonnull
+    public HttpClient getHttpClient() {
+        if (httpClient == null) {
+            synchronized (this) {
+                if (httpClient == null) {
+                    XHttpTools.Config config = getConfig();
+                    HttpClient.Builder builder = HttpClient.newBuilder()
+                            .version(version)
+                            .executor(EXECUTOR_SERVICE)
+                            .connectTimeout(Duration.ofMillis(config.getConnectTimeout()))
+                            .followRedirects(config.isFollowRedirect() ? HttpClient.Redirect.NORMAL : HttpClient.Redirect.NEVER);
+                    if (config.getCookieManager() != null) {
+                        builder.cookieHandler(config.getCookieManager());
+                    }
+                    if (config.getSslContext() != null) {
+                        builder.sslContext(config.getSslContext());
+                    }
+                    try {
+                        configureSessions(config);
+                    } catch (NoSuchAlgorithmException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    httpClient = builder.build();
+                }
+            }
+        }
+        return httpClient;
+    }
+
+    @Nonnull
+    @Override
+    public XResponse execute(@Nonnull XRequest request) throws Exception {
+        XHttpTools.Config config = getConfig();
+
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(request.getUrl()));
+        if (config.getReadTimeout() > 0) {
+            builder.timeout(Duration.ofMillis(config.getReadTimeout()));
+        }
+
+        List<XRequest.KeyValue> headers = request.getHeaders();
+        if (!XTools.isEmpty(headers)) {
+            //设置请求头，跳过由HttpClient自己管理的请求头
+            for (XRequest.KeyValue keyValue : headers) {
+                if (!RESTRICTED_HEADERS.contains(keyValue.getKey())) {
+                    builder.header(keyValue.getKey(), String.valueOf(keyValue.getValue()));
+                }
+            }
+        }
+        if (config.isCompressResponse() && !hasHeader(headers, "Accept-Encoding")) {
+            builder.header("Accept-Encoding", "gzip, deflate");
+        }
+
+        //设置请求方法和请求体，写出请求体的管道在请求结束后关闭，避免HttpClient不再读取时写线程一直阻塞
+        List<PipedInputStream> pipes = Collections.synchronizedList(new LinkedList<>());
+        XRequest.Content content = request.getContent();
+        if (content == null) {
+            builder.method(request.getMethod(), HttpRequest.BodyPublishers.noBody());
+        } else {
+            boolean compress = compressible(request, content);
+            if (compress) {
+                builder.header("Content-Encoding", "gzip");
+            }
+            builder.method(request.getMethod(), publisher(content, compress, pipes));
+        }
+
+        // 执行请求，HttpClient的DNS、连接和TLS握手无法单独观察，整个发送过程记为等待响应头的耗时
+        XEventListener listener = getListener();
+        long start = listener == null ? 0 : System.nanoTime();
+        XHttpEvent event = new XHttpEvent();
+        event.begin();
+        HttpResponse<InputStream> response;
+        try {
+            response = getHttpClient().send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (Exception e) {
+            event.finish(request, null, e);
+            if (listener != null) {
+                listener.failed(request, e, System.nanoTime() - start);
+            }
+            throw e;
+        } finally {
+            closePipes(pipes);
+        }
+        XResponse xResponse = new XResponse(new XResponseConnection(response.uri().toURL(), response.statusCode(), null, response.headers().map(), response.body()), config);
+        event.finish(request, xResponse, null);
+        if (listener != null) {
+            listener.firstByteReceived(request, response.statusCode(), System.nanoTime() - start);
+            xResponse.listen(listener, request, start);
+        }
+        return xResponse;
+    }
+
+    /**
+     * 将请求体转换成HttpClient的请求体，请求体在独立的线程中写入管道，不会整体读入内存
+     *
+     * @param content  请求体
+     * @param compress 是否使用gzip压缩请求体
+     * @param pipes    创建的管道，请求结束后由调用者关闭
+     * @return HttpClient的请求体
+     * @throws IOException 获取请求体长度时可能会发生异常
+     */
+    @Nonnull
+    private HttpRequest.BodyPublisher publisher(@Nonnull XRequest.Content content, boolean compress, @Nonnull List<PipedInputStream> pipes) throws IOException {
+        long contentLength = compress ? -1 : content.contentLength();
+        if (contentLength == 0) {
+            return HttpRequest.BodyPublishers.noBody();
+        }
+        HttpRequest.BodyPublisher publisher = HttpRequest.BodyPublishers.ofInputStream(() -> {
+            try {
+                PipedInputStream inStream = new PipedInputStream(getConfig().getChunkLength());
+                PipedOutputStream outStream = new PipedOutputStream(inStream);
+                pipes.add(inStream);
+                EXECUTOR_SERVICE.execute(() -> {
+                    try (OutputStream pipeStream = compress ? new GZIPOutputStream(outStream, 8192) : outStream) {
+                        content.writeToStream(pipeStream);
+                    } catch (IOException e) {
+                        try {
+                            inStream.close();
+                        } catch (IOException ignored) {
+                        }
+                    }
+                });
+                return inStream;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return contentLength > 0 ? HttpRequest.BodyPublishers.fromPublisher(publisher, contentLength) : publisher;
+    }
+
+    /**
+     * 关闭写出请求体的管道，正在阻塞写入的线程会因管道关闭而结束
+     *
+     * @param pipes 创建的管道
+     */
+    private static void closePipes(@Nonnull List<PipedInputStream> pipes) {
+        synchronized (pipes) {
+            for (PipedInputStream pipe : pipes) {
+                try {
+                    pipe.close();
+                } catch (IOException ignored) {
+                }
+            }
+            pipes.clear();
+        }
+    }
+}
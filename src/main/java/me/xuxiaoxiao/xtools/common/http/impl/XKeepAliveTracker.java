@@ -0,0 +1,94 @@
+package me.xuxiaoxiao.xtools.common.http.impl;
+
+import javax.annotation.Nonnull;
+import java.net.URL;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * keep-alive连接统计，记录每个主机归还到JDK keep-alive缓存中的空闲连接，
+ * 以此估算新请求是复用了空闲连接还是新建了连接；同时统计新建HTTPS连接时完整握手和会话恢复的次数
+ */
+public class XKeepAliveTracker {
+    /**
+     * JDK keep-alive缓存中空闲连接的默认存活时间
+     */
+    private static final long IDLE_NANOS = 5_000_000_000L;
+    /**
+     * JDK keep-alive缓存中每个主机最多保留的空闲连接数
+     */
+    private static final int IDLE_MAX = Integer.getInteger("http.maxConnections", 5);
+
+    private final Map<String, Deque<Long>> idleConnections = new ConcurrentHashMap<>();
+    private final AtomicLong reusedConnections = new AtomicLong();
+    private final AtomicLong newConnections = new AtomicLong();
+    private final AtomicLong fullHandshakes = new AtomicLong();
+    private final AtomicLong resumedHandshakes = new AtomicLong();
+
+    /**
+     * 记录一次连接的打开，如果该主机有未过期的空闲连接则视为复用
+     *
+     * @param url 请求地址
+     * @return 是否估计会复用空闲连接
+     */
+    public boolean onOpen(@Nonnull URL url) {
+        Deque<Long> idle = idleConnections.get(route(url));
+        if (idle != null) {
+            long now = System.nanoTime();
+            Long released;
+            while ((released = idle.pollLast()) != null) {
+                if (now - released < IDLE_NANOS) {
+                    reusedConnections.incrementAndGet();
+                    return true;
+                }
+            }
+        }
+        newConnections.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * 记录一次连接被归还到keep-alive缓存
+     *
+     * @param url 请求地址
+     */
+    public void onRelease(@Nonnull URL url) {
+        Deque<Long> idle = idleConnections.computeIfAbsent(route(url), key -> new ConcurrentLinkedDeque<>());
+        idle.offerLast(System.nanoTime());
+        while (idle.size() > IDLE_MAX) {
+            idle.pollFirst();
+        }
+    }
+
+    /**
+     * 记录一次新建HTTPS连接时的TLS握手
+     *
+     * @param resumed 是否恢复了之前的TLS会话
+     */
+    public void onHandshake(boolean resumed) {
+        (resumed ? resumedHandshakes : fullHandshakes).incrementAndGet();
+    }
+
+    public long getReusedConnections() {
+        return reusedConnections.get();
+    }
+
+    public long getNewConnections() {
+        return newConnections.get();
+    }
+
+    public long getFullHandshakes() {
+        return fullHandshakes.get();
+    }
+
+    public long getResumedHandshakes() {
+        return resumedHandshakes.get();
+    }
+
+    private static String route(URL url) {
+        return url.getProtocol() + "://" + url.getHost() + ":" + (url.getPort() < 0 ? url.getDefaultPort() : url.getPort());
+    }
+}
@@ -0,0 +1,355 @@
+package me.xuxiaoxiao.xtools.common.http.impl;
+
+import me.xuxiaoxiao.xtools.common.http.XHttpTools;
+
+import javax.annotation.Nonnull;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 客户端负载均衡器，把发往上游分组的请求改写到分组中的某个成员上。
+ * 请求url的主机是分组名称时，例如http://user-service/users?id=1，协议、主机和端口会被替换成选中成员的基础地址，
+ * 基础地址可以带路径前缀，原请求的路径和参数拼接在其后。
+ * 连续失败的成员会被暂时摘除，摘除期间不再选中，到期后自动恢复；为了避免摘除过多，同一分组中被摘除的成员比例有上限，
+ * 所有成员都被摘除时仍然在全部成员中选择。
+ * 成员的并发请求数和耗时只统计到得到响应为止，不包括读取响应体
+ */
+public class XLoadBalancer {
+    private int failureThreshold;
+    private long ejectionDuration;
+    private int maxEjectionPercent;
+
+    private final ConcurrentHashMap<String, Upstream> upstreams = new ConcurrentHashMap<>();
+
+    public XLoadBalancer() {
+        this.failureThreshold = 5;
+        this.ejectionDuration = 30000;
+        this.maxEjectionPercent = 50;
+    }
+
+    /**
+     * 添加或替换上游分组
+     *
+     * @param name     分组名称，即请求url中的主机
+     * @param strategy 选择成员的策略
+     * @param baseUrls 成员的基础地址，例如http://10.0.0.1:8080或者http://10.0.0.1:8080/api
+     * @return 负载均衡器本身
+     * @throws IllegalArgumentException 没有成员或成员的基础地址不是HTTP或HTTPS地址时抛出
+     */
+    @Nonnull
+    public XLoadBalancer upstream(@Nonnull String name, @Nonnull Strategy strategy, @Nonnull String... baseUrls) {
+        if (baseUrls.length == 0) {
+            throw new IllegalArgumentException(String.format("上游分组：%s没有成员", name));
+        }
+        List<Member> members = new ArrayList<>(baseUrls.length);
+        for (String baseUrl : baseUrls) {
+            String lower = baseUrl.toLowerCase();
+            if ((!lower.startsWith("http://") && !lower.startsWith("https://")) || baseUrl.indexOf('?') >= 0) {
+                throw new IllegalArgumentException(String.format("成员的基础地址格式有误：%s", baseUrl));
+            }
+            members.add(new Member(baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl));
+        }
+        upstreams.put(name.toLowerCase(), new Upstream(strategy, Collections.unmodifiableList(members)));
+        return this;
+    }
+
+    /**
+     * 移除上游分组
+     *
+     * @param name 分组名称
+     */
+    public void removeUpstream(@Nonnull String name) {
+        upstreams.remove(name.toLowerCase());
+    }
+
+    /**
+     * 选择上游分组中的成员执行请求，请求抛出异常或响应状态码大于等于500时记为成员的一次失败。
+     * 熔断器、舱壁和并发限制器在本地拒绝请求抛出的RejectedExecutionException不记为成员的失败。
+     * 请求的主机不是上游分组时直接执行
+     *
+     * @param request HTTP请求
+     * @param chain   实际执行请求的方法
+     * @return HTTP响应
+     * @throws Exception 执行请求时发生的异常
+     */
+    @Nonnull
+    public XResponse execute(@Nonnull XRequest request, @Nonnull XHttpTools.Chain chain) throws Exception {
+        Upstream upstream = upstreams.get(host(request));
+        if (upstream == null) {
+            return chain.proceed(request);
+        }
+        Member member = upstream.choose();
+        member.outstanding.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            XResponse response = chain.proceed(request.rebase(member.baseUrl));
+            if (response.getStatusCode() >= 500) {
+                upstream.failed(member);
+            } else {
+                member.succeeded(System.nanoTime() - start);
+            }
+            return response;
+        } catch (RejectedExecutionException e) {
+            throw e;
+        } catch (Exception e) {
+            upstream.failed(member);
+            throw e;
+        } finally {
+            member.outstanding.decrementAndGet();
+        }
+    }
+
+    /**
+     * 获取成员正在执行的请求数
+     *
+     * @param name    分组名称
+     * @param baseUrl 成员的基础地址
+     * @return 正在执行的请求数，分组或成员不存在时为0
+     */
+    public int getOutstanding(@Nonnull String name, @Nonnull String baseUrl) {
+        Member member = member(name, baseUrl);
+        return member == null ? 0 : member.outstanding.get();
+    }
+
+    /**
+     * 获取成员请求耗时的指数加权移动平均值
+     *
+     * @param name    分组名称
+     * @param baseUrl 成员的基础地址
+     * @return 请求耗时，单位毫秒，还没有成功的请求时为0
+     */
+    public double getLatency(@Nonnull String name, @Nonnull String baseUrl) {
+        Member member = member(name, baseUrl);
+        return member == null ? 0 : member.latency / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * 判断成员是否正被摘除
+     *
+     * @param name    分组名称
+     * @param baseUrl 成员的基础地址
+     * @return 是否正被摘除
+     */
+    public boolean isEjected(@Nonnull String name, @Nonnull String baseUrl) {
+        Member member = member(name, baseUrl);
+        return member != null && member.isEjected(System.currentTimeMillis());
+    }
+
+    private Member member(@Nonnull String name, @Nonnull String baseUrl) {
+        Upstream upstream = upstreams.get(name.toLowerCase());
+        if (upstream != null) {
+            for (Member member : upstream.members) {
+                if (member.baseUrl.equals(baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl)) {
+                    return member;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Nonnull
+    private static String host(@Nonnull XRequest request) {
+        try {
+            return new URL(request.getUrl()).getHost().toLowerCase();
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("请求的url格式有误", e);
+        }
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    /**
+     * 设置摘除成员所需的连续失败次数
+     *
+     * @param failureThreshold 连续失败次数
+     */
+    public void setFailureThreshold(int failureThreshold) {
+        this.failureThreshold = Math.max(failureThreshold, 1);
+    }
+
+    public long getEjectionDuration() {
+        return ejectionDuration;
+    }
+
+    /**
+     * 设置成员被摘除的基础时长，实际时长是基础时长乘以成员被摘除的次数，最多为10倍，成员每次请求成功后次数减一
+     *
+     * @param ejectionDuration 摘除的时长，单位毫秒
+     */
+    public void setEjectionDuration(long ejectionDuration) {
+        this.ejectionDuration = ejectionDuration;
+    }
+
+    public int getMaxEjectionPercent() {
+        return maxEjectionPercent;
+    }
+
+    /**
+     * 设置同一分组中最多可以同时被摘除的成员比例，比例不为0时至少可以摘除一个成员
+     *
+     * @param maxEjectionPercent 成员的百分比，0到100之间，为0则不摘除成员
+     */
+    public void setMaxEjectionPercent(int maxEjectionPercent) {
+        this.maxEjectionPercent = Math.min(Math.max(maxEjectionPercent, 0), 100);
+    }
+
+    /**
+     * 选择成员的策略
+     */
+    public enum Strategy {
+        /**
+         * 选择正在执行的请求数最少的成员，请求数相同时随机选择
+         */
+        LEAST_OUTSTANDING,
+        /**
+         * 随机选择两个成员，选择耗时的移动平均值乘以正在执行的请求数加一、再乘以连续失败次数加一后较小的那个。
+         * 还没有成功过的成员按分组中其他成员耗时的平均值计算，避免一直失败的成员因为没有耗时而总被选中
+         */
+        POWER_OF_TWO_CHOICES
+    }
+
+    /**
+     * 一个上游分组
+     */
+    private final class Upstream {
+        private final Strategy strategy;
+        private final List<Member> members;
+
+        private Upstream(Strategy strategy, List<Member> members) {
+            this.strategy = strategy;
+            this.members = members;
+        }
+
+        @Nonnull
+        private Member choose() {
+            long now = System.currentTimeMillis();
+            List<Member> candidates = new ArrayList<>(members.size());
+            for (Member member : members) {
+                if (!member.isEjected(now)) {
+                    candidates.add(member);
+                }
+            }
+            if (candidates.isEmpty()) {
+                candidates = members;
+            }
+            int size = candidates.size();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (size == 1) {
+                return candidates.get(0);
+            } else if (strategy == Strategy.POWER_OF_TWO_CHOICES) {
+                int first = random.nextInt(size);
+                int second = random.nextInt(size - 1);
+                Member a = candidates.get(first);
+                Member b = candidates.get(second >= first ? second + 1 : second);
+                double meanLatency = meanLatency();
+                return a.cost(meanLatency) <= b.cost(meanLatency) ? a : b;
+            } else {
+                //从随机位置开始找，避免请求数相同时总是选中第一个成员
+                int offset = random.nextInt(size);
+                Member chosen = null;
+                for (int i = 0; i < size; i++) {
+                    Member member = candidates.get((offset + i) % size);
+                    if (chosen == null || member.outstanding.get() < chosen.outstanding.get()) {
+                        chosen = member;
+                    }
+                }
+                return chosen;
+            }
+        }
+
+        /**
+         * 计算分组中已经有耗时的成员的平均耗时，都没有时为1，只按请求数和失败次数比较
+         */
+        private double meanLatency() {
+            double sum = 0;
+            int count = 0;
+            for (Member member : members) {
+                double latency = member.latency;
+                if (latency > 0) {
+                    sum += latency;
+                    count++;
+                }
+            }
+            return count == 0 ? 1 : sum / count;
+        }
+
+        private void failed(@Nonnull Member member) {
+            if (member.failures.incrementAndGet() < failureThreshold) {
+                return;
+            }
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                if (member.isEjected(now) || member.failures.get() < failureThreshold) {
+                    return;
+                }
+                int ejected = 0;
+                for (Member other : members) {
+                    if (other.isEjected(now)) {
+                        ejected++;
+                    }
+                }
+                int limit = maxEjectionPercent == 0 ? 0 : Math.max(members.size() * maxEjectionPercent / 100, 1);
+                if (ejected >= limit) {
+                    return;
+                }
+                int ejections = member.ejections.updateAndGet(count -> Math.min(count + 1, 10));
+                member.ejectedUntil = now + ejectionDuration * ejections;
+                member.failures.set(0);
+            }
+        }
+    }
+
+    /**
+     * 上游分组中的一个成员
+     */
+    private static final class Member {
+        /**
+         * 耗时移动平均值中新样本的权重
+         */
+        private static final double ALPHA = 0.3;
+
+        private final String baseUrl;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+        private volatile double latency;
+        private final AtomicInteger ejections = new AtomicInteger();
+        private volatile long ejectedUntil;
+
+        private Member(String baseUrl) {
+            this.baseUrl = baseUrl;
+        }
+
+        private boolean isEjected(long now) {
+            return now < ejectedUntil;
+        }
+
+        /**
+         * 计算选择成员的代价
+         *
+         * @param meanLatency 分组的平均耗时，成员还没有耗时时使用
+         * @return 选择成员的代价
+         */
+        private double cost(double meanLatency) {
+            double current = this.latency;
+            return (current > 0 ? current : meanLatency) * (outstanding.get() + 1) * (failures.get() + 1);
+        }
+
+        private void succeeded(long nanos) {
+            failures.set(0);
+            ejections.updateAndGet(count -> Math.max(count - 1, 0));
+            synchronized (this) {
+                latency = latency == 0 ? nanos : latency + ALPHA * (nanos - latency);
+            }
+        }
+    }
+}
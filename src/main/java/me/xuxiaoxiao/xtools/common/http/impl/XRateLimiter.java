@@ -0,0 +1,174 @@
+package me.xuxiaoxiao.xtools.common.http.impl;
+
+import me.xuxiaoxiao.xtools.common.http.XHttpTools;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 令牌桶限流器，默认按主机（协议+主机+端口）区分令牌桶，也可以自定义从请求中提取限流的键。
+ * 令牌桶使用GCRA算法实现，每个桶只有一个记录下一个令牌可用时间的AtomicLong，通过CAS预约令牌，不需要加锁。
+ * 令牌不足时可以阻塞等待或者立即失败，立即失败和等待超时都抛出RejectedExecutionException。
+ * 异步请求会预约令牌后延迟执行，等待期间不占用线程
+ */
+public class XRateLimiter {
+    private double permitsPerSecond;
+    private int burst;
+    private Mode mode;
+    private long maxWait;
+    @Nonnull
+    private Function<XRequest, String> keyFunction;
+
+    private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param permitsPerSecond 每个令牌桶每秒产生的令牌数
+     */
+    public XRateLimiter(double permitsPerSecond) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = 1;
+        this.mode = Mode.BLOCK;
+        this.maxWait = Long.MAX_VALUE;
+        this.keyFunction = XRequest::getOrigin;
+    }
+
+    /**
+     * 获取令牌后执行请求
+     *
+     * @param request HTTP请求
+     * @param chain   实际执行请求的方法
+     * @return HTTP响应
+     * @throws Exception 令牌不足且不能等待时抛出RejectedExecutionException，等待时被中断，或者是执行请求时发生的异常
+     */
+    @Nonnull
+    public XResponse execute(@Nonnull XRequest request, @Nonnull XHttpTools.Chain chain) throws Exception {
+        long wait = reserve(request);
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        return chain.proceed(request);
+    }
+
+    /**
+     * 预约一个令牌，预约成功后需要等待返回的时间才能发出请求
+     *
+     * @param request HTTP请求
+     * @return 需要等待的纳秒数，令牌充足时为0
+     * @throws RejectedExecutionException 立即失败模式下令牌不足，或者需要等待的时间超过了最长等待时间
+     */
+    public long reserve(@Nonnull XRequest request) {
+        String key = keyFunction.apply(request);
+        AtomicLong bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(System.nanoTime()));
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+        long tolerance = interval * (burst - 1);
+        long maxWaitNanos = mode == Mode.FAIL_FAST ? 0 : TimeUnit.MILLISECONDS.toNanos(maxWait);
+        while (true) {
+            long now = System.nanoTime();
+            long next = bucket.get();
+            long wait = next - tolerance - now;
+            if (wait > maxWaitNanos) {
+                rejected.incrementAndGet();
+                throw new RejectedExecutionException(String.format("限流的键：%s的令牌不足", key));
+            }
+            if (bucket.compareAndSet(next, (next - now > 0 ? next : now) + interval)) {
+                return Math.max(wait, 0);
+            }
+        }
+    }
+
+    /**
+     * 获取被拒绝的请求总数
+     *
+     * @return 被拒绝的请求总数
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    /**
+     * 设置每个令牌桶每秒产生的令牌数
+     *
+     * @param permitsPerSecond 每秒产生的令牌数
+     */
+    public void setPermitsPerSecond(double permitsPerSecond) {
+        this.permitsPerSecond = permitsPerSecond;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    /**
+     * 设置令牌桶的容量，即空闲后允许连续发出的请求数，默认为1，即请求均匀地间隔发出
+     *
+     * @param burst 令牌桶的容量
+     */
+    public void setBurst(int burst) {
+        this.burst = Math.max(burst, 1);
+    }
+
+    @Nonnull
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * 设置令牌不足时的处理方式
+     *
+     * @param mode 令牌不足时的处理方式
+     */
+    public void setMode(@Nonnull Mode mode) {
+        this.mode = mode;
+    }
+
+    public long getMaxWait() {
+        return maxWait;
+    }
+
+    /**
+     * 设置阻塞模式下最多等待的时间，默认不限制
+     *
+     * @param maxWait 最多等待的时间，毫秒
+     */
+    public void setMaxWait(long maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    @Nonnull
+    public Function<XRequest, String> getKeyFunction() {
+        return keyFunction;
+    }
+
+    /**
+     * 设置从请求中提取限流的键的方法，键相同的请求共用一个令牌桶。
+     * 令牌桶不会被清理，键的数量应当是有限的
+     *
+     * @param keyFunction 提取限流的键的方法
+     */
+    public void setKeyFunction(@Nonnull Function<XRequest, String> keyFunction) {
+        this.keyFunction = keyFunction;
+    }
+
+    /**
+     * 令牌不足时的处理方式
+     */
+    public enum Mode {
+        /**
+         * 阻塞等待，直到有令牌或者超过最长等待时间
+         */
+        BLOCK,
+        /**
+         * 立即失败
+         */
+        FAIL_FAST
+    }
+}
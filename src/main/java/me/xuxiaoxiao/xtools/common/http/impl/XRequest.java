@@ -5,10 +5,18 @@ import me.xuxiaoxiao.xtools.common.XTools;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.*;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
@@ -16,7 +24,8 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
- * HTTP请求类，记录了HTTP请求的请求方法，请求地址，请求头，请求体
+ * HTTP请求类，记录了HTTP请求的请求方法，请求地址，请求头，请求体。
+ * XRequest不是线程安全的，需要在多个线程中重复使用同一个请求模板时，使用freeze()得到不可变的请求
  */
 public class XRequest {
     public static final String MIME_URLENCODED = "application/x-www-form-urlencoded";
@@ -56,6 +65,22 @@ public class XRequest {
      * 请求体
      */
     private Content requestContent;
+    /**
+     * 已经url编码好的请求地址参数，由冻结的请求和从冻结的请求复制出的请求共用，排在requestQueries之前
+     */
+    private String encodedQueries;
+    /**
+     * 是否已冻结，冻结的请求不能再修改
+     */
+    private boolean frozen;
+    /**
+     * 冻结时拼接好的请求url
+     */
+    private String frozenUrl;
+    /**
+     * 冻结时生成好的请求头列表
+     */
+    private List<KeyValue> frozenHeaders;
 
     public XRequest(@Nonnull String method, @Nonnull String url) {
         this.setMethod(method);
@@ -147,7 +172,7 @@ public class XRequest {
      */
     @Nonnull
     public XRequest charset(@Nonnull String charset) {
-        this.charset = charset;
+        setCharset(charset);
         return this;
     }
 
@@ -173,6 +198,10 @@ public class XRequest {
      */
     @Nonnull
     public XRequest query(@Nonnull String key, @Nullable Object value, boolean override) {
+        checkMutable();
+        if (override && this.encodedQueries != null && hasEncodedQuery(key)) {
+            decodeQueries();
+        }
         if (override) {
             this.requestQueries.removeIf(keyValue -> keyValue.getKey().equals(key));
         }
@@ -232,6 +261,7 @@ public class XRequest {
      */
     @Nonnull
     public XRequest content(@Nonnull String key, @Nullable Object value, boolean override) {
+        checkMutable();
         if (this.requestContent == null) {
             this.requestContent = new UrlencodedContent();
         }
@@ -278,7 +308,111 @@ public class XRequest {
         return this;
     }
 
+    /**
+     * 复制HTTP请求，请求地址参数和请求头会被复制，urlencoded和multipart类型的请求体会复制出新的参数列表，
+     * 修改复制出的请求的请求体参数不会影响原请求，其他请求体与原请求共用。
+     * 复制出的请求总是可以修改的，从冻结的请求复制时已编码的请求地址参数直接共用，不会重新编码
+     *
+     * @return 复制出的HTTP请求
+     */
+    @Nonnull
+    public XRequest copy() {
+        XRequest request = new XRequest(this.requestMethod, this.requestUrl);
+        request.charset = this.charset;
+        request.encodedQueries = this.encodedQueries;
+        request.requestQueries.addAll(this.requestQueries);
+        request.requestHeaders.addAll(this.requestHeaders);
+        request.requestContent = copyContent(this.requestContent);
+        return request;
+    }
+
+    /**
+     * 复制可以通过content(key, value)修改的请求体，其他请求体原样返回
+     *
+     * @param content 请求体
+     * @return 复制出的请求体
+     */
+    @Nullable
+    private static Content copyContent(@Nullable Content content) {
+        if (content != null && content.getClass() == UrlencodedContent.class) {
+            UrlencodedContent copied = new UrlencodedContent();
+            copied.params.addAll(((UrlencodedContent) content).params);
+            copied.content = ((UrlencodedContent) content).content;
+            return copied;
+        }
+        if (content != null && content.getClass() == MultipartContent.class) {
+            MultipartContent copied = new MultipartContent();
+            copied.parts.addAll(((MultipartContent) content).parts);
+            return copied;
+        }
+        return content;
+    }
+
+    /**
+     * 复制HTTP请求，并把请求url的协议、主机和端口替换成给定的基础地址，原请求url的路径拼接在基础地址之后
+     *
+     * @param baseUrl 基础地址，可以带路径前缀，不能以/结尾
+     * @return 复制出的HTTP请求
+     */
+    @Nonnull
+    public XRequest rebase(@Nonnull String baseUrl) {
+        XRequest request = copy();
+        //主机之后的部分从第一个/、?或#开始，没有路径的url也要保留参数和片段
+        int hostIndex = this.requestUrl.indexOf("://") + 3;
+        int pathIndex = this.requestUrl.length();
+        for (char delimiter : new char[]{'/', '?', '#'}) {
+            int index = this.requestUrl.indexOf(delimiter, hostIndex);
+            if (index >= 0 && index < pathIndex) {
+                pathIndex = index;
+            }
+        }
+        request.requestUrl = baseUrl + this.requestUrl.substring(pathIndex);
+        return request;
+    }
+
+    /**
+     * 冻结HTTP请求，得到一个不可修改、可以在多个线程中共用的请求。
+     * 冻结时请求地址参数会被编码好，请求url和请求头列表只生成一次，之后每次获取都不再有字符串拼接。
+     * 每次调用时不同的部分可以在冻结的请求的copy()上设置，复制出的请求只需要编码新增的请求地址参数。
+     * 冻结的请求和之后复制出的请求都有各自的urlencoded和multipart请求体参数，其他请求体与原请求共用，冻结后不应该再修改请求体
+     *
+     * @return 冻结的HTTP请求，如果当前请求已冻结则返回当前请求
+     */
+    @Nonnull
+    public XRequest freeze() {
+        if (this.frozen) {
+            return this;
+        }
+        XRequest request = copy();
+        if (!XTools.isEmpty(request.requestQueries)) {
+            try {
+                String encoded = kvJoin(request.requestQueries, request.charset);
+                request.encodedQueries = request.encodedQueries == null ? encoded : request.encodedQueries + '&' + encoded;
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalArgumentException(String.format("不支持编码方式：%s", request.charset), e);
+            }
+            request.requestQueries.clear();
+        }
+        request.frozenUrl = request.getUrl();
+        request.frozenHeaders = Collections.unmodifiableList(new ArrayList<>(request.getHeaders()));
+        request.frozen = true;
+        return request;
+    }
+
+    /**
+     * 判断HTTP请求是否已冻结
+     *
+     * @return 是否已冻结
+     */
+    public boolean isFrozen() {
+        return this.frozen;
+    }
+
     public void setCharset(@Nonnull String charset) {
+        checkMutable();
+        if (this.encodedQueries != null && !charset.equalsIgnoreCase(this.charset)) {
+            decodeQueries();
+        }
         this.charset = charset;
     }
 
@@ -288,6 +422,7 @@ public class XRequest {
     }
 
     public void setMethod(@Nonnull String method) {
+        checkMutable();
         this.requestMethod = method.toUpperCase();
     }
 
@@ -302,6 +437,7 @@ public class XRequest {
     }
 
     public void setUrl(@Nonnull String url) {
+        checkMutable();
         if (!url.toLowerCase().startsWith("http://") && !url.toLowerCase().startsWith("https://")) {
             throw new IllegalArgumentException("XRequest仅支持HTTP协议和HTTPS协议");
         } else if (url.indexOf('?') >= 0) {
@@ -330,18 +466,81 @@ public class XRequest {
      */
     @Nonnull
     public String getUrl() {
+        if (this.frozenUrl != null) {
+            return this.frozenUrl;
+        }
+        if (this.encodedQueries == null && XTools.isEmpty(this.requestQueries)) {
+            return this.requestUrl;
+        }
+        StringBuilder sbUrl = new StringBuilder(this.requestUrl).append('?');
+        if (this.encodedQueries != null) {
+            sbUrl.append(this.encodedQueries);
+        }
         if (!XTools.isEmpty(this.requestQueries)) {
             try {
-                return String.format("%s?%s", this.requestUrl, kvJoin(this.requestQueries, charset));
+                if (this.encodedQueries != null) {
+                    sbUrl.append('&');
+                }
+                sbUrl.append(kvJoin(this.requestQueries, charset));
             } catch (UnsupportedEncodingException e) {
                 throw new IllegalArgumentException(String.format("不支持编码方式：%s", charset), e);
             }
-        } else {
-            return this.requestUrl;
+        }
+        return sbUrl.toString();
+    }
+
+    /**
+     * 判断已编码的请求地址参数中是否有指定名称的参数
+     */
+    private boolean hasEncodedQuery(@Nonnull String key) {
+        try {
+            String encodedKey = URLEncoder.encode(key, charset) + '=';
+            return this.encodedQueries.startsWith(encodedKey) || this.encodedQueries.contains('&' + encodedKey);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalArgumentException(String.format("不支持编码方式：%s", charset), e);
+        }
+    }
+
+    /**
+     * 将已编码的请求地址参数解码回请求地址参数列表，在需要覆盖或重新编码这些参数时调用
+     */
+    private void decodeQueries() {
+        List<KeyValue> decoded = new LinkedList<>();
+        try {
+            for (String keyValue : this.encodedQueries.split("&")) {
+                int eqIndex = keyValue.indexOf('=');
+                decoded.add(new KeyValue(URLDecoder.decode(keyValue.substring(0, eqIndex), charset), URLDecoder.decode(keyValue.substring(eqIndex + 1), charset)));
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalArgumentException(String.format("不支持编码方式：%s", charset), e);
+        }
+        this.requestQueries.addAll(0, decoded);
+        this.encodedQueries = null;
+    }
+
+    private void checkMutable() {
+        if (this.frozen) {
+            throw new UnsupportedOperationException("请求已冻结，不能修改，请在copy()得到的请求上修改");
+        }
+    }
+
+    /**
+     * 获得HTTP请求的源，格式为协议://主机:端口，没有端口时使用协议的默认端口，用于按主机区分连接、限流和熔断
+     *
+     * @return HTTP请求的源
+     */
+    @Nonnull
+    public String getOrigin() {
+        try {
+            URL url = new URL(this.requestUrl);
+            return url.getProtocol() + "://" + url.getHost() + ":" + (url.getPort() < 0 ? url.getDefaultPort() : url.getPort());
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("请求的url格式有误", e);
         }
     }
 
     public void setHeader(@Nonnull String key, @Nullable String value, boolean override) {
+        checkMutable();
         if (override) {
             this.requestHeaders.removeIf(keyValue -> keyValue.getKey().equalsIgnoreCase(key));
         }
@@ -351,12 +550,17 @@ public class XRequest {
     }
 
     /**
-     * 获得HTTP请求的请求头列表
+     * 获得HTTP请求的请求头列表，有请求体时会在返回的列表中补充Content-Type和Content-Length，
+     * 补充的请求头不会写回到请求中，冻结的请求返回冻结时生成好的不可修改的列表
      *
      * @return HTTP请求的请求头列表
      */
     @Nonnull
     public List<KeyValue> getHeaders() {
+        if (this.frozenHeaders != null) {
+            return this.frozenHeaders;
+        }
+        List<KeyValue> headers = this.requestHeaders;
         if (this.requestContent != null) {
             try {
                 boolean hasContentType = false, hasContentLength = false, isChunkedTransfer = false;
@@ -369,24 +573,28 @@ public class XRequest {
                         isChunkedTransfer = true;
                     }
                 }
+                if (!hasContentType || (!hasContentLength && !isChunkedTransfer)) {
+                    headers = new ArrayList<>(this.requestHeaders);
+                }
                 if (!hasContentType) {
-                    header("Content-Type", this.requestContent.contentType());
+                    headers.add(new KeyValue("Content-Type", this.requestContent.contentType()));
                 }
                 if (!hasContentLength && !isChunkedTransfer) {
                     long contentLength = requestContent.contentLength();
                     if (contentLength > 0) {
-                        header("Content-Length", String.valueOf(contentLength), true);
+                        headers.add(new KeyValue("Content-Length", String.valueOf(contentLength)));
                     } else {
-                        header("Transfer-Encoding", "chunked", true);
+                        headers.add(new KeyValue("Transfer-Encoding", "chunked"));
                     }
                 }
             } catch (IOException ignored) {
             }
         }
-        return this.requestHeaders;
+        return headers;
     }
 
     public void setContent(@Nonnull Content content) {
+        checkMutable();
         this.requestContent = content;
     }
 
@@ -455,6 +663,26 @@ public class XRequest {
          * @throws IOException 将请求体写出到输出流时可能会发生异常
          */
         void writeToStream(@Nonnull OutputStream outStream) throws IOException;
+
+        /**
+         * 请求体是否可以重放，即writeToStream()能否多次调用并写出相同的数据，只有可以重放的请求体才会被重试。
+         * 自定义的请求体默认不可以重放
+         *
+         * @return 请求体是否可以重放
+         */
+        default boolean replayable() {
+            return false;
+        }
+
+        /**
+         * 请求体能否同时重放，即writeToStream()能否在多个线程中同时调用并写出相同的数据，只有可以同时重放的请求体才会被对冲。
+         * 默认与replayable()相同，依赖内部读取位置等状态重放的请求体应返回false
+         *
+         * @return 请求体是否可以同时重放
+         */
+        default boolean concurrentReplayable() {
+            return replayable();
+        }
     }
 
     /**
@@ -539,6 +767,10 @@ public class XRequest {
             return content.length;
         }
 
+        public boolean replayable() {
+            return true;
+        }
+
         public void writeToStream(@Nonnull OutputStream outStream) throws IOException {
             if (content == null) {
                 content = kvJoin(params, charset()).getBytes(charset());
@@ -607,6 +839,10 @@ public class XRequest {
             return contentLength;
         }
 
+        public boolean replayable() {
+            return true;
+        }
+
         public void writeToStream(@Nonnull OutputStream outStream) throws IOException {
             for (Part part : parts) {
                 outStream.write((HYPHENS + boundary + CRLF).getBytes(charset()));
@@ -706,6 +942,10 @@ public class XRequest {
             return content.length;
         }
 
+        public boolean replayable() {
+            return true;
+        }
+
         public void writeToStream(@Nonnull OutputStream outStream) throws IOException {
             outStream.write(content);
         }
@@ -735,10 +975,284 @@ public class XRequest {
             return file.length();
         }
 
+        public boolean replayable() {
+            return true;
+        }
+
         public void writeToStream(@Nonnull OutputStream outStream) throws IOException {
             try (FileInputStream finStream = new FileInputStream(file)) {
                 XTools.streamToStream(finStream, outStream);
             }
         }
     }
+
+    /**
+     * 输入流类型请求体，边读边写，不会整体读入内存，长度未知，使用chunked模式传输。
+     * 请求体不会关闭输入流。默认不可以重放，指定了标记上限时，不超过上限的请求体可以通过mark/reset重放；
+     * 从SeekableByteChannel创建的请求体总是可以重放
+     */
+    public static class StreamContent implements Content {
+        private final String mime;
+        private final InputStream inStream;
+        private final SeekableByteChannel channel;
+        private final long position;
+        private final int markLimit;
+        private boolean written;
+        private long length;
+
+        /**
+         * @param mime     请求体的MIME类型
+         * @param inStream 输入流
+         */
+        public StreamContent(@Nonnull String mime, @Nonnull InputStream inStream) {
+            this(mime, inStream, 0);
+        }
+
+        /**
+         * @param mime      请求体的MIME类型
+         * @param inStream  输入流
+         * @param markLimit 可以重放的最大字节数，请求体不超过该值时才能重放，重放的数据会缓存在内存中，为0则不可以重放
+         */
+        public StreamContent(@Nonnull String mime, @Nonnull InputStream inStream, int markLimit) {
+            markLimit = Math.min(markLimit, Integer.MAX_VALUE - 1);
+            if (markLimit > 0 && !inStream.markSupported()) {
+                inStream = new BufferedInputStream(inStream, Math.min(markLimit, 8192));
+            }
+            if (markLimit > 0) {
+                //多标记一个字节，请求体恰好等于上限时读到流末尾的那次读取不会使标记失效
+                inStream.mark(markLimit + 1);
+            }
+            this.mime = mime;
+            this.inStream = inStream;
+            this.channel = null;
+            this.position = 0;
+            this.markLimit = markLimit;
+        }
+
+        /**
+         * 从通道读取请求体，SeekableByteChannel从当前位置开始读取，重放时回到该位置
+         *
+         * @param mime    请求体的MIME类型
+         * @param channel 可读的通道
+         * @throws IOException 获取SeekableByteChannel的当前位置时可能会发生异常
+         */
+        public StreamContent(@Nonnull String mime, @Nonnull ReadableByteChannel channel) throws IOException {
+            this.mime = mime;
+            this.inStream = Channels.newInputStream(channel);
+            this.channel = channel instanceof SeekableByteChannel ? (SeekableByteChannel) channel : null;
+            this.position = this.channel == null ? 0 : this.channel.position();
+            this.markLimit = 0;
+        }
+
+        @Nonnull
+        public String charset() {
+            return "utf-8";
+        }
+
+        @Nonnull
+        public String contentType() {
+            return mime;
+        }
+
+        public long contentLength() {
+            return -1;
+        }
+
+        public boolean replayable() {
+            return channel != null || (markLimit > 0 && length <= markLimit);
+        }
+
+        public boolean concurrentReplayable() {
+            //重放依赖共享的读取位置，不能同时写出
+            return false;
+        }
+
+        public void writeToStream(@Nonnull OutputStream outStream) throws IOException {
+            if (written) {
+                if (channel != null) {
+                    channel.position(position);
+                } else if (markLimit > 0 && length <= markLimit) {
+                    inStream.reset();
+                    inStream.mark(markLimit + 1);
+                } else {
+                    throw new IOException("请求体已经写出过，不能重放");
+                }
+            }
+            written = true;
+            length = 0;
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = inStream.read(buffer)) >= 0) {
+                outStream.write(buffer, 0, count);
+                length += count;
+            }
+        }
+    }
+
+    /**
+     * 字符类型请求体的基类，边编码边写，长度未知，使用chunked模式传输。
+     * 按MIME类型中的charset编码，没有charset时使用utf-8并添加到MIME类型中
+     */
+    public abstract static class CharsContent implements Content {
+        private static final Pattern P_CHARSET = Pattern.compile("charset\\s*=\\s*\"?([^;\\s\"]+)\"?", Pattern.CASE_INSENSITIVE);
+        private final String mime;
+        private final String charset;
+
+        protected CharsContent(@Nonnull String mime) {
+            Matcher matcher = P_CHARSET.matcher(mime);
+            if (matcher.find()) {
+                this.mime = mime;
+                this.charset = matcher.group(1);
+            } else {
+                this.mime = mime + "; charset=utf-8";
+                this.charset = "utf-8";
+            }
+        }
+
+        @Nonnull
+        public String charset() {
+            return charset;
+        }
+
+        @Nonnull
+        public String contentType() {
+            return mime;
+        }
+
+        public long contentLength() {
+            return -1;
+        }
+
+        public void writeToStream(@Nonnull OutputStream outStream) throws IOException {
+            //写完后只刷新不关闭，输出流由调用者关闭
+            Writer writer = new BufferedWriter(new OutputStreamWriter(outStream, charset), 8192);
+            writeChars(writer);
+            writer.flush();
+        }
+
+        /**
+         * 将请求体的字符写入writer
+         *
+         * @param writer 按字符集编码的writer，不需要刷新和关闭
+         * @throws IOException 写入时可能会发生异常
+         */
+        protected abstract void writeChars(@Nonnull Writer writer) throws IOException;
+    }
+
+    /**
+     * Reader类型请求体，请求体不会关闭Reader。默认不可以重放，指定了标记上限时，不超过上限的请求体可以通过mark/reset重放
+     */
+    public static class ReaderContent extends CharsContent {
+        private final Reader reader;
+        private final int markLimit;
+        private boolean written;
+        private long length;
+
+        /**
+         * @param mime   请求体的MIME类型
+         * @param reader 字符输入流
+         */
+        public ReaderContent(@Nonnull String mime, @Nonnull Reader reader) {
+            this(mime, reader, 0);
+        }
+
+        /**
+         * @param mime      请求体的MIME类型
+         * @param reader    字符输入流
+         * @param markLimit 可以重放的最大字符数，请求体不超过该值时才能重放，重放的数据会缓存在内存中，为0则不可以重放
+         * @throws IllegalArgumentException 标记Reader失败时抛出
+         */
+        public ReaderContent(@Nonnull String mime, @Nonnull Reader reader, int markLimit) {
+            super(mime);
+            markLimit = Math.min(markLimit, Integer.MAX_VALUE - 1);
+            if (markLimit > 0 && !reader.markSupported()) {
+                reader = new BufferedReader(reader, Math.min(markLimit, 8192));
+            }
+            if (markLimit > 0) {
+                try {
+                    //多标记一个字符，请求体恰好等于上限时读到流末尾的那次读取不会使标记失效
+                    reader.mark(markLimit + 1);
+                } catch (IOException e) {
+                    throw new IllegalArgumentException("无法标记Reader", e);
+                }
+            }
+            this.reader = reader;
+            this.markLimit = markLimit;
+        }
+
+        public boolean replayable() {
+            return markLimit > 0 && length <= markLimit;
+        }
+
+        public boolean concurrentReplayable() {
+            //重放依赖共享的读取位置，不能同时写出
+            return false;
+        }
+
+        protected void writeChars(@Nonnull Writer writer) throws IOException {
+            if (written) {
+                if (!replayable()) {
+                    throw new IOException("请求体已经写出过，不能重放");
+                }
+                reader.reset();
+                reader.mark(markLimit + 1);
+            }
+            written = true;
+            length = 0;
+            char[] buffer = new char[4096];
+            int count;
+            while ((count = reader.read(buffer)) >= 0) {
+                writer.write(buffer, 0, count);
+                length += count;
+            }
+        }
+    }
+
+    /**
+     * 逐段生成的字符类型请求体，适合边生成边上传的NDJSON等数据，每一段按原样写出，不会添加分隔符。
+     * 从Iterable创建的请求体每次写出都重新迭代，可以重放；从Iterator创建的请求体不可以重放
+     */
+    public static class IteratorContent extends CharsContent {
+        private final Iterable<? extends CharSequence> iterable;
+        private Iterator<? extends CharSequence> iterator;
+
+        /**
+         * @param mime     请求体的MIME类型
+         * @param iterable 请求体的各段字符，每次写出时重新迭代
+         */
+        public IteratorContent(@Nonnull String mime, @Nonnull Iterable<? extends CharSequence> iterable) {
+            super(mime);
+            this.iterable = iterable;
+        }
+
+        /**
+         * @param mime     请求体的MIME类型
+         * @param iterator 请求体的各段字符，只能迭代一次
+         */
+        public IteratorContent(@Nonnull String mime, @Nonnull Iterator<? extends CharSequence> iterator) {
+            super(mime);
+            this.iterable = null;
+            this.iterator = iterator;
+        }
+
+        public boolean replayable() {
+            return iterable != null;
+        }
+
+        public boolean concurrentReplayable() {
+            //Iterable不保证能同时迭代，不能同时写出
+            return false;
+        }
+
+        protected void writeChars(@Nonnull Writer writer) throws IOException {
+            Iterator<? extends CharSequence> iterator = this.iterable != null ? this.iterable.iterator() : this.iterator;
+            if (iterator == null) {
+                throw new IOException("请求体已经写出过，不能重放");
+            }
+            this.iterator = null;
+            while (iterator.hasNext()) {
+                writer.append(iterator.next());
+            }
+        }
+    }
 }
@@ -0,0 +1,40 @@
+package me.xuxiaoxiao.xtools.common.http.impl;
+
+import javax.annotation.Nonnull;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 域名解析器，配置到XHttpTools.Config后，HTTPS请求新建连接时使用它解析主机，并按返回的顺序依次尝试连接各个地址。
+ * HttpURLConnection只为HTTPS连接提供了SocketFactory这个扩展点，HTTP请求和基于HttpClient的执行器仍然使用JVM的域名解析。
+ * HttpsURLConnection在调用SocketFactory创建的Socket的connect()之前已经用JVM解析过一次主机，解析器不能省去这次解析，
+ * 只能决定实际连接哪些地址
+ */
+@FunctionalInterface
+public interface XResolver {
+    /**
+     * 使用JVM的域名解析，受JVM全局的InetAddress缓存控制
+     */
+    XResolver SYSTEM = host -> Arrays.asList(InetAddress.getAllByName(host));
+
+    /**
+     * 解析主机的全部地址
+     *
+     * @param host 主机
+     * @return 主机的地址，按尝试连接的顺序排列，不能为空
+     * @throws UnknownHostException 无法解析主机时抛出
+     */
+    @Nonnull
+    List<InetAddress> resolve(@Nonnull String host) throws UnknownHostException;
+
+    /**
+     * 连接主机的某个地址失败，解析器可以据此调整之后返回的地址顺序
+     *
+     * @param host    主机
+     * @param address 连接失败的地址
+     */
+    default void failed(@Nonnull String host, @Nonnull InetAddress address) {
+    }
+}
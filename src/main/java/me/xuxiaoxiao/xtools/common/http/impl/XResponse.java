@@ -1,28 +1,74 @@
 package me.xuxiaoxiao.xtools.common.http.impl;
 
 import me.xuxiaoxiao.xtools.common.XTools;
+import me.xuxiaoxiao.xtools.common.http.XHttpTools;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.io.File;
-import java.io.IOException;
-import java.io.InputStream;
+import java.io.*;
 import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
  * HTTP响应类，提供了便捷的方法将输入流转换成字符串或文件
  */
 public class XResponse implements AutoCloseable {
     private static final Pattern P_CHARSET = Pattern.compile("charset\\s*=\\s*\"?([^;\\s\"]+)\"?", Pattern.CASE_INSENSITIVE);
+    private static final int MAX_BUFFER_SIZE = Integer.MAX_VALUE - 8;
+    /**
+     * 按Content-Length分配缓冲区时一次最多分配的字节数，更大的响应体随着读取逐步扩容
+     */
+    private static final int MAX_INITIAL_BUFFER_SIZE = 1024 * 1024;
 
     @Nonnull
     private final HttpURLConnection connection;
+    @Nullable
+    private final XHttpTools.Config config;
+    private InputStream rawStream;
     private InputStream inStream;
+    private boolean closed;
+    private boolean released;
+    private XBodyBuffer buffer;
+    private XEventListener listener;
+    private XRequest request;
+    private long startNanos;
+    private long readNanos;
+    private CountingInputStream countingStream;
 
     public XResponse(@Nonnull HttpURLConnection connection) {
+        this(connection, null);
+    }
+
+    public XResponse(@Nonnull HttpURLConnection connection, @Nullable XHttpTools.Config config) {
         this.connection = connection;
+        this.config = config;
+    }
+
+    /**
+     * 设置请求各阶段耗时的监听器，读取和关闭响应时报告响应体的读取耗时和请求的总耗时
+     *
+     * @param listener   监听器
+     * @param request    HTTP请求
+     * @param startNanos 开始执行请求的时间
+     */
+    void listen(@Nonnull XEventListener listener, @Nonnull XRequest request, long startNanos) {
+        this.listener = listener;
+        this.request = request;
+        this.startNanos = startNanos;
     }
 
     /**
@@ -59,40 +105,351 @@ public class XResponse implements AutoCloseable {
     }
 
     /**
-     * 获取返回的输入流，只允许获取一次
+     * 获取返回的输入流，只允许获取一次。如果响应体使用了gzip或deflate压缩，返回的是解压后的输入流。
+     * 缓冲的响应每次获取都返回从头读取缓冲区的新输入流
      *
      * @return 连接的输入流，记得使用XResponse实例的close()方法关闭输入流和连接
      * @throws IOException 如果获取输入流失败
      */
     @Nullable
     public InputStream getStream() throws IOException {
-        if (this.getConnection().getResponseCode() >= 200 && this.getConnection().getResponseCode() < 300) {
-            if (this.inStream == null) {
-                this.inStream = this.getConnection().getInputStream();
-            }
-        } else {
-            if (this.inStream == null) {
-                this.inStream = this.getConnection().getErrorStream();
+        if (this.buffer != null) {
+            return this.buffer.openStream();
+        }
+        if (this.inStream == null) {
+            if (this.getConnection().getResponseCode() >= 200 && this.getConnection().getResponseCode() < 300) {
+                this.rawStream = this.getConnection().getInputStream();
+            } else {
+                this.rawStream = this.getConnection().getErrorStream();
             }
+            this.rawStream = count(this.rawStream);
+            //关闭返回的输入流不会关闭原始的输入流，原始的输入流由close()方法读完后归还或关闭
+            this.inStream = this.rawStream == null ? null : decode(new FilterInputStream(this.rawStream) {
+                @Override
+                public void close() {
+                }
+            }, this.getConnection().getContentEncoding());
         }
         return this.inStream;
     }
 
+    /**
+     * 根据Content-Encoding对响应体解压，空的响应体和不支持的压缩方式按原样返回
+     *
+     * @param rawStream       原始的输入流
+     * @param contentEncoding 响应体的压缩方式
+     * @return 解压后的输入流
+     * @throws IOException 读取压缩头时可能会发生异常
+     */
+    @Nonnull
+    private static InputStream decode(@Nonnull InputStream rawStream, @Nullable String contentEncoding) throws IOException {
+        if (contentEncoding == null) {
+            return rawStream;
+        }
+        String encoding = contentEncoding.trim().toLowerCase();
+        if (!encoding.equals("gzip") && !encoding.equals("x-gzip") && !encoding.equals("deflate")) {
+            return rawStream;
+        }
+        PushbackInputStream pushbackStream = new PushbackInputStream(rawStream, 2);
+        int b1 = pushbackStream.read();
+        if (b1 < 0) {
+            return pushbackStream;
+        }
+        int b2 = pushbackStream.read();
+        if (b2 >= 0) {
+            pushbackStream.unread(b2);
+        }
+        pushbackStream.unread(b1);
+        if (!encoding.equals("deflate")) {
+            return new GZIPInputStream(pushbackStream, 8192);
+        }
+        //有的服务器会返回不带zlib头的deflate
+        Inflater inflater = new Inflater(b2 < 0 || (b1 & 0x0f) != 8 || ((b1 << 8) | b2) % 31 != 0);
+        return new InflaterInputStream(pushbackStream, inflater, 8192) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * 将解压后的响应体读入可以重复读取的缓冲区，并归还或断开连接。
+     * 不超过配置的阈值的响应体保存在内存中，超过阈值或全局内存预算用完时转存到临时文件。
+     * 之后getStream()、asString()等方法每次都从头读取缓冲区，并且不会关闭响应，缓冲的响应需要调用close()释放缓冲区
+     *
+     * @return 当前响应
+     */
+    @Nonnull
+    public XResponse buffer() {
+        if (this.buffer != null) {
+            return this;
+        }
+        if (this.closed) {
+            throw new IllegalStateException("响应已关闭");
+        }
+        try {
+            InputStream inStream = getStream();
+            long threshold = this.config != null ? this.config.getBufferThreshold() : XHttpTools.Config.DEFAULT_BUFFER_THRESHOLD;
+            boolean direct = this.config != null && this.config.isBufferDirect();
+            this.buffer = new XBodyBuffer(inStream == null ? InputStream.nullInputStream() : inStream, threshold, direct);
+        } catch (IOException e) {
+            this.close();
+            throw new RuntimeException(e);
+        }
+        this.releaseConnection();
+        return this;
+    }
+
+    /**
+     * 获取响应体的缓冲区
+     *
+     * @return 响应体的缓冲区，没有调用过buffer()时为null
+     */
+    @Nullable
+    public XBodyBuffer getBuffer() {
+        return this.buffer;
+    }
+
     /**
      * 将连接返回的输入流中的数据转化成字符串，自动识别字符集
      *
      * @return 转化后的字符串
      */
     public String asString() {
-        String charset = "utf-8";
+        return asString(getCharset());
+    }
+
+    /**
+     * 获取响应体的字符集，从Content-Type中识别，识别不到时为utf-8
+     *
+     * @return 响应体的字符集
+     */
+    @Nonnull
+    public String getCharset() {
         String contentType = connection.getContentType();
         if (contentType != null) {
             Matcher matcher = P_CHARSET.matcher(contentType);
             if (matcher.find()) {
-                charset = matcher.group(1);
+                return matcher.group(1);
             }
         }
-        return asString(charset);
+        return "utf-8";
+    }
+
+    /**
+     * 将连接返回的输入流中的数据读取成字节数组，并自动关闭输入流。
+     * 响应体没有压缩且有Content-Length时按长度一次分配好数组，直接读入数组
+     *
+     * @return 响应体的字节数组
+     */
+    public final byte[] asBytes() {
+        ByteBuffer buffer = asByteBuffer(false);
+        if (buffer == null) {
+            return null;
+        }
+        byte[] bytes = buffer.array();
+        return buffer.arrayOffset() == 0 && buffer.limit() == bytes.length ? bytes : Arrays.copyOfRange(bytes, buffer.arrayOffset(), buffer.arrayOffset() + buffer.limit());
+    }
+
+    /**
+     * 将连接返回的输入流中的数据读取到新分配的缓冲区，并自动关闭输入流。
+     * 响应体没有压缩且有Content-Length时按长度分配缓冲区，但一次最多分配1MB，
+     * 更大的响应体随着数据到达逐步扩容，扩容不会超过Content-Length，避免按服务器声明的长度提前分配大量内存
+     *
+     * @param direct 是否使用直接缓冲区
+     * @return 切换到读模式的缓冲区
+     */
+    public final ByteBuffer asByteBuffer(boolean direct) {
+        long length = this.buffer != null ? this.buffer.length() : this.connection.getContentEncoding() == null ? this.connection.getContentLengthLong() : -1;
+        int capacity = length >= 0 && length <= MAX_BUFFER_SIZE ? (int) Math.min(length, MAX_INITIAL_BUFFER_SIZE) : 8192;
+        return read(direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity), length);
+    }
+
+    /**
+     * 将连接返回的输入流中的数据从buffer的当前位置开始读入buffer，并自动关闭输入流。
+     * 在循环中重复使用同一个缓冲区可以避免每次分配内存，buffer剩余空间不够时会分配一个同类型的更大的缓冲区
+     *
+     * @param buffer 读入数据的缓冲区
+     * @return 切换到读模式的缓冲区，空间不够时不是传入的buffer
+     */
+    public final ByteBuffer asByteBuffer(@Nonnull ByteBuffer buffer) {
+        return read(buffer, -1);
+    }
+
+    /**
+     * 将响应体读入缓冲区，空间不够时扩容
+     *
+     * @param buffer   读入数据的缓冲区
+     * @param expected 预期的响应体长度，扩容时不超过该长度，未知时为-1
+     * @return 切换到读模式的缓冲区
+     */
+    private ByteBuffer read(@Nonnull ByteBuffer buffer, long expected) {
+        try (InputStream inStream = getStream()) {
+            if (inStream == null) {
+                return null;
+            }
+            ReadableByteChannel channel = buffer.hasArray() ? null : Channels.newChannel(inStream);
+            while (true) {
+                if (!buffer.hasRemaining()) {
+                    //缓冲区满了以后先读一个字节判断是否已经读完，避免按Content-Length分配的缓冲区被扩容
+                    int b = inStream.read();
+                    if (b < 0) {
+                        break;
+                    }
+                    if (buffer.capacity() >= MAX_BUFFER_SIZE) {
+                        throw new IOException("响应体超过了缓冲区的最大长度");
+                    }
+                    long grown = Math.max(buffer.capacity() * 2L, 8192L);
+                    if (expected > buffer.capacity()) {
+                        grown = Math.min(grown, expected);
+                    }
+                    int capacity = (int) Math.min(grown, MAX_BUFFER_SIZE);
+                    buffer.flip();
+                    buffer = (buffer.isDirect() ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity)).put(buffer).put((byte) b);
+                }
+                int count;
+                if (channel == null) {
+                    count = inStream.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                    if (count > 0) {
+                        buffer.position(buffer.position() + count);
+                    }
+                } else {
+                    count = channel.read(buffer);
+                }
+                if (count < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            return buffer;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            this.finish();
+        }
+    }
+
+    /**
+     * 按行惰性读取响应体，使用自动识别的字符集解码，内存占用与响应体大小无关。
+     * 返回的流需要关闭，关闭流时会同时关闭响应
+     *
+     * @return 响应体的行组成的流
+     */
+    @Nonnull
+    public Stream<String> lines() {
+        try {
+            InputStream inStream = getStream();
+            if (inStream == null) {
+                this.finish();
+                return Stream.<String>empty();
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(inStream, getCharset()));
+            return reader.lines().onClose(() -> {
+                try {
+                    reader.close();
+                } catch (IOException ignored) {
+                }
+                this.finish();
+            });
+        } catch (IOException e) {
+            this.finish();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 分块读取响应体，每次都将数据读入同一个缓冲区，迭代到末尾时自动关闭响应。
+     * 每次返回的都是切换到读模式的buffer，调用下一次next()后其中的数据会被覆盖
+     *
+     * @param buffer 重复使用的缓冲区，可以是直接缓冲区
+     * @return 响应体数据块的迭代器
+     */
+    @Nonnull
+    public Iterator<ByteBuffer> chunks(@Nonnull ByteBuffer buffer) {
+        ReadableByteChannel channel;
+        try {
+            InputStream inStream = getStream();
+            channel = inStream == null ? null : Channels.newChannel(inStream);
+        } catch (IOException e) {
+            this.finish();
+            throw new RuntimeException(e);
+        }
+        return new Iterator<ByteBuffer>() {
+            private boolean ready;
+            private boolean finished = channel == null;
+
+            @Override
+            public boolean hasNext() {
+                if (!ready && !finished) {
+                    try {
+                        buffer.clear();
+                        int count;
+                        do {
+                            count = channel.read(buffer);
+                        } while (count == 0 && buffer.hasRemaining());
+                        if (count < 0) {
+                            finished = true;
+                        } else {
+                            buffer.flip();
+                            ready = true;
+                        }
+                    } catch (IOException e) {
+                        finished = true;
+                        finish();
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                if (finished) {
+                    try {
+                        if (channel != null) {
+                            channel.close();
+                        }
+                    } catch (IOException ignored) {
+                    }
+                    finish();
+                }
+                return ready;
+            }
+
+            @Override
+            public ByteBuffer next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                ready = false;
+                return buffer;
+            }
+        };
+    }
+
+    /**
+     * 将响应体发布给响应式的订阅者，按订阅者的请求量读取数据，只允许一个订阅者。
+     * 读取数据在配置的异步执行器中进行，没有配置时使用ForkJoinPool.commonPool()
+     *
+     * @param chunkSize 每个数据块的最大字节数
+     * @return 响应体的发布者
+     */
+    @Nonnull
+    public Flow.Publisher<ByteBuffer> publisher(int chunkSize) {
+        return publisher(chunkSize, this.config != null ? this.config.getAsyncExecutor() : ForkJoinPool.commonPool());
+    }
+
+    /**
+     * 将响应体发布给响应式的订阅者，按订阅者的请求量读取数据，只允许一个订阅者。
+     * 订阅者取消订阅、读完响应体或发生异常时自动关闭响应
+     *
+     * @param chunkSize 每个数据块的最大字节数
+     * @param executor  读取数据并通知订阅者的执行器
+     * @return 响应体的发布者
+     */
+    @Nonnull
+    public Flow.Publisher<ByteBuffer> publisher(int chunkSize, @Nonnull Executor executor) {
+        return new XResponsePublisher(this, chunkSize, executor);
     }
 
     /**
@@ -111,7 +468,7 @@ public class XResponse implements AutoCloseable {
         } catch (IOException e) {
             throw new RuntimeException(e);
         } finally {
-            this.close();
+            this.finish();
         }
     }
 
@@ -131,21 +488,146 @@ public class XResponse implements AutoCloseable {
         } catch (IOException e) {
             throw new RuntimeException(e);
         } finally {
-            this.close();
+            this.finish();
         }
     }
 
     /**
-     * 关闭输入流和连接
+     * 关闭输入流和连接，如果开启了连接复用，则读完剩余的响应体后将连接归还到keep-alive缓存。缓冲的响应同时释放缓冲区
      */
     @Override
     public void close() {
-        if (this.inStream != null) {
-            try {
-                this.inStream.close();
-            } catch (IOException ignored) {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.releaseConnection();
+        if (this.buffer != null) {
+            this.buffer.close();
+        }
+    }
+
+    /**
+     * 读完响应体后结束响应，没有缓冲的响应直接关闭，缓冲的响应还可以再次读取，需要显式关闭
+     */
+    void finish() {
+        if (this.buffer == null) {
+            this.close();
+        }
+    }
+
+    /**
+     * 归还或断开连接，并报告响应体的读取耗时和请求的总耗时
+     */
+    private void releaseConnection() {
+        if (this.released) {
+            return;
+        }
+        this.released = true;
+        if (this.config != null && this.config.isKeepAlive() && this.release(this.config.getKeepAliveDrainLimit())) {
+            this.config.getKeepAliveTracker().onRelease(this.connection.getURL());
+        } else {
+            closeStreams();
+            this.connection.disconnect();
+        }
+        if (this.listener != null) {
+            long now = System.nanoTime();
+            this.listener.responseBodyRead(this.request, this.countingStream == null ? 0 : this.countingStream.count, this.readNanos == 0 ? 0 : now - this.readNanos);
+            this.listener.closed(this.request, now - this.startNanos);
+        }
+    }
+
+    /**
+     * 有监听器时统计从原始输入流读取的字节数，并记录开始读取的时间
+     */
+    private InputStream count(InputStream rawStream) {
+        if (this.listener == null || rawStream == null) {
+            return rawStream;
+        }
+        this.readNanos = System.nanoTime();
+        this.countingStream = new CountingInputStream(rawStream);
+        return this.countingStream;
+    }
+
+    /**
+     * 读取并丢弃剩余的响应体，然后关闭输入流，使连接能被JDK的keep-alive缓存复用
+     *
+     * @param drainLimit 最多丢弃的字节数
+     * @return 是否成功归还连接，false则需要断开连接
+     */
+    private boolean release(int drainLimit) {
+        try {
+            InputStream drainStream = this.rawStream;
+            if (drainStream == null) {
+                drainStream = count(this.connection.getResponseCode() >= 400 ? this.connection.getErrorStream() : this.connection.getInputStream());
+            }
+            if (drainStream == null) {
+                return false;
+            }
+            byte[] buffer = new byte[Math.min(Math.max(drainLimit, 1), 8192)];
+            long drained = 0;
+            int count;
+            while ((count = drainStream.read(buffer)) >= 0) {
+                drained += count;
+                if (drained > drainLimit) {
+                    return false;
+                }
             }
+            this.rawStream = drainStream;
+            closeStreams();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 关闭解压用的输入流和原始的输入流
+     */
+    private void closeStreams() {
+        for (InputStream stream : new InputStream[]{this.inStream, this.rawStream}) {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * 统计读取字节数的输入流
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        private CountingInputStream(InputStream inStream) {
+            super(inStream);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(@Nonnull byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            count += skipped;
+            return skipped;
         }
-        this.connection.disconnect();
     }
 }
@@ -0,0 +1,107 @@
+package me.xuxiaoxiao.xtools.common.http.impl;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.*;
+
+/**
+ * 已经得到响应的HTTP连接，状态码、响应头和响应体都由外部提供，
+ * 使非HttpURLConnection的响应（如HttpClient的响应）也能通过XResponse读取
+ */
+public class XResponseConnection extends HttpURLConnection {
+    @Nonnull
+    private final Map<String, List<String>> headerFields;
+    @Nonnull
+    private final List<String[]> headerList = new ArrayList<>();
+    @Nullable
+    private final InputStream body;
+
+    public XResponseConnection(@Nonnull URL url, int statusCode, @Nullable String statusMessage, @Nonnull Map<String, List<String>> headers, @Nullable InputStream body) {
+        super(url);
+        this.body = body;
+        this.connected = true;
+        this.responseCode = statusCode;
+        this.responseMessage = statusMessage;
+
+        Map<String, List<String>> headerFields = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            if (entry.getKey() != null && entry.getValue() != null) {
+                headerFields.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<>(entry.getValue())));
+                for (String value : entry.getValue()) {
+                    headerList.add(new String[]{entry.getKey(), value});
+                }
+            }
+        }
+        this.headerFields = Collections.unmodifiableMap(headerFields);
+    }
+
+    @Override
+    public void connect() {
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return false;
+    }
+
+    @Override
+    public void disconnect() {
+        if (body != null) {
+            try {
+                body.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    @Override
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    @Override
+    public String getResponseMessage() {
+        return responseMessage;
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+        List<String> values = name == null ? null : headerFields.get(name);
+        return values == null || values.isEmpty() ? null : values.get(values.size() - 1);
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        return headerFields;
+    }
+
+    @Override
+    public String getHeaderFieldKey(int n) {
+        return n > 0 && n <= headerList.size() ? headerList.get(n - 1)[0] : null;
+    }
+
+    @Override
+    public String getHeaderField(int n) {
+        if (n == 0) {
+            return responseMessage == null ? String.format("HTTP/1.1 %d", responseCode) : String.format("HTTP/1.1 %d %s", responseCode, responseMessage);
+        }
+        return n > 0 && n <= headerList.size() ? headerList.get(n - 1)[1] : null;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (responseCode >= 400) {
+            throw new IOException(String.format("Server returned HTTP response code: %d for URL: %s", responseCode, url));
+        }
+        return body == null ? InputStream.nullInputStream() : body;
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        return responseCode >= 400 ? body : null;
+    }
+}
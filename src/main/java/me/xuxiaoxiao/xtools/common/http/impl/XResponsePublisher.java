@@ -0,0 +1,156 @@
+package me.xuxiaoxiao.xtools.common.http.impl;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 响应体的发布者，只在订阅者请求数据时才从输入流读取，读取的数据块数量不超过订阅者请求的数量。
+ * 对订阅者的通知在执行器中串行进行，每个数据块都是新分配的ByteBuffer，订阅者可以自由持有
+ */
+public class XResponsePublisher implements Flow.Publisher<ByteBuffer> {
+    @Nonnull
+    private final XResponse response;
+    private final int chunkSize;
+    @Nonnull
+    private final Executor executor;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    /**
+     * @param response  HTTP响应
+     * @param chunkSize 每个数据块的最大字节数
+     * @param executor  读取数据并通知订阅者的执行器
+     */
+    public XResponsePublisher(@Nonnull XResponse response, int chunkSize, @Nonnull Executor executor) {
+        this.response = response;
+        this.chunkSize = Math.max(chunkSize, 1);
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        Objects.requireNonNull(subscriber);
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("响应体只允许被订阅一次"));
+            return;
+        }
+        ResponseSubscription subscription = new ResponseSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    /**
+     * 订阅关系，请求量和取消标记可以在任意线程修改，读取和通知只在持有wip的线程中进行
+     */
+    private class ResponseSubscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile Throwable error;
+        private boolean finished;
+        private InputStream inStream;
+        private boolean opened;
+
+        private ResponseSubscription(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("请求的数据块数量必须大于0：" + n);
+            } else {
+                demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (wip.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this);
+                } catch (RuntimeException e) {
+                    error = e;
+                    run();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                drain();
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drain() {
+            try {
+                while (!finished) {
+                    if (cancelled) {
+                        finish();
+                    } else if (error != null) {
+                        finish();
+                        subscriber.onError(error);
+                    } else if (demand.get() > 0) {
+                        if (!opened) {
+                            //缓冲的响应每次getStream()都会从头读取，只获取一次
+                            inStream = response.getStream();
+                            opened = true;
+                        }
+                        byte[] bytes = new byte[chunkSize];
+                        int count = inStream == null ? -1 : inStream.read(bytes);
+                        if (count < 0) {
+                            finish();
+                            subscriber.onComplete();
+                        } else if (count > 0) {
+                            demand.decrementAndGet();
+                            subscriber.onNext(ByteBuffer.wrap(bytes, 0, count));
+                        }
+                    } else {
+                        return;
+                    }
+                }
+            } catch (Throwable e) {
+                if (!finished) {
+                    finish();
+                    subscriber.onError(e);
+                }
+            }
+        }
+
+        private void finish() {
+            finished = true;
+            if (inStream != null) {
+                try {
+                    inStream.close();
+                } catch (IOException ignored) {
+                }
+            }
+            response.finish();
+        }
+    }
+}
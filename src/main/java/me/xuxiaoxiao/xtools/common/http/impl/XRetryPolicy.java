@@ -0,0 +1,282 @@
+package me.xuxiaoxiao.xtools.common.http.impl;
+
+import me.xuxiaoxiao.xtools.common.http.XHttpTools;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 请求重试策略，请求失败或响应状态码需要重试时按指数退避加随机抖动的间隔重试，
+ * 响应中有Retry-After时按服务器要求的时间等待。默认只重试幂等的请求方法，请求体不可重放的请求不会重试
+ */
+public class XRetryPolicy {
+    private int maxAttempts;
+    private long initialBackoff;
+    private long maxBackoff;
+    private double multiplier;
+    private double jitter;
+    private boolean respectRetryAfter;
+    private long maxRetryAfter;
+    private final Set<String> retryMethods = new HashSet<>(Arrays.asList(XRequest.METHOD_GET, XRequest.METHOD_HEAD, XRequest.METHOD_OPTIONS, XRequest.METHOD_PUT, XRequest.METHOD_DELETE));
+    private final Set<Integer> retryStatuses = new HashSet<>(Arrays.asList(408, 429, 502, 503, 504));
+    private final List<Class<? extends Throwable>> retryExceptions = new ArrayList<>(Collections.singletonList(IOException.class));
+    private final AtomicLong retries = new AtomicLong();
+
+    public XRetryPolicy() {
+        this.maxAttempts = 3;
+        this.initialBackoff = 100;
+        this.maxBackoff = 10000;
+        this.multiplier = 2.0;
+        this.jitter = 1.0;
+        this.respectRetryAfter = true;
+        this.maxRetryAfter = 30000;
+    }
+
+    /**
+     * 按重试策略执行请求，每次重试前都会再次判断请求体能否重放，
+     * 超过标记上限等原因导致不能重放时不再重试，直接返回最后的响应或抛出最后的异常
+     *
+     * @param request HTTP请求
+     * @param chain   实际执行请求的方法
+     * @return 最后一次请求的HTTP响应
+     * @throws Exception 最后一次请求发生的异常，或者等待重试时被中断
+     */
+    @Nonnull
+    public XResponse execute(@Nonnull XRequest request, @Nonnull XHttpTools.Chain chain) throws Exception {
+        if (!retryable(request)) {
+            return chain.proceed(request);
+        }
+        for (int attempt = 1; ; attempt++) {
+            XResponse response;
+            try {
+                response = chain.proceed(request);
+            } catch (Exception e) {
+                if (attempt >= maxAttempts || !retryable(e) || !replayable(request)) {
+                    throw e;
+                }
+                retries.incrementAndGet();
+                Thread.sleep(backoff(attempt));
+                continue;
+            }
+            if (attempt >= maxAttempts || !retryStatuses.contains(response.getStatusCode()) || !replayable(request)) {
+                return response;
+            }
+            long delay = backoff(attempt);
+            if (respectRetryAfter) {
+                long retryAfter = retryAfter(response.getConnection().getHeaderField("Retry-After"));
+                if (retryAfter > maxRetryAfter) {
+                    return response;
+                } else if (retryAfter >= 0) {
+                    delay = retryAfter;
+                }
+            }
+            response.close();
+            retries.incrementAndGet();
+            Thread.sleep(delay);
+        }
+    }
+
+    /**
+     * 判断请求是否可以重试，请求方法需要是允许重试的方法，请求体需要可以重放
+     *
+     * @param request HTTP请求
+     * @return 是否可以重试
+     */
+    public boolean retryable(@Nonnull XRequest request) {
+        return maxAttempts > 1 && retryMethods.contains(request.getMethod()) && replayable(request);
+    }
+
+    /**
+     * 判断请求体当前是否可以重放，有的请求体写出后才知道能否重放
+     *
+     * @param request HTTP请求
+     * @return 请求体是否可以重放
+     */
+    private static boolean replayable(@Nonnull XRequest request) {
+        return request.getContent() == null || request.getContent().replayable();
+    }
+
+    /**
+     * 判断异常是否可以重试
+     *
+     * @param error 执行请求时发生的异常
+     * @return 是否可以重试
+     */
+    public boolean retryable(@Nonnull Throwable error) {
+        for (Class<? extends Throwable> clazz : retryExceptions) {
+            if (clazz.isInstance(error)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 计算第attempt次请求失败后的等待时间，指数增长到最大退避时间为止，再按抖动比例随机减少
+     *
+     * @param attempt 已经请求的次数，从1开始
+     * @return 等待的毫秒数
+     */
+    public long backoff(int attempt) {
+        double backoff = Math.min(initialBackoff * Math.pow(multiplier, attempt - 1), maxBackoff);
+        return (long) (backoff * (1 - jitter * ThreadLocalRandom.current().nextDouble()));
+    }
+
+    /**
+     * 解析Retry-After响应头，支持秒数和HTTP日期两种格式
+     *
+     * @param retryAfter Retry-After响应头
+     * @return 需要等待的毫秒数，没有或无法解析时为-1
+     */
+    private static long retryAfter(@Nullable String retryAfter) {
+        if (retryAfter == null) {
+            return -1;
+        }
+        try {
+            return Math.max(Long.parseLong(retryAfter.trim()) * 1000, 0);
+        } catch (NumberFormatException ignored) {
+        }
+        try {
+            return Math.max(ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli() - System.currentTimeMillis(), 0);
+        } catch (RuntimeException ignored) {
+        }
+        return -1;
+    }
+
+    /**
+     * 获取重试的总次数
+     *
+     * @return 重试的总次数
+     */
+    public long getRetries() {
+        return retries.get();
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * 设置最多请求的次数，包括第一次请求，小于等于1则不重试
+     *
+     * @param maxAttempts 最多请求的次数
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public long getInitialBackoff() {
+        return initialBackoff;
+    }
+
+    /**
+     * 设置第一次重试前的退避时间
+     *
+     * @param initialBackoff 退避时间，毫秒
+     */
+    public void setInitialBackoff(long initialBackoff) {
+        this.initialBackoff = initialBackoff;
+    }
+
+    public long getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    /**
+     * 设置最大的退避时间
+     *
+     * @param maxBackoff 最大的退避时间，毫秒
+     */
+    public void setMaxBackoff(long maxBackoff) {
+        this.maxBackoff = maxBackoff;
+    }
+
+    public double getMultiplier() {
+        return multiplier;
+    }
+
+    /**
+     * 设置每次重试后退避时间增长的倍数
+     *
+     * @param multiplier 退避时间增长的倍数
+     */
+    public void setMultiplier(double multiplier) {
+        this.multiplier = multiplier;
+    }
+
+    public double getJitter() {
+        return jitter;
+    }
+
+    /**
+     * 设置随机抖动的比例，实际的退避时间在[退避时间*(1-jitter), 退避时间]之间均匀分布，
+     * 默认为1，即完全随机，避免大量客户端在同一时刻重试
+     *
+     * @param jitter 随机抖动的比例，0到1之间
+     */
+    public void setJitter(double jitter) {
+        this.jitter = Math.min(Math.max(jitter, 0), 1);
+    }
+
+    public boolean isRespectRetryAfter() {
+        return respectRetryAfter;
+    }
+
+    /**
+     * 设置是否按响应中的Retry-After等待
+     *
+     * @param respectRetryAfter 是否按Retry-After等待
+     */
+    public void setRespectRetryAfter(boolean respectRetryAfter) {
+        this.respectRetryAfter = respectRetryAfter;
+    }
+
+    public long getMaxRetryAfter() {
+        return maxRetryAfter;
+    }
+
+    /**
+     * 设置允许等待的最长Retry-After，超过时不再重试，直接返回响应
+     *
+     * @param maxRetryAfter 允许等待的最长时间，毫秒
+     */
+    public void setMaxRetryAfter(long maxRetryAfter) {
+        this.maxRetryAfter = maxRetryAfter;
+    }
+
+    /**
+     * 获取允许重试的请求方法集合，可以直接修改，默认为GET、HEAD、OPTIONS、PUT、DELETE
+     *
+     * @return 允许重试的请求方法集合
+     */
+    @Nonnull
+    public Set<String> getRetryMethods() {
+        return retryMethods;
+    }
+
+    /**
+     * 获取需要重试的响应状态码集合，可以直接修改，默认为408、429、502、503、504
+     *
+     * @return 需要重试的响应状态码集合
+     */
+    @Nonnull
+    public Set<Integer> getRetryStatuses() {
+        return retryStatuses;
+    }
+
+    /**
+     * 获取需要重试的异常类型列表，可以直接修改，默认为IOException，包括连接失败、连接被重置和超时
+     *
+     * @return 需要重试的异常类型列表
+     */
+    @Nonnull
+    public List<Class<? extends Throwable>> getRetryExceptions() {
+        return retryExceptions;
+    }
+}
@@ -0,0 +1,190 @@
+package me.xuxiaoxiao.xtools.common.http.impl;
+
+import me.xuxiaoxiao.xtools.common.http.XHttpTools;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 合并同时进行的相同GET请求，同一时刻相同的请求只有一个真正发出，其余的请求等待它的结果。
+ * 请求url和选定的请求头都相同的GET请求视为相同的请求，发出的请求得到响应后读取整个响应体，
+ * 每个等待的请求都得到一个独立的、内容相同的XResponse；请求失败时等待的请求抛出同样的异常。
+ * 响应体超过上限时不合并，发出的请求按原样返回响应，等待的请求各自重新发出
+ */
+public class XSingleFlight {
+    private final Set<String> keyHeaders = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+    private long maxBodySize;
+
+    private final ConcurrentHashMap<String, CompletableFuture<Shared>> flights = new ConcurrentHashMap<>();
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    public XSingleFlight() {
+        this.keyHeaders.addAll(Arrays.asList("Accept", "Accept-Encoding", "Accept-Language", "Authorization", "Cookie", "Range"));
+        this.maxBodySize = 4 * 1024 * 1024;
+    }
+
+    /**
+     * 执行请求，GET请求与正在进行的相同请求合并，其他请求直接执行
+     *
+     * @param request HTTP请求
+     * @param chain   实际执行请求的方法
+     * @param config  请求配置，用于创建共享的响应
+     * @return HTTP响应
+     * @throws Exception 执行请求时发生的异常，合并的请求抛出的是同一个异常
+     */
+    @Nonnull
+    public XResponse execute(@Nonnull XRequest request, @Nonnull XHttpTools.Chain chain, @Nullable XHttpTools.Config config) throws Exception {
+        if (!XRequest.METHOD_GET.equals(request.getMethod())) {
+            return chain.proceed(request);
+        }
+        String key = key(request);
+        CompletableFuture<Shared> flight = new CompletableFuture<>();
+        CompletableFuture<Shared> existing = flights.putIfAbsent(key, flight);
+        if (existing != null) {
+            Shared shared;
+            try {
+                shared = existing.get();
+            } catch (ExecutionException e) {
+                coalescedCount.incrementAndGet();
+                Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception) cause : new RuntimeException(cause);
+            }
+            if (shared == null) {
+                //响应体过大没有共享，各自发出请求
+                return chain.proceed(request);
+            }
+            coalescedCount.incrementAndGet();
+            return shared.toResponse(config);
+        }
+
+        XResponse response;
+        try {
+            response = chain.proceed(request);
+        } catch (Throwable e) {
+            flights.remove(key, flight);
+            flight.completeExceptionally(e);
+            throw e;
+        }
+        try {
+            Object result = share(response, config);
+            flights.remove(key, flight);
+            if (result instanceof Shared) {
+                flight.complete((Shared) result);
+                return ((Shared) result).toResponse(config);
+            }
+            flight.complete(null);
+            return (XResponse) result;
+        } catch (Throwable e) {
+            flights.remove(key, flight);
+            flight.completeExceptionally(e);
+            response.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 读取响应体，响应体不超过上限时返回可共享的响应，否则返回拼接了已读取部分的原响应
+     */
+    @Nonnull
+    private Object share(@Nonnull XResponse response, @Nullable XHttpTools.Config config) throws Exception {
+        HttpURLConnection connection = response.getConnection();
+        int status = connection.getResponseCode();
+        if (connection.getContentLengthLong() > maxBodySize) {
+            return response;
+        }
+        InputStream inStream = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        byte[] body = inStream == null ? new byte[0] : inStream.readNBytes((int) Math.min(maxBodySize + 1, Integer.MAX_VALUE - 8));
+        if (body.length > maxBodySize) {
+            InputStream bodyStream = new SequenceInputStream(new ByteArrayInputStream(body), inStream);
+            return new XResponse(new XResponseConnection(connection.getURL(), status, connection.getResponseMessage(), connection.getHeaderFields(), bodyStream), config);
+        }
+        Shared shared = new Shared(connection.getURL(), status, connection.getResponseMessage(), connection.getHeaderFields(), body);
+        response.close();
+        return shared;
+    }
+
+    /**
+     * 由请求url和选定的请求头生成合并请求的键
+     */
+    @Nonnull
+    private String key(@Nonnull XRequest request) {
+        StringBuilder sbKey = new StringBuilder(request.getUrl());
+        for (XRequest.KeyValue keyValue : request.getHeaders()) {
+            if (keyHeaders.contains(keyValue.getKey())) {
+                sbKey.append('\n').append(keyValue.getKey().toLowerCase()).append(':').append(keyValue.getValue());
+            }
+        }
+        return sbKey.toString();
+    }
+
+    /**
+     * 获取被合并的请求数，即没有真正发出、使用了其他请求结果的请求数
+     *
+     * @return 被合并的请求数
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    @Nonnull
+    public Set<String> getKeyHeaders() {
+        return Collections.unmodifiableSet(keyHeaders);
+    }
+
+    /**
+     * 设置区分请求的请求头，这些请求头的值不同的请求不会合并，默认为Accept、Accept-Encoding、Accept-Language、Authorization、Cookie和Range
+     *
+     * @param keyHeaders 请求头名称
+     */
+    public void setKeyHeaders(@Nonnull String... keyHeaders) {
+        this.keyHeaders.clear();
+        this.keyHeaders.addAll(Arrays.asList(keyHeaders));
+    }
+
+    public long getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    /**
+     * 设置可以共享的响应体的最大字节数，默认4MB
+     *
+     * @param maxBodySize 响应体的最大字节数
+     */
+    public void setMaxBodySize(long maxBodySize) {
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**
+     * 已读取完整响应体、可以共享的响应
+     */
+    private static final class Shared {
+        private final URL url;
+        private final int status;
+        private final String message;
+        private final Map<String, List<String>> headers;
+        private final byte[] body;
+
+        private Shared(URL url, int status, String message, Map<String, List<String>> headers, byte[] body) {
+            this.url = url;
+            this.status = status;
+            this.message = message;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        @Nonnull
+        private XResponse toResponse(@Nullable XHttpTools.Config config) {
+            return new XResponse(new XResponseConnection(url, status, message, headers, new ByteArrayInputStream(body)), config);
+        }
+    }
+}
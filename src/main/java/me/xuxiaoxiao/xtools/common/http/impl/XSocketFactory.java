@@ -0,0 +1,323 @@
+package me.xuxiaoxiao.xtools.common.http.impl;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.*;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 包装SSLSocketFactory，让HttpsURLConnection先用普通的Socket建立TCP连接，再在已连接的Socket上叠加TLS，
+ * 从而能记录新建连接时域名解析、TCP连接和TLS握手各阶段的时间，复用keep-alive连接时不会调用这里的方法，没有记录。
+ * HttpsURLConnection按SSLSocketFactory实例判断能否复用keep-alive连接，所以同一个配置应当一直使用同一个实例。
+ * 配置了域名解析器时，TCP连接使用解析器返回的地址，一个地址在故障转移超时时间内连不上就尝试下一个地址。
+ * HttpsURLConnection传给connect()的InetSocketAddress在创建时已经由JVM解析过，这里只取其中的主机名重新解析，JVM的那次解析无法跳过
+ */
+public class XSocketFactory extends SSLSocketFactory {
+    /**
+     * 当前线程最近一次新建连接的时间：创建Socket、开始TCP连接（域名已解析）、在TCP连接上叠加TLS
+     */
+    private static final ThreadLocal<long[]> CONNECT_TIMES = ThreadLocal.withInitial(() -> new long[3]);
+
+    @Nonnull
+    private final SSLSocketFactory delegate;
+    @Nullable
+    private final XResolver resolver;
+    private final int failoverTimeout;
+
+    public XSocketFactory(@Nonnull SSLSocketFactory delegate) {
+        this(delegate, null, 0);
+    }
+
+    /**
+     * @param delegate        被包装的SSLSocketFactory
+     * @param resolver        建立TCP连接时使用的域名解析器，为null则使用JVM的域名解析
+     * @param failoverTimeout 解析出多个地址时，连接除最后一个地址之外的每个地址的超时时间，单位毫秒
+     */
+    public XSocketFactory(@Nonnull SSLSocketFactory delegate, @Nullable XResolver resolver, int failoverTimeout) {
+        this.delegate = delegate;
+        this.resolver = resolver;
+        this.failoverTimeout = failoverTimeout;
+    }
+
+    /**
+     * 获取被包装的SSLSocketFactory
+     *
+     * @return 被包装的SSLSocketFactory
+     */
+    @Nonnull
+    public SSLSocketFactory getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * 获取当前线程最近一次新建连接时各阶段开始的时间，并清除记录。
+     * 依次为创建Socket、域名解析完开始TCP连接、TCP连接完开始叠加TLS的时间，
+     * 都是System.nanoTime()表示的时间，没有新建连接或者没有到达该阶段时为0
+     *
+     * @return 各阶段开始的时间
+     */
+    @Nonnull
+    public static long[] takeConnectTimes() {
+        long[] times = CONNECT_TIMES.get();
+        long[] taken = times.clone();
+        Arrays.fill(times, 0);
+        return taken;
+    }
+
+    @Override
+    public String[] getDefaultCipherSuites() {
+        return delegate.getDefaultCipherSuites();
+    }
+
+    @Override
+    public String[] getSupportedCipherSuites() {
+        return delegate.getSupportedCipherSuites();
+    }
+
+    /**
+     * 返回未连接的普通Socket，HttpsURLConnection会先建立TCP连接，再调用createSocket(Socket, String, int, boolean)叠加TLS。
+     * 没有配置域名解析器时，HttpsURLConnection在调用connect()之前用JVM解析域名，所以connect()开始的时间就是域名解析完的时间
+     */
+    @Override
+    public Socket createSocket() {
+        long[] times = CONNECT_TIMES.get();
+        Arrays.fill(times, 0);
+        times[0] = System.nanoTime();
+        if (resolver != null) {
+            return new ResolvingSocket(resolver, failoverTimeout);
+        }
+        return new Socket() {
+            @Override
+            public void connect(SocketAddress endpoint, int timeout) throws IOException {
+                CONNECT_TIMES.get()[1] = System.nanoTime();
+                super.connect(endpoint, timeout);
+            }
+        };
+    }
+
+    @Override
+    public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+        if (socket instanceof ResolvingSocket) {
+            socket = ((ResolvingSocket) socket).connected();
+        }
+        CONNECT_TIMES.get()[2] = System.nanoTime();
+        return delegate.createSocket(socket, host, port, autoClose);
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        return delegate.createSocket(host, port);
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+        return delegate.createSocket(host, port, localHost, localPort);
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        return delegate.createSocket(host, port);
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+        return delegate.createSocket(address, port, localAddress, localPort);
+    }
+
+    /**
+     * 使用域名解析器建立TCP连接的Socket，依次尝试解析出的地址，连接成功后把操作转发给实际连接的Socket。
+     * 连接失败的Socket不能再次连接，所以每个地址都使用新的Socket尝试
+     */
+    private static final class ResolvingSocket extends Socket {
+        private final XResolver resolver;
+        private final int failoverTimeout;
+        private volatile Socket socket;
+        private int soTimeout;
+        private boolean tcpNoDelay;
+        private boolean closed;
+
+        private ResolvingSocket(XResolver resolver, int failoverTimeout) {
+            this.resolver = resolver;
+            this.failoverTimeout = failoverTimeout;
+        }
+
+        /**
+         * 获取实际连接的Socket
+         */
+        @Nonnull
+        private synchronized Socket connected() throws IOException {
+            if (socket == null) {
+                throw new SocketException("Socket is not connected");
+            }
+            return socket;
+        }
+
+        @Override
+        public void connect(SocketAddress endpoint) throws IOException {
+            connect(endpoint, 0);
+        }
+
+        @Override
+        public void connect(SocketAddress endpoint, int timeout) throws IOException {
+            if (!(endpoint instanceof InetSocketAddress)) {
+                throw new IllegalArgumentException("Unsupported address type");
+            }
+            InetSocketAddress address = (InetSocketAddress) endpoint;
+            String host = address.getHostString();
+            List<InetAddress> candidates = resolver.resolve(host);
+            CONNECT_TIMES.get()[1] = System.nanoTime();
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            IOException error = null;
+            for (int i = 0; i < candidates.size(); i++) {
+                int attemptTimeout = timeout;
+                if (timeout > 0) {
+                    long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    attemptTimeout = (int) remaining;
+                }
+                if (i < candidates.size() - 1 && failoverTimeout > 0 && (attemptTimeout == 0 || attemptTimeout > failoverTimeout)) {
+                    attemptTimeout = failoverTimeout;
+                }
+                InetAddress candidate = candidates.get(i);
+                Socket socket = new Socket();
+                try {
+                    socket.connect(new InetSocketAddress(candidate, address.getPort()), attemptTimeout);
+                } catch (IOException e) {
+                    socket.close();
+                    resolver.failed(host, candidate);
+                    if (error == null) {
+                        error = e;
+                    } else {
+                        error.addSuppressed(e);
+                    }
+                    continue;
+                }
+                synchronized (this) {
+                    if (closed) {
+                        socket.close();
+                        throw new SocketException("Socket is closed");
+                    }
+                    //应用连接前设置的选项
+                    socket.setSoTimeout(soTimeout);
+                    socket.setTcpNoDelay(tcpNoDelay);
+                    this.socket = socket;
+                }
+                return;
+            }
+            throw error != null ? error : new SocketTimeoutException(String.format("连接%s超时", host));
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return connected().getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return connected().getOutputStream();
+        }
+
+        @Override
+        public synchronized void setSoTimeout(int timeout) throws SocketException {
+            this.soTimeout = timeout;
+            if (socket != null) {
+                socket.setSoTimeout(timeout);
+            }
+        }
+
+        @Override
+        public synchronized int getSoTimeout() {
+            return soTimeout;
+        }
+
+        @Override
+        public synchronized void setTcpNoDelay(boolean on) throws SocketException {
+            this.tcpNoDelay = on;
+            if (socket != null) {
+                socket.setTcpNoDelay(on);
+            }
+        }
+
+        @Override
+        public synchronized boolean getTcpNoDelay() {
+            return tcpNoDelay;
+        }
+
+        @Override
+        public InetAddress getInetAddress() {
+            Socket socket = this.socket;
+            return socket == null ? null : socket.getInetAddress();
+        }
+
+        @Override
+        public int getPort() {
+            Socket socket = this.socket;
+            return socket == null ? 0 : socket.getPort();
+        }
+
+        @Override
+        public InetAddress getLocalAddress() {
+            Socket socket = this.socket;
+            return socket == null ? super.getLocalAddress() : socket.getLocalAddress();
+        }
+
+        @Override
+        public int getLocalPort() {
+            Socket socket = this.socket;
+            return socket == null ? -1 : socket.getLocalPort();
+        }
+
+        @Override
+        public SocketAddress getRemoteSocketAddress() {
+            Socket socket = this.socket;
+            return socket == null ? null : socket.getRemoteSocketAddress();
+        }
+
+        @Override
+        public SocketAddress getLocalSocketAddress() {
+            Socket socket = this.socket;
+            return socket == null ? null : socket.getLocalSocketAddress();
+        }
+
+        @Override
+        public boolean isConnected() {
+            Socket socket = this.socket;
+            return socket != null && socket.isConnected();
+        }
+
+        @Override
+        public synchronized boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public void shutdownInput() throws IOException {
+            connected().shutdownInput();
+        }
+
+        @Override
+        public void shutdownOutput() throws IOException {
+            connected().shutdownOutput();
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            closed = true;
+            try {
+                if (socket != null) {
+                    socket.close();
+                }
+            } finally {
+                super.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package me.xuxiaoxiao.xtools.common.jfr;
+
+import jdk.jfr.*;
+
+import javax.annotation.Nonnull;
+
+/**
+ * 散列一个文件的JFR事件。
+ * 默认只记录耗时超过20毫秒的散列，可以通过JFR的配置修改阈值，
+ * 例如-XX:StartFlightRecording:me.xuxiaoxiao.xtools.Hash#threshold=100ms
+ */
+@Name("me.xuxiaoxiao.xtools.Hash")
+@Label("File Hash")
+@Category({"XTools", "Hash"})
+@Description("XHashTools散列文件")
+@Threshold("20 ms")
+public class XHashEvent extends Event {
+    @Label("Algorithm")
+    private String algorithm;
+    @Label("Path")
+    private String path;
+    @Label("Bytes")
+    @DataAmount
+    private long bytes;
+
+    /**
+     * 结束计时，事件需要记录时填充散列信息并提交，JFR没有记录该事件时开销可以忽略
+     *
+     * @param algorithm 散列算法
+     * @param path      被散列的文件
+     * @param bytes     被散列的字节数
+     */
+    public void finish(@Nonnull String algorithm, @Nonnull String path, long bytes) {
+        end();
+        if (shouldCommit()) {
+            this.algorithm = algorithm;
+            this.path = path;
+            this.bytes = bytes;
+            commit();
+        }
+    }
+}
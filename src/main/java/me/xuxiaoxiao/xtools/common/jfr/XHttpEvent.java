@@ -0,0 +1,65 @@
+package me.xuxiaoxiao.xtools.common.jfr;
+
+import jdk.jfr.*;
+import me.xuxiaoxiao.xtools.common.http.impl.XRequest;
+import me.xuxiaoxiao.xtools.common.http.impl.XResponse;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * 执行器执行一次HTTP请求的JFR事件，耗时按发出请求到得到响应头为止计算，不包括读取响应体。
+ * 默认只记录耗时超过20毫秒的请求，可以通过JFR的配置修改阈值，
+ * 例如-XX:StartFlightRecording:me.xuxiaoxiao.xtools.Http#threshold=100ms
+ */
+@Name("me.xuxiaoxiao.xtools.Http")
+@Label("HTTP Request")
+@Category({"XTools", "HTTP"})
+@Description("XExecutor执行的HTTP请求")
+@Threshold("20 ms")
+public class XHttpEvent extends Event {
+    @Label("Method")
+    private String method;
+    @Label("URL")
+    private String url;
+    @Label("Host")
+    private String host;
+    @Label("Status Code")
+    private int statusCode;
+    @Label("Request Bytes")
+    @DataAmount
+    private long requestBytes;
+    @Label("Response Bytes")
+    @DataAmount
+    private long responseBytes;
+    @Label("Error")
+    private String error;
+
+    /**
+     * 结束计时，事件需要记录时填充请求信息并提交，JFR没有记录该事件时开销可以忽略
+     *
+     * @param request  HTTP请求
+     * @param response HTTP响应，请求失败时为null
+     * @param error    请求失败时的异常，成功时为null
+     */
+    public void finish(@Nonnull XRequest request, @Nullable XResponse response, @Nullable Exception error) {
+        end();
+        if (shouldCommit()) {
+            this.method = request.getMethod();
+            this.url = request.getUrl();
+            this.host = request.getOrigin();
+            this.requestBytes = -1;
+            try {
+                if (request.getContent() != null) {
+                    this.requestBytes = request.getContent().contentLength();
+                }
+            } catch (Exception ignore) {
+                //请求体长度未知
+            }
+            this.statusCode = response == null ? -1 : response.getStatusCode();
+            this.responseBytes = response == null ? -1 : response.getConnection().getContentLengthLong();
+            this.error = error == null ? null : error.toString();
+            commit();
+        }
+    }
+}
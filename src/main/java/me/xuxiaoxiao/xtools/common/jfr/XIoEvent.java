@@ -0,0 +1,47 @@
+package me.xuxiaoxiao.xtools.common.jfr;
+
+import jdk.jfr.*;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * XTools的流和文件复制函数的JFR事件，包括streamToStream、streamToFile和fileToFile。
+ * 默认只记录耗时超过20毫秒的操作，可以通过JFR的配置修改阈值，
+ * 例如-XX:StartFlightRecording:me.xuxiaoxiao.xtools.Io#threshold=100ms
+ */
+@Name("me.xuxiaoxiao.xtools.Io")
+@Label("Stream Copy")
+@Category({"XTools", "I/O"})
+@Description("XTools复制流或文件")
+@Threshold("20 ms")
+public class XIoEvent extends Event {
+    @Label("Operation")
+    private String operation;
+    @Label("Source")
+    private String source;
+    @Label("Target")
+    private String target;
+    @Label("Bytes")
+    @DataAmount
+    private long bytes;
+
+    /**
+     * 结束计时，事件需要记录时填充操作信息并提交，JFR没有记录该事件时开销可以忽略
+     *
+     * @param operation 操作的函数名
+     * @param source    源文件，源是流时为null
+     * @param target    目标文件，目标是流时为null
+     * @param bytes     复制的字节数
+     */
+    public void finish(@Nonnull String operation, @Nullable String source, @Nullable String target, long bytes) {
+        end();
+        if (shouldCommit()) {
+            this.operation = operation;
+            this.source = source;
+            this.target = target;
+            this.bytes = bytes;
+            commit();
+        }
+    }
+}
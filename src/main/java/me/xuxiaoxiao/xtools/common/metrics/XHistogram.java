@@ -0,0 +1,190 @@
+package me.xuxiaoxiao.xtools.common.metrics;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 高动态范围的直方图，可以记录0到Long.MAX_VALUE之间的值，相对误差不超过1/64。
+ * 桶按对数-线性划分：小于128的值每个值一个桶，之后每翻一倍的区间再平均分成64个桶，一共3712个桶。
+ * 记录值时只对一个桶计数做原子加，不需要加锁
+ */
+public class XHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT >> 1;
+    private static final int BUCKET_COUNT = index(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * 记录一个值，小于0的值按0记录
+     *
+     * @param value 要记录的值
+     */
+    public void record(long value) {
+        value = Math.max(value, 0);
+        buckets.incrementAndGet(index(value));
+        sum.add(value);
+        if (value < min.get()) {
+            min.accumulateAndGet(value, Math::min);
+        }
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    /**
+     * 获取直方图当前的快照
+     *
+     * @return 直方图的快照
+     */
+    @Nonnull
+    public Snapshot getSnapshot() {
+        return snapshot(false);
+    }
+
+    /**
+     * 获取直方图当前的快照并清空直方图，快照和清空之间记录的值会计入下一次快照，不会丢失
+     *
+     * @return 直方图的快照
+     */
+    @Nonnull
+    public Snapshot getSnapshotAndReset() {
+        return snapshot(true);
+    }
+
+    /**
+     * 清空直方图
+     */
+    public void reset() {
+        snapshot(true);
+    }
+
+    @Nonnull
+    private Snapshot snapshot(boolean reset) {
+        long[] counts = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = reset ? buckets.getAndSet(i, 0) : buckets.get(i);
+            count += counts[i];
+        }
+        long total = reset ? sum.sumThenReset() : sum.sum();
+        long lowest = reset ? min.getAndSet(Long.MAX_VALUE) : min.get();
+        long highest = reset ? max.getAndSet(Long.MIN_VALUE) : max.get();
+        return new Snapshot(counts, count, total, lowest, highest);
+    }
+
+    /**
+     * 计算值所在的桶
+     */
+    private static int index(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return shift * SUB_BUCKET_HALF + (int) (value >>> shift);
+    }
+
+    /**
+     * 计算桶中能记录的最大值
+     */
+    private static long highestIn(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_HALF - 1;
+        long lowest = (long) (index % SUB_BUCKET_HALF + SUB_BUCKET_HALF) << shift;
+        return lowest + ((1L << shift) - 1);
+    }
+
+    /**
+     * 直方图的快照，创建后不再变化
+     */
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long min;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long sum, long min, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.min = count == 0 ? 0 : min;
+            this.max = count == 0 ? 0 : max;
+        }
+
+        /**
+         * 获取记录的值的个数
+         *
+         * @return 记录的值的个数
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * 获取记录的值的总和
+         *
+         * @return 记录的值的总和
+         */
+        public long getSum() {
+            return sum;
+        }
+
+        /**
+         * 获取记录的最小值
+         *
+         * @return 记录的最小值，没有记录时为0
+         */
+        public long getMin() {
+            return min;
+        }
+
+        /**
+         * 获取记录的最大值
+         *
+         * @return 记录的最大值，没有记录时为0
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * 获取记录的值的平均值
+         *
+         * @return 平均值，没有记录时为0
+         */
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * 获取百分位数，返回值所在桶能记录的最大值，即不小于实际值且相对误差不超过1/64
+         *
+         * @param percentile 百分位，0到100之间，例如99表示p99
+         * @return 百分位数，没有记录时为0
+         */
+        public long getPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(Math.min(Math.max(percentile, 0), 100) / 100 * count);
+            rank = Math.max(rank, 1);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.max(Math.min(highestIn(i), max), min);
+                }
+            }
+            return max;
+        }
+    }
+}
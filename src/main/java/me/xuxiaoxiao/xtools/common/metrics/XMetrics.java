@@ -0,0 +1,323 @@
+package me.xuxiaoxiao.xtools.common.metrics;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.management.*;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 指标注册表，保存按名称区分的计数器和直方图，不依赖第三方库。
+ * XHttpTools、XHashTools和XTools的流操作函数配置了指标注册表后会自动记录请求数、耗时、字节数等指标，
+ * 也可以通过increment和record记录自定义的指标。
+ * 计数器使用LongAdder，直方图使用XHistogram，记录指标时都不需要加锁。
+ * 指标的名称不会被清理，名称的数量应当是有限的
+ */
+public class XMetrics {
+    private final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, XHistogram> histograms = new ConcurrentHashMap<>();
+    private volatile long resetAt = System.currentTimeMillis();
+    private ObjectName objectName;
+
+    /**
+     * 计数器加一
+     *
+     * @param name 计数器名称
+     */
+    public void increment(@Nonnull String name) {
+        add(name, 1);
+    }
+
+    /**
+     * 计数器增加给定的值
+     *
+     * @param name  计数器名称
+     * @param delta 增加的值
+     */
+    public void add(@Nonnull String name, long delta) {
+        LongAdder counter = counters.get(name);
+        if (counter == null) {
+            counter = counters.computeIfAbsent(name, key -> new LongAdder());
+        }
+        counter.add(delta);
+    }
+
+    /**
+     * 在直方图中记录一个值
+     *
+     * @param name  直方图名称
+     * @param value 要记录的值，耗时统一使用纳秒
+     */
+    public void record(@Nonnull String name, long value) {
+        histogram(name).record(value);
+    }
+
+    /**
+     * 获取直方图，不存在时创建
+     *
+     * @param name 直方图名称
+     * @return 直方图
+     */
+    @Nonnull
+    public XHistogram histogram(@Nonnull String name) {
+        XHistogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histogram = histograms.computeIfAbsent(name, key -> new XHistogram());
+        }
+        return histogram;
+    }
+
+    /**
+     * 获取计数器当前的值
+     *
+     * @param name 计数器名称
+     * @return 计数器的值，不存在时为0
+     */
+    public long getCount(@Nonnull String name) {
+        LongAdder counter = counters.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * 获取全部指标当前的快照
+     *
+     * @return 指标的快照
+     */
+    @Nonnull
+    public Snapshot getSnapshot() {
+        return snapshot(false);
+    }
+
+    /**
+     * 获取全部指标当前的快照并清空全部指标，适合定时上报每个周期内的指标
+     *
+     * @return 指标的快照
+     */
+    @Nonnull
+    public Snapshot getSnapshotAndReset() {
+        return snapshot(true);
+    }
+
+    /**
+     * 清空全部指标
+     */
+    public void reset() {
+        snapshot(true);
+    }
+
+    @Nonnull
+    private Snapshot snapshot(boolean reset) {
+        long since = resetAt;
+        long until = System.currentTimeMillis();
+        if (reset) {
+            resetAt = until;
+        }
+        TreeMap<String, Long> counterValues = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            counterValues.put(entry.getKey(), reset ? entry.getValue().sumThenReset() : entry.getValue().sum());
+        }
+        TreeMap<String, XHistogram.Snapshot> histogramValues = new TreeMap<>();
+        for (Map.Entry<String, XHistogram> entry : histograms.entrySet()) {
+            histogramValues.put(entry.getKey(), reset ? entry.getValue().getSnapshotAndReset() : entry.getValue().getSnapshot());
+        }
+        return new Snapshot(since, until, counterValues, histogramValues);
+    }
+
+    /**
+     * 将指标注册成平台MBeanServer中的MBean，计数器的名称即属性名，
+     * 直方图展开成名称加上.count、.mean、.max、.p50、.p90、.p99、.p999后缀的属性，还有一个清空全部指标的reset操作
+     *
+     * @param name MBean的ObjectName，例如me.xuxiaoxiao.xtools:type=XMetrics,name=default
+     */
+    public synchronized void registerMBean(@Nonnull String name) {
+        try {
+            ObjectName objectName = new ObjectName(name);
+            unregisterMBean();
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MBean(), objectName);
+            this.objectName = objectName;
+        } catch (JMException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * 注销通过registerMBean注册的MBean，没有注册时什么也不做
+     */
+    public synchronized void unregisterMBean() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (InstanceNotFoundException ignore) {
+                //已经在别处被注销了
+            } catch (MBeanRegistrationException e) {
+                throw new IllegalStateException(e);
+            }
+            objectName = null;
+        }
+    }
+
+    /**
+     * 全部指标的快照，创建后不再变化
+     */
+    public static class Snapshot {
+        private final long since;
+        private final long until;
+        private final Map<String, Long> counters;
+        private final Map<String, XHistogram.Snapshot> histograms;
+
+        private Snapshot(long since, long until, Map<String, Long> counters, Map<String, XHistogram.Snapshot> histograms) {
+            this.since = since;
+            this.until = until;
+            this.counters = Collections.unmodifiableMap(counters);
+            this.histograms = Collections.unmodifiableMap(histograms);
+        }
+
+        /**
+         * 获取快照统计的开始时间，即创建注册表或者上一次清空的时间
+         *
+         * @return 开始时间的毫秒时间戳
+         */
+        public long getSince() {
+            return since;
+        }
+
+        /**
+         * 获取快照的时间
+         *
+         * @return 快照时间的毫秒时间戳
+         */
+        public long getUntil() {
+            return until;
+        }
+
+        /**
+         * 获取全部计数器的值，按名称排序
+         *
+         * @return 计数器名称到值的映射
+         */
+        @Nonnull
+        public Map<String, Long> getCounters() {
+            return counters;
+        }
+
+        /**
+         * 获取全部直方图的快照，按名称排序
+         *
+         * @return 直方图名称到快照的映射
+         */
+        @Nonnull
+        public Map<String, XHistogram.Snapshot> getHistograms() {
+            return histograms;
+        }
+
+        /**
+         * 获取计数器的值
+         *
+         * @param name 计数器名称
+         * @return 计数器的值，不存在时为0
+         */
+        public long getCount(@Nonnull String name) {
+            Long count = counters.get(name);
+            return count == null ? 0 : count;
+        }
+
+        /**
+         * 获取计数器在统计期间每秒的平均增量，即吞吐量
+         *
+         * @param name 计数器名称
+         * @return 每秒的平均增量
+         */
+        public double getRate(@Nonnull String name) {
+            return getCount(name) * 1000.0 / Math.max(until - since, 1);
+        }
+
+        /**
+         * 获取直方图的快照
+         *
+         * @param name 直方图名称
+         * @return 直方图的快照，不存在时为null
+         */
+        @Nullable
+        public XHistogram.Snapshot getHistogram(@Nonnull String name) {
+            return histograms.get(name);
+        }
+    }
+
+    /**
+     * 把注册表中当前的全部指标暴露成MBean的属性，属性列表随指标的增加而变化
+     */
+    private class MBean implements DynamicMBean {
+        private static final String OPERATION_RESET = "reset";
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Object value = attributes(getSnapshot()).get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException(String.format("指标：%s是只读的", attribute.getName()));
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] names) {
+            Map<String, Object> values = attributes(getSnapshot());
+            AttributeList list = new AttributeList();
+            for (String name : names) {
+                if (values.containsKey(name)) {
+                    list.add(new Attribute(name, values.get(name)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            if (OPERATION_RESET.equals(actionName)) {
+                reset();
+                return null;
+            }
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> infos = new ArrayList<>();
+            for (Map.Entry<String, Object> entry : attributes(getSnapshot()).entrySet()) {
+                infos.add(new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(), entry.getKey(), true, false, false));
+            }
+            MBeanOperationInfo reset = new MBeanOperationInfo(OPERATION_RESET, "清空全部指标", new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+            return new MBeanInfo(XMetrics.class.getName(), "XTools指标", infos.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[]{reset}, null);
+        }
+
+        private Map<String, Object> attributes(Snapshot snapshot) {
+            TreeMap<String, Object> values = new TreeMap<>(snapshot.getCounters());
+            for (Map.Entry<String, XHistogram.Snapshot> entry : snapshot.getHistograms().entrySet()) {
+                XHistogram.Snapshot histogram = entry.getValue();
+                values.put(entry.getKey() + ".count", histogram.getCount());
+                values.put(entry.getKey() + ".mean", histogram.getMean());
+                values.put(entry.getKey() + ".max", histogram.getMax());
+                values.put(entry.getKey() + ".p50", histogram.getPercentile(50));
+                values.put(entry.getKey() + ".p90", histogram.getPercentile(90));
+                values.put(entry.getKey() + ".p99", histogram.getPercentile(99));
+                values.put(entry.getKey() + ".p999", histogram.getPercentile(99.9));
+            }
+            return values;
+        }
+    }
+}
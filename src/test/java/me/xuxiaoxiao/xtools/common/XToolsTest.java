@@ -174,6 +174,8 @@ public class XToolsTest {
             try (XResponse ignore = XTools.http(request)) {
                 Mockito.verify(mockTools, Mockito.times(1)).http(request);
             }
+            XTools.httpAsync(request);
+            Mockito.verify(mockTools, Mockito.times(1)).httpAsync(request);
         });
     }
 
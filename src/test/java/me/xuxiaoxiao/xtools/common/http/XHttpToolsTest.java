@@ -0,0 +1,1258 @@
+package me.xuxiaoxiao.xtools.common.http;
+
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import me.xuxiaoxiao.xtools.common.http.impl.XBodyBuffer;
+import me.xuxiaoxiao.xtools.common.http.impl.XCircuitBreaker;
+import me.xuxiaoxiao.xtools.common.http.impl.XConcurrencyLimiter;
+import me.xuxiaoxiao.xtools.common.http.impl.XCookieJar;
+import me.xuxiaoxiao.xtools.common.http.impl.XDnsCache;
+import me.xuxiaoxiao.xtools.common.http.impl.XEventListener;
+import me.xuxiaoxiao.xtools.common.http.impl.XHedgePolicy;
+import me.xuxiaoxiao.xtools.common.http.impl.XHostsResolver;
+import me.xuxiaoxiao.xtools.common.http.impl.XHttpCache;
+import me.xuxiaoxiao.xtools.common.http.impl.XHttpClientExecutor;
+import me.xuxiaoxiao.xtools.common.http.impl.XLoadBalancer;
+import me.xuxiaoxiao.xtools.common.http.impl.XRateLimiter;
+import me.xuxiaoxiao.xtools.common.http.impl.XRequest;
+import me.xuxiaoxiao.xtools.common.http.impl.XResponse;
+import me.xuxiaoxiao.xtools.common.http.impl.XRetryPolicy;
+import me.xuxiaoxiao.xtools.common.http.impl.XSingleFlight;
+import me.xuxiaoxiao.xtools.common.metrics.XHistogram;
+import me.xuxiaoxiao.xtools.common.metrics.XMetrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nonnull;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.io.StringReader;
+import java.net.CookiePolicy;
+import java.net.HttpCookie;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class XHttpToolsTest {
+
+    private HttpServer server;
+    private String baseUrl;
+    private final AtomicInteger cachedHits = new AtomicInteger();
+    private final AtomicInteger rangeHits = new AtomicInteger();
+    private final AtomicInteger flakyHits = new AtomicInteger();
+    private final AtomicInteger hedgeHits = new AtomicInteger();
+    private final byte[] fileBody = new byte[3 * 1024 * 1024 + 17];
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/hello", exchange -> {
+            byte[] body = "hello world".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream outStream = exchange.getResponseBody()) {
+                outStream.write(body);
+            }
+        });
+        server.createContext("/echo", exchange -> {
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length == 0 ? -1 : body.length);
+            try (OutputStream outStream = exchange.getResponseBody()) {
+                outStream.write(body);
+            }
+        });
+        server.createContext("/cookie", exchange -> {
+            String cookie = exchange.getRequestHeaders().getFirst("Cookie");
+            String query = exchange.getRequestURI().getRawQuery();
+            if (query != null && query.startsWith("set=")) {
+                exchange.getResponseHeaders().add("Set-Cookie", URLDecoder.decode(query.substring(4), StandardCharsets.UTF_8));
+            }
+            byte[] body = (cookie == null ? "" : cookie).getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length == 0 ? -1 : body.length);
+            try (OutputStream outStream = exchange.getResponseBody()) {
+                outStream.write(body);
+            }
+        });
+        server.createContext("/flaky", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            if (flakyHits.incrementAndGet() % 3 != 0) {
+                exchange.getResponseHeaders().add("Retry-After", "0");
+                exchange.sendResponseHeaders(503, -1);
+            } else {
+                exchange.sendResponseHeaders(204, -1);
+            }
+            exchange.close();
+        });
+        server.createContext("/hedge", exchange -> {
+            if (hedgeHits.incrementAndGet() % 2 == 1) {
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException ignored) {
+                }
+            }
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.createContext("/slow", exchange -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException ignored) {
+            }
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.createContext("/cached", exchange -> {
+            cachedHits.incrementAndGet();
+            if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.getResponseHeaders().add("Cache-Control", "max-age=0");
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            byte[] body = "cached body".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Cache-Control", exchange.getRequestURI().getQuery() == null ? "max-age=60" : "max-age=0");
+            exchange.getResponseHeaders().add("ETag", "\"v1\"");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream outStream = exchange.getResponseBody()) {
+                outStream.write(body);
+            }
+        });
+        server.createContext("/gzip", exchange -> {
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                body = new GZIPInputStream(new ByteArrayInputStream(body)).readAllBytes();
+            }
+            if (String.valueOf(exchange.getRequestHeaders().getFirst("Accept-Encoding")).contains("gzip")) {
+                ByteArrayOutputStream gzipBody = new ByteArrayOutputStream();
+                try (GZIPOutputStream gzipStream = new GZIPOutputStream(gzipBody)) {
+                    gzipStream.write(body);
+                }
+                body = gzipBody.toByteArray();
+                exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream outStream = exchange.getResponseBody()) {
+                outStream.write(body);
+            }
+        });
+        new Random(0).nextBytes(fileBody);
+        server.createContext("/file", exchange -> {
+            //带weak参数时返回弱ETag，弱ETag不能用于If-Range，If-Range不匹配时忽略Range返回整个文件
+            boolean weak = "weak=true".equals(exchange.getRequestURI().getQuery());
+            String lastModified = "Thu, 01 Jan 2015 00:00:00 GMT";
+            exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+            exchange.getResponseHeaders().add("ETag", weak ? "W/\"file\"" : "\"file\"");
+            exchange.getResponseHeaders().add("Last-Modified", lastModified);
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().add("Content-Length", String.valueOf(fileBody.length));
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+                return;
+            }
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            if (ifRange != null && !ifRange.equals(lastModified) && !(!weak && ifRange.equals("\"file\""))) {
+                range = null;
+            }
+            int start = 0, end = fileBody.length - 1;
+            if (range != null) {
+                rangeHits.incrementAndGet();
+                String[] bounds = range.substring("bytes=".length()).split("-");
+                start = Integer.parseInt(bounds[0]);
+                end = Integer.parseInt(bounds[1]);
+                exchange.getResponseHeaders().add("Content-Range", String.format("bytes %d-%d/%d", start, end, fileBody.length));
+            }
+            exchange.sendResponseHeaders(range == null ? 200 : 206, end - start + 1);
+            try (OutputStream outStream = exchange.getResponseBody()) {
+                outStream.write(fileBody, start, end - start + 1);
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void http() {
+        XHttpTools httpTools = new XHttpTools(new XHttpTools.Config());
+        try (XResponse response = httpTools.http(XRequest.GET(baseUrl + "/hello"))) {
+            assertTrue(response.isSuccess());
+            assertEquals("hello world", response.asString());
+        }
+    }
+
+    @Test
+    void http_keepAlive() {
+        XHttpTools.Config config = new XHttpTools.Config();
+        config.setKeepAlive(true);
+        XHttpTools httpTools = new XHttpTools(config);
+        for (int i = 0; i < 3; i++) {
+            try (XResponse response = httpTools.http(XRequest.GET(baseUrl + "/hello"))) {
+                assertEquals("hello world", response.asString());
+            }
+        }
+        assertEquals(1, config.getNewConnections());
+        assertEquals(2, config.getReusedConnections());
+    }
+
+    @Test
+    void http_httpClientExecutor() {
+        XHttpTools.Config config = new XHttpTools.Config();
+        config.setExecutor(new XHttpClientExecutor(config));
+        XHttpTools httpTools = new XHttpTools(config);
+        try (XResponse response = httpTools.http(XRequest.GET(baseUrl + "/hello"))) {
+            assertEquals(200, response.getStatusCode());
+            assertEquals("hello world", response.asString());
+        }
+        try (XResponse response = httpTools.http(XRequest.POST(baseUrl + "/echo").content("key", "value"))) {
+            assertEquals("key=value", response.asString());
+        }
+        try (XResponse response = httpTools.http(XRequest.GET(baseUrl + "/missing"))) {
+            assertEquals(404, response.getStatusCode());
+            assertFalse(response.isSuccess());
+        }
+    }
+
+    @Test
+    void httpAsync() throws Exception {
+        XHttpTools.Config config = new XHttpTools.Config();
+        config.setAsyncConcurrency(2);
+        XHttpTools httpTools = new XHttpTools(config);
+        List<CompletableFuture<XResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(httpTools.httpAsync(XRequest.GET(baseUrl + "/hello")));
+        }
+        for (CompletableFuture<XResponse> future : futures) {
+            try (XResponse response = future.get()) {
+                assertEquals("hello world", response.asString());
+            }
+        }
+
+        CompletableFuture<XResponse> cancelled = httpTools.httpAsync(XRequest.GET(baseUrl + "/slow"));
+        assertTrue(cancelled.cancel(true));
+        assertTrue(cancelled.isCancelled());
+    }
+
+    @Test
+    void httpAll() throws Exception {
+        XHttpTools.Config config = new XHttpTools.Config();
+        config.setBatchConcurrency(4);
+        config.setBatchConcurrencyPerHost(2);
+        XHttpTools httpTools = new XHttpTools(config);
+        List<XRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            requests.add(XRequest.POST(baseUrl + "/echo").content("index", i));
+        }
+        requests.add(XRequest.GET("http://127.0.0.1:1/refused"));
+
+        List<CompletableFuture<XResponse>> futures = httpTools.httpAll(requests);
+        for (int i = 0; i < 6; i++) {
+            try (XResponse response = futures.get(i).get()) {
+                assertEquals("index=" + i, response.asString());
+            }
+        }
+        assertTrue(futures.get(6).handle((response, error) -> error != null).get());
+
+        AtomicInteger success = new AtomicInteger(), failure = new AtomicInteger();
+        httpTools.httpAll(requests, (request, response, error) -> {
+            if (response != null) {
+                response.close();
+                success.incrementAndGet();
+            } else {
+                failure.incrementAndGet();
+            }
+        });
+        assertEquals(6, success.get());
+        assertEquals(1, failure.get());
+
+        //回调抛出异常时取消剩余的请求，排队中的请求被取消后不影响之后的批量请求
+        assertThrows(IllegalStateException.class, () -> httpTools.httpAll(requests, (request, response, error) -> {
+            throw new IllegalStateException("stop");
+        }));
+        config.setBatchConcurrency(1);
+        XHttpTools serialTools = new XHttpTools(config);
+        List<CompletableFuture<XResponse>> serial = serialTools.httpAll(Arrays.asList(XRequest.GET(baseUrl + "/slow"), XRequest.GET(baseUrl + "/hello")));
+        assertTrue(serial.get(1).cancel(true));
+        serial.get(0).get().close();
+        try (XResponse response = serialTools.httpAll(Collections.singletonList(XRequest.GET(baseUrl + "/hello"))).get(0).get(5, TimeUnit.SECONDS)) {
+            assertEquals("hello world", response.asString());
+        }
+    }
+
+    @Test
+    void http_cache() throws IOException {
+        XHttpTools.Config config = new XHttpTools.Config();
+        File directory = Files.createTempDirectory("xhttpcache").toFile();
+        XHttpCache httpCache = new XHttpCache(1024 * 1024, directory, 1024 * 1024);
+        config.setHttpCache(httpCache);
+        XHttpTools httpTools = new XHttpTools(config);
+
+        for (int i = 0; i < 3; i++) {
+            try (XResponse response = httpTools.http(XRequest.GET(baseUrl + "/cached"))) {
+                assertEquals("cached body", response.asString());
+            }
+        }
+        assertEquals(1, cachedHits.get());
+        assertEquals(2, httpCache.getHitCount());
+
+        for (int i = 0; i < 3; i++) {
+            try (XResponse response = httpTools.http(XRequest.GET(baseUrl + "/cached").query("stale", 1))) {
+                assertEquals(200, response.getStatusCode());
+                assertEquals("cached body", response.asString());
+            }
+        }
+        assertEquals(4, cachedHits.get());
+        assertEquals(2, httpCache.getRevalidateCount());
+
+        try (XResponse response = httpTools.http(XRequest.HEAD(baseUrl + "/cached"))) {
+            assertEquals(200, response.getStatusCode());
+        }
+        assertEquals(4, cachedHits.get());
+
+        //Range请求不能用缓存的完整响应回答
+        try (XResponse response = httpTools.http(XRequest.GET(baseUrl + "/cached").header("Range", "bytes=0-5"))) {
+            assertEquals("cached body", response.asString());
+        }
+        assertEquals(5, cachedHits.get());
+        assertEquals(3, httpCache.getHitCount());
+
+        //新建的缓存从磁盘读取之前保存的响应
+        XHttpCache diskCache = new XHttpCache(1024 * 1024, directory, 1024 * 1024);
+        config.setHttpCache(diskCache);
+        try (XResponse response = httpTools.http(XRequest.GET(baseUrl + "/cached"))) {
+            assertEquals("cached body", response.asString());
+        }
+        assertEquals(5, cachedHits.get());
+        assertEquals(1, diskCache.getHitCount());
+
+        //缓存命中的请求不经过限流器和负载均衡器，缓存的键是改写到成员之前的地址
+        XRateLimiter rateLimiter = new XRateLimiter(0.001);
+        rateLimiter.setMode(XRateLimiter.Mode.FAIL_FAST);
+        config.setRateLimiter(rateLimiter);
+        config.setLoadBalancer(new XLoadBalancer().upstream("cachesvc", XLoadBalancer.Strategy.LEAST_OUTSTANDING, baseUrl));
+        for (int i = 0; i < 3; i++) {
+            try (XResponse response = httpTools.http(XRequest.GET("http://cachesvc/cached"))) {
+                assertEquals("cached body", response.asString());
+            }
+        }
+        assertEquals(6, cachedHits.get());
+        assertEquals(3, diskCache.getHitCount());
+        assertEquals(0, rateLimiter.getRejected());
+        diskCache.clear();
+    }
+
+    @Test
+    void http_compress() {
+        XHttpTools.Config config = new XHttpTools.Config();
+        config.setCompressRequestThreshold(0);
+        XHttpTools httpTools = new XHttpTools(config);
+        String json = "{\"key\":\"value\"}";
+        try (XResponse response = httpTools.http(XRequest.POST(baseUrl + "/gzip").content(new XRequest.StringContent(XRequest.MIME_JSON, json)))) {
+            assertEquals("gzip", response.getConnection().getContentEncoding());
+            assertEquals(json, response.asString());
+        }
+
+        config.setExecutor(new XHttpClientExecutor(config));
+        try (XResponse response = httpTools.http(XRequest.POST(baseUrl + "/gzip").content(new XRequest.StringContent(XRequest.MIME_JSON, json)))) {
+            assertEquals(json, response.asString());
+        }
+
+        config.setCompressResponse(false);
+        try (XResponse response = httpTools.http(XRequest.POST(baseUrl + "/gzip").content(new XRequest.StringContent(XRequest.MIME_JSON, json)))) {
+            assertNull(response.getConnection().getContentEncoding());
+            assertEquals(json, response.asString());
+        }
+    }
+
+    @Test
+    void http_retry() {
+        XHttpTools.Config config = new XHttpTools.Config();
+        XRetryPolicy retryPolicy = new XRetryPolicy();
+        retryPolicy.setInitialBackoff(10);
+        config.setRetryPolicy(retryPolicy);
+        XHttpTools httpTools = new XHttpTools(config);
+        try (XResponse response = httpTools.http(XRequest.GET(baseUrl + "/flaky"))) {
+            assertEquals(204, response.getStatusCode());
+        }
+        assertEquals(3, flakyHits.get());
+        assertEquals(2, retryPolicy.getRetries());
+
+        try (XResponse response = httpTools.http(XRequest.POST(baseUrl + "/flaky").content(new XRequest.StringContent(XRequest.MIME_JSON, "{}")))) {
+            assertEquals(503, response.getStatusCode());
+        }
+        assertEquals(4, flakyHits.get());
+
+        retryPolicy.setMaxAttempts(2);
+        try (XResponse response = httpTools.http(XRequest.PUT(baseUrl + "/flaky").content(new XRequest.StringContent(XRequest.MIME_JSON, "{}")))) {
+            assertEquals(204, response.getStatusCode());
+        }
+        assertEquals(6, flakyHits.get());
+
+        //写出后超过标记上限的请求体不能重放，不再重试
+        try (XResponse response = httpTools.http(XRequest.PUT(baseUrl + "/flaky").content(new XRequest.ReaderContent(XRequest.MIME_JSON, new StringReader("{\"key\":1}"), 4)))) {
+            assertEquals(503, response.getStatusCode());
+        }
+        assertEquals(7, flakyHits.get());
+        assertEquals(3, retryPolicy.getRetries());
+
+        server.stop(0);
+        assertThrows(RuntimeException.class, () -> httpTools.http(XRequest.GET(baseUrl + "/flaky")));
+        assertEquals(4, retryPolicy.getRetries());
+    }
+
+    @Test
+    void http_hedge() throws Exception {
+        XHttpTools.Config config = new XHttpTools.Config();
+        CountDownLatch aborted = new CountDownLatch(1);
+        config.getExecutor().addListener(new XEventListener() {
+            @Override
+            public void failed(@Nonnull XRequest request, @Nonnull Exception error, long totalNanos) {
+                aborted.countDown();
+            }
+        });
+        XHedgePolicy hedgePolicy = new XHedgePolicy();
+        hedgePolicy.setInitialDelay(50);
+        hedgePolicy.setBudget(1);
+        config.setHedgePolicy(hedgePolicy);
+        XHttpTools httpTools = new XHttpTools(config);
+        long start = System.currentTimeMillis();
+        try (XResponse response = httpTools.http(XRequest.GET(baseUrl + "/hedge"))) {
+            assertEquals(204, response.getStatusCode());
+        }
+        assertTrue(System.currentTimeMillis() - start < 800);
+        //被取消的原请求断开连接后立即失败，不会等到服务端响应
+        assertTrue(aborted.await(500, TimeUnit.MILLISECONDS));
+        assertEquals(2, hedgeHits.get());
+        assertEquals(1, hedgePolicy.getHedges());
+
+        try (XResponse response = httpTools.http(XRequest.POST(baseUrl + "/hedge").content(new XRequest.StringContent(XRequest.MIME_JSON, "{}")))) {
+            assertEquals(204, response.getStatusCode());
+        }
+        assertEquals(3, hedgeHits.get());
+        assertEquals(1, hedgePolicy.getHedges());
+
+        //依赖读取位置重放的请求体不能同时写出，不会对冲
+        assertTrue(hedgePolicy.hedgeable(XRequest.PUT(baseUrl + "/hedge").content(new XRequest.StringContent(XRequest.MIME_JSON, "{}"))));
+        XRequest.StreamContent streamContent = new XRequest.StreamContent("application/octet-stream", new ByteArrayInputStream(new byte[16]), 1024);
+        assertTrue(streamContent.replayable());
+        assertFalse(hedgePolicy.hedgeable(XRequest.PUT(baseUrl + "/hedge").content(streamContent)));
+        assertFalse(hedgePolicy.hedgeable(XRequest.PUT(baseUrl + "/hedge").content(new XRequest.ReaderContent(XRequest.MIME_JSON, new StringReader("{}"), 1024))));
+        assertFalse(hedgePolicy.hedgeable(XRequest.PUT(baseUrl + "/hedge").content(new XRequest.IteratorContent(XRequest.MIME_JSON, Arrays.asList("{", "}")))));
+    }
+
+    @Test
+    void http_hedgeAsync() throws Exception {
+        //异步请求占满了只有两个线程的异步线程池，对冲的请求仍然能够执行
+        XHttpTools.Config config = new XHttpTools.Config();
+        config.setAsyncConcurrency(2);
+        config.setAsyncExecutor(Executors.newFixedThreadPool(2));
+        XHedgePolicy hedgePolicy = new XHedgePolicy();
+        hedgePolicy.setInitialDelay(50);
+        hedgePolicy.setBudget(1);
+        config.setHedgePolicy(hedgePolicy);
+        XHttpTools httpTools = new XHttpTools(config);
+        List<CompletableFuture<XResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(httpTools.httpAsync(XRequest.GET(baseUrl + "/hedge")));
+        }
+        for (CompletableFuture<XResponse> future : futures) {
+            try (XResponse response = future.get(5, TimeUnit.SECONDS)) {
+                assertEquals(204, response.getStatusCode());
+            }
+        }
+        for (CompletableFuture<XResponse> future : httpTools.httpAll(Arrays.asList(XRequest.GET(baseUrl + "/hedge"), XRequest.GET(baseUrl + "/hedge"), XRequest.GET(baseUrl + "/hedge")))) {
+            future.get(5, TimeUnit.SECONDS).close();
+        }
+        assertTrue(hedgePolicy.getHedges() > 0);
+    }
+
+    @Test
+    void http_hedgeBulkhead() {
+        //对冲请求和原请求各自占用舱壁，舱壁已满时对冲请求被拒绝，只等待原请求
+        XHttpTools.Config config = new XHttpTools.Config();
+        XCircuitBreaker circuitBreaker = new XCircuitBreaker();
+        circuitBreaker.setMaxConcurrentCalls(1);
+        config.setCircuitBreaker(circuitBreaker);
+        XHedgePolicy hedgePolicy = new XHedgePolicy();
+        hedgePolicy.setInitialDelay(50);
+        hedgePolicy.setBudget(1);
+        config.setHedgePolicy(hedgePolicy);
+        XHttpTools httpTools = new XHttpTools(config);
+        try (XResponse response = httpTools.http(XRequest.GET(baseUrl + "/hedge"))) {
+            assertEquals(204, response.getStatusCode());
+        }
+        assertEquals(1, hedgePolicy.getHedges());
+        assertEquals(1, circuitBreaker.getRejected());
+        assertEquals(1, hedgeHits.get());
+    }
+
+    @Test
+    void http_circuitBreaker() throws InterruptedException {
+        XHttpTools.Config config = new XHttpTools.Config();
+        XCircuitBreaker circuitBreaker = new XCircuitBreaker();
+        circuitBreaker.setWindowSize(2);
+        circuitBreaker.setMinCalls(2);
+        circuitBreaker.setOpenDuration(100);
+        circuitBreaker.setHalfOpenCalls(1);
+        config.setCircuitBreaker(circuitBreaker);
+        XHttpTools httpTools = new XHttpTools(config);
+        String origin = XRequest.GET(baseUrl + "/flaky").getOrigin();
+        for (int i = 0; i < 2; i++) {
+            try (XResponse response = httpTools.http(XRequest.GET(baseUrl + "/flaky"))) {
+                assertEquals(503, response.getStatusCode());
+            }
+        }
+        assertEquals(XCircuitBreaker.State.OPEN, circuitBreaker.getState(origin));
+        RuntimeException error = assertThrows(RuntimeException.class, () -> httpTools.http(XRequest.GET(baseUrl + "/flaky")));
+        assertInstanceOf(RejectedExecutionException.class, error.getCause());
+        assertEquals(2, flakyHits.get());
+        assertEquals(1, circuitBreaker.getRejected());
+
+        Thread.sleep(150);
+        try (XResponse response = httpTools.http(XRequest.GET(baseUrl + "/flaky"))) {
+            assertEquals(204, response.getStatusCode());
+        }
+        assertEquals(XCircuitBreaker.State.CLOSED, circuitBreaker.getState(origin));
+    }
+
+    @Test
+    void http_loadBalancer() {
+        AtomicInteger failHits = new AtomicInteger();
+        server.createContext("/fail", exchange -> {
+            failHits.incrementAndGet();
+            exchange.sendResponseHeaders(500, -1);
+            exchange.close();
+        });
+        XHttpTools.Config config = new XHttpTools.Config();
+        XLoadBalancer loadBalancer = new XLoadBalancer();
+        loadBalancer.setFailureThreshold(2);
+        loadBalancer.upstream("svc", XLoadBalancer.Strategy.LEAST_OUTSTANDING, baseUrl, baseUrl + "/fail");
+        config.setLoadBalancer(loadBalancer);
+        XHttpTools httpTools = new XHttpTools(config);
+        int ok = 0;
+        for (int i = 0; i < 20; i++) {
+            try (XResponse response = httpTools.http(XRequest.GET("http://svc/hello"))) {
+                if (response.getStatusCode() == 200) {
+                    assertEquals("hello world", response.asString());
+                    ok++;
+                }
+            }
+        }
+        //失败的成员连续失败两次后被摘除，之后的请求都发往正常的成员
+        assertEquals(2, failHits.get());
+        assertEquals(18, ok);
+        assertTrue(loadBalancer.isEjected("svc", baseUrl + "/fail"));
+        assertFalse(loadBalancer.isEjected("svc", baseUrl));
+        assertTrue(loadBalancer.getLatency("svc", baseUrl) > 0);
+        assertEquals(0, loadBalancer.getOutstanding("svc", baseUrl));
+
+        //摘除比例的上限是一半，正常的成员不会再被摘除
+        loadBalancer.upstream("least", XLoadBalancer.Strategy.LEAST_OUTSTANDING, baseUrl + "/fail", baseUrl + "/fail/v2");
+        for (int i = 0; i < 6; i++) {
+            httpTools.http(XRequest.GET("http://least/hello").query("id", i)).close();
+        }
+        assertTrue(loadBalancer.isEjected("least", baseUrl + "/fail") ^ loadBalancer.isEjected("least", baseUrl + "/fail/v2"));
+        assertEquals("hello world", httpTools.http(XRequest.GET("http://localhost:" + server.getAddress().getPort() + "/hello")).asString());
+
+        //不摘除时，一直失败的成员也不会因为没有耗时而被P2C优先选中
+        failHits.set(0);
+        loadBalancer.setFailureThreshold(100);
+        loadBalancer.upstream("p2c", XLoadBalancer.Strategy.POWER_OF_TWO_CHOICES, baseUrl, baseUrl + "/fail");
+        for (int i = 0; i < 10; i++) {
+            httpTools.http(XRequest.GET("http://p2c/hello")).close();
+        }
+        assertTrue(failHits.get() <= 1);
+        assertFalse(loadBalancer.isEjected("p2c", baseUrl + "/fail"));
+
+        //没有路径的url保留参数
+        assertEquals(baseUrl + "?id=1", XRequest.GET("http://svc?id=1").rebase(baseUrl).getUrl());
+        assertEquals(baseUrl + "#top", XRequest.GET("http://svc#top").rebase(baseUrl).getUrl());
+        assertEquals(baseUrl + "/users?id=1", XRequest.GET("http://svc/users?id=1").rebase(baseUrl).getUrl());
+    }
+
+    @Test
+    void http_singleFlight() throws Exception {
+        AtomicInteger herdHits = new AtomicInteger();
+        server.createContext("/herd", exchange -> {
+            herdHits.incrementAndGet();
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException ignored) {
+            }
+            byte[] body = "hello herd".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream outStream = exchange.getResponseBody()) {
+                outStream.write(body);
+            }
+        });
+        XHttpTools.Config config = new XHttpTools.Config();
+        XSingleFlight singleFlight = new XSingleFlight();
+        config.setSingleFlight(singleFlight);
+        XHttpTools httpTools = new XHttpTools(config);
+        XRequest request = XRequest.GET(baseUrl + "/herd").freeze();
+        List<CompletableFuture<XResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(httpTools.httpAsync(request));
+        }
+        for (CompletableFuture<XResponse> future : futures) {
+            assertEquals("hello herd", future.get().asString());
+        }
+        assertEquals(1, herdHits.get());
+        assertEquals(7, singleFlight.getCoalescedCount());
+
+        //请求头不同的请求不合并，请求结束后再发出的请求也不合并
+        CompletableFuture<XResponse> english = httpTools.httpAsync(request.copy().header("Accept-Language", "en"));
+        assertEquals("hello herd", httpTools.http(request).asString());
+        assertEquals("hello herd", english.get().asString());
+        assertEquals(3, herdHits.get());
+    }
+
+    @Test
+    void http_concurrencyLimiter() {
+        XHttpTools.Config config = new XHttpTools.Config();
+        XConcurrencyLimiter concurrencyLimiter = new XConcurrencyLimiter();
+        concurrencyLimiter.setInitialLimit(1);
+        concurrencyLimiter.setMaxLimit(3);
+        config.setConcurrencyLimiter(concurrencyLimiter);
+        XHttpTools httpTools = new XHttpTools(config);
+        String origin = XRequest.GET(baseUrl + "/hello").getOrigin();
+        for (int i = 0; i < 10; i++) {
+            assertEquals("hello world", httpTools.http(XRequest.GET(baseUrl + "/hello")).asString());
+        }
+        assertEquals(3, concurrencyLimiter.getLimit(origin));
+
+        XConcurrencyLimiter fixedLimiter = new XConcurrencyLimiter();
+        fixedLimiter.setInitialLimit(1);
+        fixedLimiter.setMaxLimit(1);
+        config.setConcurrencyLimiter(fixedLimiter);
+        //并发限制器在本地拒绝的请求不是上游的失败，不会打开熔断器，也不会摘除成员
+        XCircuitBreaker circuitBreaker = new XCircuitBreaker();
+        circuitBreaker.setMinCalls(1);
+        config.setCircuitBreaker(circuitBreaker);
+        XLoadBalancer loadBalancer = new XLoadBalancer().upstream("limited", XLoadBalancer.Strategy.LEAST_OUTSTANDING, baseUrl);
+        loadBalancer.setFailureThreshold(1);
+        config.setLoadBalancer(loadBalancer);
+        CompletableFuture<XResponse> first = httpTools.httpAsync(XRequest.GET("http://limited/slow"));
+        CompletableFuture<XResponse> second = httpTools.httpAsync(XRequest.GET("http://limited/slow"));
+        int rejected = 0;
+        for (CompletableFuture<XResponse> future : Arrays.asList(first, second)) {
+            try (XResponse response = future.join()) {
+                assertEquals(204, response.getStatusCode());
+            } catch (CompletionException e) {
+                assertInstanceOf(RejectedExecutionException.class, e.getCause().getCause());
+                rejected++;
+            }
+        }
+        assertEquals(1, rejected);
+        assertEquals(1, fixedLimiter.getRejected());
+        assertEquals(XCircuitBreaker.State.CLOSED, circuitBreaker.getState(origin));
+        assertFalse(loadBalancer.isEjected("limited", baseUrl));
+    }
+
+    @Test
+    void http_rateLimiter() {
+        XHttpTools.Config config = new XHttpTools.Config();
+        XRateLimiter rateLimiter = new XRateLimiter(20);
+        config.setRateLimiter(rateLimiter);
+        XHttpTools httpTools = new XHttpTools(config);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 5; i++) {
+            assertEquals("hello world", httpTools.http(XRequest.GET(baseUrl + "/hello")).asString());
+        }
+        assertTrue(System.currentTimeMillis() - start >= 190);
+
+        start = System.currentTimeMillis();
+        List<CompletableFuture<XResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            futures.add(httpTools.httpAsync(XRequest.GET(baseUrl + "/hello")));
+        }
+        for (CompletableFuture<XResponse> future : futures) {
+            assertEquals("hello world", future.join().asString());
+        }
+        assertTrue(System.currentTimeMillis() - start >= 90);
+
+        rateLimiter.setPermitsPerSecond(1);
+        rateLimiter.setMode(XRateLimiter.Mode.FAIL_FAST);
+        rateLimiter.setKeyFunction(XRequest::getUrl);
+        httpTools.http(XRequest.GET(baseUrl + "/slow")).close();
+        RuntimeException error = assertThrows(RuntimeException.class, () -> httpTools.http(XRequest.GET(baseUrl + "/slow")));
+        assertInstanceOf(RejectedExecutionException.class, error.getCause());
+        assertEquals(1, rateLimiter.getRejected());
+    }
+
+    @Test
+    void http_cookieJar() throws Exception {
+        XHttpTools.Config config = new XHttpTools.Config();
+        XCookieJar cookieJar = new XCookieJar();
+        config.setCookieManager(cookieJar);
+        XHttpTools httpTools = new XHttpTools(config);
+        assertEquals("", httpTools.http(XRequest.GET(baseUrl + "/cookie").query("set", "a=1; Path=/")).asString());
+        httpTools.http(XRequest.GET(baseUrl + "/cookie/sub/page").query("set", "b=2")).close();
+        httpTools.http(XRequest.GET(baseUrl + "/cookie").query("set", "c=3; Max-Age=1")).close();
+        httpTools.http(XRequest.GET(baseUrl + "/cookie").query("set", "d=4; Domain=com")).close();
+        assertEquals("a=1; c=3", httpTools.http(XRequest.GET(baseUrl + "/cookie")).asString());
+        assertEquals("b=2; a=1; c=3", httpTools.http(XRequest.GET(baseUrl + "/cookie/sub/other")).asString());
+
+        httpTools.http(XRequest.GET(baseUrl + "/cookie").query("set", "a=0; Path=/; Max-Age=0")).close();
+        assertEquals("c=3", httpTools.http(XRequest.GET(baseUrl + "/cookie")).asString());
+        Thread.sleep(1100);
+        assertEquals("", httpTools.http(XRequest.GET(baseUrl + "/cookie")).asString());
+        assertEquals(1, cookieJar.getCookieStore().getCookies().size());
+        assertEquals("b=2", cookieJar.getCookieStore().getCookies().get(0).toString());
+
+        URI other = URI.create("http://www.example.com/");
+        cookieJar.getCookieStore().add(other, new HttpCookie("e", "5"));
+        assertEquals(Collections.singletonMap("Cookie", Collections.singletonList("e=5")), cookieJar.get(other, Collections.emptyMap()));
+        assertTrue(cookieJar.get(URI.create("http://api.example.com/"), Collections.emptyMap()).isEmpty());
+
+        //自定义的策略对没有domain属性的cookie同样生效，很大的max-age不会溢出成已过期
+        XCookieJar policyJar = new XCookieJar((uri, cookie) -> !cookie.getName().equals("x"));
+        policyJar.put(other, Collections.singletonMap("Set-Cookie", Arrays.asList("x=1", "y=2; Max-Age=9223372036854775807", "z=3; Domain=example.com")));
+        assertEquals(Collections.singletonMap("Cookie", Collections.singletonList("y=2; z=3")), policyJar.get(other, Collections.emptyMap()));
+        policyJar.setCookiePolicy(CookiePolicy.ACCEPT_NONE);
+        policyJar.put(other, Collections.singletonMap("Set-Cookie", Collections.singletonList("w=4")));
+        assertEquals(2, policyJar.getCookieStore().getCookies().size());
+    }
+
+    @Test
+    void http_tlsSessions() throws Exception {
+        SSLContext clientContext = sslContext(false);
+        HttpsServer httpsServer = httpsServer(exchange -> {
+            byte[] body = "hello world".getBytes(StandardCharsets.UTF_8);
+            if (exchange.getRequestURI().getPath().equals("/close")) {
+                exchange.getResponseHeaders().add("Connection", "close");
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream outStream = exchange.getResponseBody()) {
+                outStream.write(body);
+            }
+        });
+        try {
+            XHttpTools.Config config = new XHttpTools.Config();
+            config.setSslContext(clientContext);
+            config.setSslSessionCacheSize(100);
+            config.setSslSessionTimeout(600);
+            XHttpTools httpTools = new XHttpTools(config);
+            String url = "https://127.0.0.1:" + httpsServer.getAddress().getPort();
+            for (int i = 0; i < 3; i++) {
+                assertEquals("hello world", httpTools.http(XRequest.GET(url + "/close")).asString());
+            }
+            assertEquals(1, config.getFullHandshakes());
+            assertEquals(2, config.getResumedHandshakes());
+            assertEquals(100, clientContext.getClientSessionContext().getSessionCacheSize());
+            assertEquals(600, clientContext.getClientSessionContext().getSessionTimeout());
+
+            for (int i = 0; i < 3; i++) {
+                assertEquals("hello world", httpTools.http(XRequest.GET(url + "/hello")).asString());
+            }
+            assertEquals(1, config.getFullHandshakes());
+            assertEquals(3, config.getResumedHandshakes());
+        } finally {
+            httpsServer.stop(0);
+        }
+    }
+
+    @Test
+    void http_resolver() throws Exception {
+        HttpsServer httpsServer = httpsServer(exchange -> {
+            byte[] body = "hello world".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream outStream = exchange.getResponseBody()) {
+                outStream.write(body);
+            }
+        });
+        try {
+            //第一个地址是不可路由的文档地址，连接超时后应当转而连接第二个地址
+            XDnsCache dnsCache = new XDnsCache(new XHostsResolver().put("xtools.test", "192.0.2.1", "127.0.0.1"));
+            XHttpTools.Config config = new XHttpTools.Config();
+            config.setSslContext(sslContext(false));
+            config.setHostnameVerifier((hostname, session) -> true);
+            config.setResolver(dnsCache);
+            config.setConnectFailoverTimeout(200);
+            XHttpTools httpTools = new XHttpTools(config);
+            String url = "https://xtools.test:" + httpsServer.getAddress().getPort() + "/hello";
+            assertEquals("hello world", httpTools.http(XRequest.GET(url)).asString());
+            //连接失败的地址被移到末尾，之后优先连接可用的地址
+            assertEquals("127.0.0.1", dnsCache.resolve("xtools.test").get(0).getHostAddress());
+            assertEquals("hello world", httpTools.http(XRequest.GET(url)).asString());
+        } finally {
+            httpsServer.stop(0);
+        }
+
+        AtomicInteger lookups = new AtomicInteger();
+        XDnsCache dnsCache = new XDnsCache(host -> {
+            lookups.incrementAndGet();
+            return Collections.singletonList(InetAddress.getByAddress(host, new byte[]{127, 0, 0, 1}));
+        });
+        dnsCache.setTtl(400);
+        dnsCache.setRefreshAhead(0.5);
+        dnsCache.resolve("xtools.test");
+        dnsCache.resolve("XTools.test");
+        assertEquals(1, lookups.get());
+        //超过TTL的一半后访问，返回旧的记录并在后台刷新
+        Thread.sleep(250);
+        dnsCache.resolve("xtools.test");
+        for (int i = 0; i < 100 && lookups.get() < 2; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, lookups.get());
+        assertThrows(UnknownHostException.class, () -> new XHostsResolver().resolve("xtools.test"));
+    }
+
+    @Test
+    void http_metrics() {
+        XHttpTools.Config config = new XHttpTools.Config();
+        XMetrics metrics = new XMetrics();
+        config.setMetrics(metrics);
+        XHttpTools httpTools = new XHttpTools(config);
+        String origin = XRequest.GET(baseUrl + "/hello").getOrigin();
+        for (int i = 0; i < 3; i++) {
+            httpTools.http(XRequest.GET(baseUrl + "/hello")).close();
+        }
+        httpTools.http(XRequest.POST(baseUrl + "/echo").content("key", "value")).close();
+        assertThrows(RuntimeException.class, () -> httpTools.http(XRequest.GET("http://127.0.0.1:1/refused")));
+
+        XMetrics.Snapshot snapshot = metrics.getSnapshotAndReset();
+        assertEquals(5, snapshot.getCount("http.requests"));
+        assertEquals(4, snapshot.getCount("http.requests.host." + origin));
+        assertEquals(4, snapshot.getCount("http.requests.method.GET"));
+        assertEquals(1, snapshot.getCount("http.requests.method.POST"));
+        assertEquals(4, snapshot.getCount("http.requests.status.200"));
+        assertEquals(1, snapshot.getCount("http.requests.status.error"));
+        assertTrue(snapshot.getRate("http.requests") > 0);
+        XHistogram.Snapshot latency = snapshot.getHistogram("http.latency.host." + origin);
+        assertNotNull(latency);
+        assertEquals(4, latency.getCount());
+        assertTrue(latency.getPercentile(50) > 0 && latency.getPercentile(99) <= latency.getMax());
+
+        assertEquals(0, metrics.getSnapshot().getCount("http.requests"));
+        assertEquals(0, metrics.getSnapshot().getHistogram("http.latency").getCount());
+    }
+
+    @Test
+    void http_eventListener() throws Exception {
+        XHttpTools.Config config = new XHttpTools.Config();
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+        long[] bytes = new long[2];
+        config.getExecutor().addListener(new XEventListener() {
+            @Override
+            public void queued(@Nonnull XRequest request, long waitNanos) {
+                events.add("queued");
+            }
+
+            @Override
+            public void dnsResolved(@Nonnull XRequest request, @Nonnull String host, long nanos) {
+                events.add("dns:" + host);
+            }
+
+            @Override
+            public void connected(@Nonnull XRequest request, long nanos) {
+                events.add("connected");
+            }
+
+            @Override
+            public void requestBodyWritten(@Nonnull XRequest request, long count, long nanos) {
+                events.add("written");
+                bytes[0] = count;
+            }
+
+            @Override
+            public void firstByteReceived(@Nonnull XRequest request, int statusCode, long nanos) {
+                events.add("status:" + statusCode);
+            }
+
+            @Override
+            public void responseBodyRead(@Nonnull XRequest request, long count, long nanos) {
+                events.add("read");
+                bytes[1] = count;
+            }
+
+            @Override
+            public void closed(@Nonnull XRequest request, long totalNanos) {
+                events.add("closed");
+            }
+        });
+        XHttpTools httpTools = new XHttpTools(config);
+        assertEquals("hello world", httpTools.http(XRequest.POST(baseUrl + "/echo").content(new XRequest.StringContent(XRequest.MIME_JSON, "hello world"))).asString());
+        assertEquals(Arrays.asList("connected", "written", "status:200", "read", "closed"), events);
+        assertArrayEquals(new long[]{11, 11}, bytes);
+
+        events.clear();
+        httpTools.httpAsync(XRequest.GET(baseUrl + "/slow")).join().close();
+        assertEquals(Arrays.asList("queued", "connected", "status:204", "read", "closed"), events);
+
+        //HTTP连接不报告域名解析，复用keep-alive连接的请求不报告建立连接
+        config.setKeepAlive(true);
+        List<String> reusedEvents = Arrays.asList("status:200", "read", "closed");
+        events.clear();
+        assertEquals("hello world", httpTools.http(XRequest.GET(baseUrl + "/hello")).asString());
+        assertEquals(Arrays.asList("connected", "status:200", "read", "closed"), events);
+        events.clear();
+        assertEquals("hello world", httpTools.http(XRequest.GET(baseUrl + "/hello")).asString());
+        assertEquals(reusedEvents, events);
+
+        HttpsServer httpsServer = httpsServer(exchange -> {
+            byte[] body = "hello world".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream outStream = exchange.getResponseBody()) {
+                outStream.write(body);
+            }
+        });
+        try {
+            config.setSslContext(sslContext(false));
+            String url = "https://127.0.0.1:" + httpsServer.getAddress().getPort();
+            events.clear();
+            assertEquals("hello world", httpTools.http(XRequest.GET(url + "/hello")).asString());
+            assertEquals(Arrays.asList("dns:127.0.0.1", "connected", "status:200", "read", "closed"), events);
+            events.clear();
+            assertEquals("hello world", httpTools.http(XRequest.GET(url + "/hello")).asString());
+            assertEquals(reusedEvents, events);
+        } finally {
+            httpsServer.stop(0);
+        }
+    }
+
+    @Test
+    void http_streaming() throws InterruptedException {
+        XHttpTools httpTools = new XHttpTools(new XHttpTools.Config());
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            body.append("{\"id\":").append(i).append("}\n");
+        }
+        XRequest request = XRequest.POST(baseUrl + "/echo").content(new XRequest.StringContent(XRequest.MIME_JSON, body.toString()));
+
+        try (Stream<String> lines = httpTools.http(request).lines()) {
+            assertEquals(1000, lines.filter(line -> line.startsWith("{\"id\":")).count());
+        }
+
+        ByteArrayOutputStream chunked = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+        Iterator<ByteBuffer> chunks = httpTools.http(request).chunks(buffer);
+        while (chunks.hasNext()) {
+            ByteBuffer chunk = chunks.next();
+            assertSame(buffer, chunk);
+            byte[] bytes = new byte[chunk.remaining()];
+            chunk.get(bytes);
+            chunked.write(bytes, 0, bytes.length);
+        }
+        assertEquals(body.toString(), new String(chunked.toByteArray(), StandardCharsets.UTF_8));
+
+        ByteArrayOutputStream published = new ByteArrayOutputStream();
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicInteger maxChunk = new AtomicInteger();
+        httpTools.http(request).publisher(256).subscribe(new Flow.Subscriber<ByteBuffer>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(ByteBuffer item) {
+                maxChunk.accumulateAndGet(item.remaining(), Math::max);
+                published.write(item.array(), item.arrayOffset() + item.position(), item.remaining());
+                subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                latch.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(maxChunk.get() <= 256);
+        assertEquals(body.toString(), new String(published.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void http_bytes() {
+        XHttpTools httpTools = new XHttpTools(new XHttpTools.Config());
+        assertArrayEquals("hello world".getBytes(StandardCharsets.UTF_8), httpTools.http(XRequest.GET(baseUrl + "/hello")).asBytes());
+        assertArrayEquals(fileBody, httpTools.http(XRequest.GET(baseUrl + "/file")).asBytes());
+        //超过1MB的响应体逐步扩容，扩容不超过Content-Length
+        ByteBuffer large = httpTools.http(XRequest.GET(baseUrl + "/file")).asByteBuffer(false);
+        assertEquals(fileBody.length, large.capacity());
+        assertEquals(ByteBuffer.wrap(fileBody), large);
+
+        String json = "{\"key\":\"value\"}";
+        ByteBuffer direct = httpTools.http(XRequest.POST(baseUrl + "/gzip").content(new XRequest.StringContent(XRequest.MIME_JSON, json))).asByteBuffer(true);
+        assertTrue(direct.isDirect());
+        assertEquals(json, StandardCharsets.UTF_8.decode(direct).toString());
+
+        ByteBuffer reused = ByteBuffer.allocate(64);
+        assertSame(reused, httpTools.http(XRequest.GET(baseUrl + "/hello")).asByteBuffer(reused));
+        assertEquals("hello world", StandardCharsets.UTF_8.decode(reused).toString());
+        ByteBuffer grown = httpTools.http(XRequest.GET(baseUrl + "/file")).asByteBuffer(ByteBuffer.allocate(1024));
+        assertEquals(fileBody.length, grown.remaining());
+        assertEquals(ByteBuffer.wrap(fileBody), grown);
+    }
+
+    @Test
+    void http_buffer() throws IOException {
+        XHttpTools.Config config = new XHttpTools.Config();
+        config.setBufferThreshold(1024 * 1024);
+        config.setBufferDirect(true);
+        XHttpTools httpTools = new XHttpTools(config);
+        long used = XBodyBuffer.getMemoryUsed();
+
+        //不超过阈值的响应体保存在内存中，可以重复读取，关闭后归还内存预算
+        String json = "{\"key\":\"value\"}";
+        try (XResponse response = httpTools.http(XRequest.POST(baseUrl + "/gzip").content(new XRequest.StringContent(XRequest.MIME_JSON, json))).buffer()) {
+            assertFalse(response.getBuffer().isSpilled());
+            assertEquals(json, response.asString());
+            assertEquals(json, response.asString());
+            assertEquals(json.length(), response.asBytes().length);
+            assertTrue(XBodyBuffer.getMemoryUsed() > used);
+        }
+        assertEquals(used, XBodyBuffer.getMemoryUsed());
+
+        //超过阈值的响应体转存到临时文件
+        File spilled;
+        try (XResponse response = httpTools.http(XRequest.GET(baseUrl + "/file")).buffer()) {
+            XBodyBuffer buffer = response.getBuffer();
+            assertTrue(buffer.isSpilled());
+            assertEquals(fileBody.length, buffer.length());
+            assertArrayEquals(fileBody, response.asBytes());
+            try (Stream<String> lines = response.lines()) {
+                assertTrue(lines.count() > 0);
+            }
+            assertArrayEquals(fileBody, response.asBytes());
+            spilled = response.asFile(Files.createTempFile("xtools-", ".bin").toString());
+        }
+        assertEquals(used, XBodyBuffer.getMemoryUsed());
+        assertArrayEquals(fileBody, Files.readAllBytes(spilled.toPath()));
+        assertTrue(spilled.delete());
+
+        //全局内存预算用完时即使没有超过阈值也转存到临时文件
+        long budget = XBodyBuffer.getMemoryBudget();
+        XBodyBuffer.setMemoryBudget(0);
+        try (XResponse response = httpTools.http(XRequest.GET(baseUrl + "/hello")).buffer()) {
+            assertTrue(response.getBuffer().isSpilled());
+            assertEquals("hello world", response.asString());
+        } finally {
+            XBodyBuffer.setMemoryBudget(budget);
+        }
+    }
+
+    @Test
+    void http_streamContent() throws IOException {
+        XHttpTools httpTools = new XHttpTools(new XHttpTools.Config());
+        //边生成边上传的NDJSON，长度未知时使用chunked模式
+        Iterator<String> lines = Stream.iterate(0, i -> i < 10000, i -> i + 1).map(i -> "{\"id\":" + i + "}\n").iterator();
+        String echoed = httpTools.http(XRequest.POST(baseUrl + "/echo").content(new XRequest.IteratorContent("application/x-ndjson", lines))).asString();
+        assertEquals(10000, echoed.split("\n").length);
+        assertEquals("{\"id\":9999}", echoed.split("\n")[9999]);
+
+        XRequest.StreamContent streamContent = new XRequest.StreamContent("application/octet-stream", new ByteArrayInputStream(fileBody));
+        assertEquals(-1, streamContent.contentLength());
+        assertArrayEquals(fileBody, httpTools.http(XRequest.POST(baseUrl + "/echo").content(streamContent)).asBytes());
+        assertFalse(streamContent.replayable());
+        assertThrows(IOException.class, () -> streamContent.writeToStream(new ByteArrayOutputStream()));
+
+        //不超过标记上限的请求体可以重放
+        XRequest.ReaderContent readerContent = new XRequest.ReaderContent(XRequest.MIME_JSON, new StringReader("{\"key\":\"你好\"}"), 1024);
+        assertEquals(XRequest.MIME_JSON + "; charset=utf-8", readerContent.contentType());
+        assertEquals("{\"key\":\"你好\"}", httpTools.http(XRequest.POST(baseUrl + "/echo").content(readerContent)).asString());
+        assertTrue(readerContent.replayable());
+        assertEquals("{\"key\":\"你好\"}", httpTools.http(XRequest.POST(baseUrl + "/echo").content(readerContent)).asString());
+
+        XRequest.StreamContent marked = new XRequest.StreamContent("application/octet-stream", new ByteArrayInputStream(fileBody), 1024);
+        marked.writeToStream(new ByteArrayOutputStream());
+        assertFalse(marked.replayable());
+
+        //请求体恰好等于标记上限时也可以重放，不支持标记的流和Reader由缓冲流包装
+        for (int size : new int[]{100, 8192}) {
+            byte[] body = Arrays.copyOf(fileBody, size);
+            XRequest.StreamContent exact = new XRequest.StreamContent("application/octet-stream", new SequenceInputStream(new ByteArrayInputStream(body), InputStream.nullInputStream()), size);
+            String text = "a".repeat(size);
+            XRequest.ReaderContent exactReader = new XRequest.ReaderContent("text/plain", new InputStreamReader(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8), size);
+            for (int i = 0; i < 2; i++) {
+                assertTrue(exact.replayable());
+                ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+                exact.writeToStream(outStream);
+                assertArrayEquals(body, outStream.toByteArray());
+                assertTrue(exactReader.replayable());
+                outStream = new ByteArrayOutputStream();
+                exactReader.writeToStream(outStream);
+                assertEquals(text, outStream.toString(StandardCharsets.UTF_8));
+            }
+            XRequest.StreamContent over = new XRequest.StreamContent("application/octet-stream", new SequenceInputStream(new ByteArrayInputStream(body), InputStream.nullInputStream()), size - 1);
+            over.writeToStream(new ByteArrayOutputStream());
+            assertFalse(over.replayable());
+        }
+
+        Path path = Files.createTempFile("xtools-", ".bin");
+        try {
+            Files.write(path, fileBody);
+            try (FileChannel channel = FileChannel.open(path)) {
+                XRequest.StreamContent channelContent = new XRequest.StreamContent("application/octet-stream", channel);
+                for (int i = 0; i < 2; i++) {
+                    assertTrue(channelContent.replayable());
+                    ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+                    channelContent.writeToStream(outStream);
+                    assertArrayEquals(fileBody, outStream.toByteArray());
+                }
+            }
+        } finally {
+            Files.delete(path);
+        }
+
+        XRequest.IteratorContent iterableContent = new XRequest.IteratorContent("text/plain; charset=GBK", Arrays.asList("你好", "world"));
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+            iterableContent.writeToStream(outStream);
+            assertEquals("你好world", outStream.toString("GBK"));
+        }
+    }
+
+    @Test
+    void http_frozenRequest() {
+        XRequest template = XRequest.POST(baseUrl + "/echo?app=x%20tools").query("v", 1).header("X-Token", "t").content(new XRequest.StringContent(XRequest.MIME_JSON, "{}")).freeze();
+        assertTrue(template.isFrozen());
+        assertSame(template, template.freeze());
+        assertEquals(baseUrl + "/echo?app=x+tools&v=1", template.getUrl());
+        assertSame(template.getHeaders(), template.getHeaders());
+        assertEquals(3, template.getHeaders().size());
+        assertThrows(UnsupportedOperationException.class, () -> template.query("page", 2));
+        assertThrows(UnsupportedOperationException.class, () -> template.header("X-Token", "u", true));
+
+        XRequest bound = template.copy().query("page", 2);
+        assertFalse(bound.isFrozen());
+        assertEquals(baseUrl + "/echo?app=x+tools&v=1&page=2", bound.getUrl());
+        bound.query("v", 2, true);
+        assertEquals(baseUrl + "/echo?app=x+tools&page=2&v=2", bound.getUrl());
+        assertEquals(3, bound.getHeaders().size());
+        assertEquals(3, bound.getHeaders().size());
+
+        //修改复制出的请求的请求体参数不会影响冻结的模板
+        XRequest form = XRequest.POST(baseUrl + "/echo").content("app", "xtools").freeze();
+        XRequest alice = form.copy().content("user", "alice");
+        XRequest upload = form.copy().content("file", new XRequest.MultipartContent.Part("file", "data"));
+        assertInstanceOf(XRequest.MultipartContent.class, upload.getContent());
+        try (XResponse response = new XHttpTools(new XHttpTools.Config()).http(form)) {
+            assertEquals("app=xtools", response.asString());
+        }
+        try (XResponse response = new XHttpTools(new XHttpTools.Config()).http(alice)) {
+            assertEquals("app=xtools&user=alice", response.asString());
+        }
+        assertNotSame(form.getContent(), alice.getContent());
+
+        XHttpTools httpTools = new XHttpTools(new XHttpTools.Config());
+        List<XRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            requests.add(template);
+        }
+        for (CompletableFuture<XResponse> future : httpTools.httpAll(requests)) {
+            assertEquals("{}", future.join().asString());
+        }
+    }
+
+    @Test
+    void download() throws IOException {
+        XHttpTools httpTools = new XHttpTools(new XHttpTools.Config());
+        XHttpTools.DownloadOptions options = new XHttpTools.DownloadOptions();
+        options.setMinRangeSize(512 * 1024);
+        Path path = Files.createTempFile("xdownload", ".bin");
+        try {
+            assertEquals(path, httpTools.download(XRequest.GET(baseUrl + "/file"), path, options));
+            assertArrayEquals(fileBody, Files.readAllBytes(path));
+            assertEquals(4, rangeHits.get());
+            assertFalse(Files.exists(path.resolveSibling(path.getFileName() + ".xdl")));
+
+            //弱ETag时使用Last-Modified作为If-Range
+            Files.delete(path);
+            assertEquals(path, httpTools.download(XRequest.GET(baseUrl + "/file?weak=true"), path, options));
+            assertArrayEquals(fileBody, Files.readAllBytes(path));
+            assertEquals(8, rangeHits.get());
+
+            httpTools.download(XRequest.GET(baseUrl + "/hello"), path, options);
+            assertEquals("hello world", new String(Files.readAllBytes(path), StandardCharsets.UTF_8));
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * 使用测试密钥库创建SSLContext，证书是给127.0.0.1签发的自签名证书
+     */
+    private static SSLContext sslContext(boolean server) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream inStream = XHttpToolsTest.class.getResourceAsStream("/xtools-test.p12")) {
+            keyStore.load(inStream, "changeit".toCharArray());
+        }
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        if (server) {
+            KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagerFactory.init(keyStore, "changeit".toCharArray());
+            sslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+        } else {
+            TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trustManagerFactory.init(keyStore);
+            sslContext.init(null, trustManagerFactory.getTrustManagers(), null);
+        }
+        return sslContext;
+    }
+
+    /**
+     * 启动监听127.0.0.1随机端口的HTTPS服务器
+     */
+    private static HttpsServer httpsServer(HttpHandler handler) throws Exception {
+        HttpsServer httpsServer = HttpsServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        httpsServer.setHttpsConfigurator(new HttpsConfigurator(sslContext(true)));
+        httpsServer.createContext("/", handler);
+        httpsServer.start();
+        return httpsServer;
+    }
+}
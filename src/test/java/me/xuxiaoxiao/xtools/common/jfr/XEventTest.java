@@ -0,0 +1,82 @@
+package me.xuxiaoxiao.xtools.common.jfr;
+
+import com.sun.net.httpserver.HttpServer;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import me.xuxiaoxiao.xtools.common.XTools;
+import me.xuxiaoxiao.xtools.common.hash.XHashTools;
+import me.xuxiaoxiao.xtools.common.http.XHttpTools;
+import me.xuxiaoxiao.xtools.common.http.impl.XRequest;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class XEventTest {
+
+    @Test
+    void events() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/hello", exchange -> {
+            byte[] body = "hello world".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        Path source = Files.createTempFile("xevent", ".txt");
+        Path target = Files.createTempFile("xevent", ".copy");
+        Path dump = Files.createTempFile("xevent", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(XHttpEvent.class).withThreshold(Duration.ZERO);
+            recording.enable(XHashEvent.class).withThreshold(Duration.ZERO);
+            recording.enable(XIoEvent.class).withThreshold(Duration.ZERO);
+            recording.start();
+
+            String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/hello";
+            new XHttpTools(new XHttpTools.Config()).http(XRequest.GET(url)).close();
+            Files.write(source, "0123456789".getBytes(StandardCharsets.UTF_8));
+            new XHashTools(new XHashTools.Config()).hash(XHashTools.HASH_MD5, source.toFile());
+            XTools.fileToFile(source.toFile(), target.toString());
+            XTools.streamToStream(new ByteArrayInputStream(new byte[7]), new ByteArrayOutputStream());
+
+            recording.stop();
+            recording.dump(dump);
+
+            Map<String, RecordedEvent> events = new HashMap<>();
+            for (RecordedEvent event : RecordingFile.readAllEvents(dump)) {
+                String name = event.getEventType().getName();
+                if (name.equals("me.xuxiaoxiao.xtools.Http") && !url.equals(event.getString("url"))) {
+                    continue;
+                }
+                events.put(name.equals("me.xuxiaoxiao.xtools.Io") ? event.getString("operation") : name, event);
+            }
+            RecordedEvent http = events.get("me.xuxiaoxiao.xtools.Http");
+            assertEquals(url, http.getString("url"));
+            assertEquals("GET", http.getString("method"));
+            assertEquals(200, http.getInt("statusCode"));
+            assertEquals(11, http.getLong("responseBytes"));
+            assertEquals(10, events.get("me.xuxiaoxiao.xtools.Hash").getLong("bytes"));
+            assertEquals(source.toFile().getPath(), events.get("me.xuxiaoxiao.xtools.Hash").getString("path"));
+            assertEquals(10, events.get("fileToFile").getLong("bytes"));
+            assertEquals(new File(target.toString()).getPath(), events.get("fileToFile").getString("target"));
+            assertEquals(7, events.get("streamToStream").getLong("bytes"));
+        } finally {
+            server.stop(0);
+            Files.deleteIfExists(source);
+            Files.deleteIfExists(target);
+            Files.deleteIfExists(dump);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package me.xuxiaoxiao.xtools.common.metrics;
+
+import me.xuxiaoxiao.xtools.common.XTools;
+import me.xuxiaoxiao.xtools.common.hash.XHashTools;
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class XMetricsTest {
+
+    @Test
+    void histogram() {
+        XHistogram histogram = new XHistogram();
+        assertEquals(0, histogram.getSnapshot().getPercentile(99));
+        for (long i = 1; i <= 100000; i++) {
+            histogram.record(i * 1000);
+        }
+        XHistogram.Snapshot snapshot = histogram.getSnapshotAndReset();
+        assertEquals(100000, snapshot.getCount());
+        assertEquals(1000, snapshot.getMin());
+        assertEquals(100000000, snapshot.getMax());
+        assertEquals(50000500, snapshot.getMean(), 1);
+        for (double percentile : new double[]{50, 90, 99, 99.9}) {
+            double expected = percentile * 1000000;
+            long actual = snapshot.getPercentile(percentile);
+            assertTrue(actual >= expected && actual <= expected * (1 + 1.0 / 64), percentile + ":" + actual);
+        }
+        assertEquals(100000000, snapshot.getPercentile(100));
+        assertEquals(0, histogram.getSnapshot().getCount());
+
+        histogram.record(Long.MAX_VALUE);
+        histogram.record(-1);
+        assertEquals(Long.MAX_VALUE, histogram.getSnapshot().getPercentile(100));
+        assertEquals(0, histogram.getSnapshot().getPercentile(50));
+    }
+
+    @Test
+    void hashAndStreams() throws IOException {
+        XMetrics metrics = new XMetrics();
+        XHashTools.Config config = new XHashTools.Config();
+        config.setMetrics(metrics);
+        XHashTools hashTools = new XHashTools(config);
+        hashTools.hash(XHashTools.HASH_MD5, "hello".getBytes(StandardCharsets.UTF_8));
+        hashTools.hash(XHashTools.HASH_MD5, "world!".getBytes(StandardCharsets.UTF_8));
+        assertEquals(2, metrics.getCount("hash.MD5.ops"));
+        assertEquals(11, metrics.getCount("hash.MD5.bytes"));
+
+        XTools.setMetrics(metrics);
+        try {
+            byte[] data = "你好，world".getBytes(StandardCharsets.UTF_8);
+            assertEquals("你好，world", XTools.streamToStr(new ByteArrayInputStream(data), "UTF-8"));
+            XTools.streamToStream(new ByteArrayInputStream(data), new ByteArrayOutputStream());
+            assertEquals(1, metrics.getCount("io.streamToStr.ops"));
+            assertEquals(data.length, metrics.getCount("io.streamToStr.bytes"));
+            assertEquals(data.length, metrics.getCount("io.streamToStream.bytes"));
+        } finally {
+            XTools.setMetrics(null);
+        }
+
+        metrics.reset();
+        assertEquals(0, metrics.getSnapshot().getCount("hash.MD5.ops"));
+    }
+
+    @Test
+    void mbean() throws Exception {
+        XMetrics metrics = new XMetrics();
+        metrics.add("requests", 3);
+        metrics.record("latency", 1000);
+        metrics.registerMBean("me.xuxiaoxiao.xtools:type=XMetrics,name=test");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("me.xuxiaoxiao.xtools:type=XMetrics,name=test");
+        try {
+            assertEquals(3L, server.getAttribute(name, "requests"));
+            assertEquals(1L, server.getAttribute(name, "latency.count"));
+            assertEquals(1000L, server.getAttribute(name, "latency.p99"));
+            server.invoke(name, "reset", new Object[0], new String[0]);
+            assertEquals(0L, server.getAttribute(name, "requests"));
+        } finally {
+            metrics.unregisterMBean();
+        }
+        assertFalse(server.isRegistered(name));
+    }
+}